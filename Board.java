@@ -0,0 +1,269 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import tester.*;
+import java.awt.Color;
+
+// Represents the squares of a game board, addressed by index = y * width + x.
+// Colors are indices into the game's palette (see FloodItWorld.colors)
+interface IBoard {
+  // the number of columns of this board
+  int width();
+
+  // the number of rows of this board
+  int height();
+
+  // the number of cells on this board
+  int size();
+
+  // the palette index of the color of the cell at the given index
+  int colorAt(int index);
+
+  // changes the color of the cell at the given index
+  // EFFECT: the cell at index now has the given palette color
+  void setColor(int index, int color);
+
+  // is the cell at the given index flooded
+  boolean isFlooded(int index);
+
+  // makes the cell at the given index flooded
+  // EFFECT: the cell at index is now flooded
+  void makeFlooded(int index);
+
+  // makes the cell at the given index not flooded, when undoing a move
+  // EFFECT: the cell at index is no longer flooded
+  void makeUnflooded(int index);
+}
+
+// The reference board: one Cell object per square, linked through INodes.
+// Kept so the original object graph can be compared against the packed board
+class CellBoard implements IBoard {
+  ArrayList<Cell> cells;
+  ArrayList<Color> palette;
+  int width;
+  int height;
+
+  CellBoard(ArrayList<Cell> cells, ArrayList<Color> palette, int width, int height) {
+    this.cells = cells;
+    this.palette = palette;
+    this.width = width;
+    this.height = height;
+  }
+
+  public int width() {
+    return this.width;
+  }
+
+  public int height() {
+    return this.height;
+  }
+
+  public int size() {
+    return this.cells.size();
+  }
+
+  // the palette is tiny, so a linear lookup is fine for the reference board
+  public int colorAt(int index) {
+    return this.palette.indexOf(this.cells.get(index).color);
+  }
+
+  public void setColor(int index, int color) {
+    this.cells.get(index).color = this.palette.get(color);
+  }
+
+  public boolean isFlooded(int index) {
+    return this.cells.get(index).isFlooded();
+  }
+
+  public void makeFlooded(int index) {
+    this.cells.get(index).makeFlooded();
+  }
+
+  public void makeUnflooded(int index) {
+    this.cells.get(index).flooded = false;
+  }
+}
+
+// A compact board: one byte of color per cell and one bit of flooded state per cell,
+// both stored row-major so neighboring cells share cache lines.
+// Uses about 1.1 bytes per cell, where a linked Cell costs roughly 50
+class PackedBoard implements IBoard {
+  // the most cells any board can have, so that every index fits in an int
+  static final int MAX_CELLS = Integer.MAX_VALUE - 8;
+
+  int width;
+  int height;
+  byte[] colors;
+  long[] flooded;
+
+  PackedBoard(int width, int height) {
+    int size = checkedSize(width, height);
+    this.width = width;
+    this.height = height;
+    this.colors = new byte[size];
+    this.flooded = new long[(int) (((long) size + 63) >>> 6)];
+  }
+
+  // the number of cells of a width x height board
+  // throws an IllegalArgumentException when the board is empty or has more than MAX_CELLS
+  static int checkedSize(int width, int height) {
+    if (width < 1 || height < 1) {
+      throw new IllegalArgumentException("Board dimensions must be positive, given "
+          + width + "x" + height);
+    }
+    long size = (long) width * height;
+    if (size > MAX_CELLS) {
+      throw new IllegalArgumentException("Board of " + width + "x" + height
+          + " cells is too large");
+    }
+    return (int) size;
+  }
+
+  // creates a board whose colors are drawn from rand in the same row-major order
+  // as FloodItWorld.initializeBoard, so both representations agree for a given seed.
+  // The top-left cell starts flooded
+  static PackedBoard random(int width, int height, int numColors, Random rand) {
+    PackedBoard result = new PackedBoard(width, height);
+    for (int i = 0; i < result.colors.length; i++) {
+      result.colors[i] = (byte) rand.nextInt(numColors);
+    }
+    result.makeFlooded(0);
+    return result;
+  }
+
+  // a board with the same colors and flooded cells as this one, that changes apart
+  // from it
+  PackedBoard copy() {
+    PackedBoard result = new PackedBoard(this.width, this.height);
+    System.arraycopy(this.colors, 0, result.colors, 0, this.colors.length);
+    System.arraycopy(this.flooded, 0, result.flooded, 0, this.flooded.length);
+    return result;
+  }
+
+  public int width() {
+    return this.width;
+  }
+
+  public int height() {
+    return this.height;
+  }
+
+  public int size() {
+    return this.colors.length;
+  }
+
+  public int colorAt(int index) {
+    return this.colors[index];
+  }
+
+  public void setColor(int index, int color) {
+    this.colors[index] = (byte) color;
+  }
+
+  public boolean isFlooded(int index) {
+    return (this.flooded[index >>> 6] & (1L << index)) != 0;
+  }
+
+  public void makeFlooded(int index) {
+    this.flooded[index >>> 6] |= 1L << index;
+  }
+
+  public void makeUnflooded(int index) {
+    this.flooded[index >>> 6] &= ~(1L << index);
+  }
+}
+
+class ExamplesBoard {
+  ArrayList<Color> palette = new ArrayList<Color>(Arrays.asList(Color.red, Color.green,
+      Color.yellow, Color.blue));
+
+  // a 3x2 board laid out as
+  //   red   green  red
+  //   blue  blue   green
+  PackedBoard packed;
+  CellBoard cells;
+
+  // resets the boards for testing purposes
+  void reset() {
+    int[] layout = new int[] {0, 1, 0, 3, 3, 1};
+    packed = new PackedBoard(3, 2);
+    ArrayList<Cell> list = new ArrayList<Cell>();
+    for (int i = 0; i < layout.length; i++) {
+      packed.setColor(i, layout[i]);
+      list.add(new Cell(i % 3, i / 3, palette.get(layout[i]), i == 0));
+    }
+    packed.makeFlooded(0);
+    cells = new CellBoard(list, palette, 3, 2);
+  }
+
+  // tests the dimensions of both representations
+  boolean testDimensions(Tester t) {
+    reset();
+    return t.checkExpect(packed.width(), 3)
+        && t.checkExpect(packed.height(), 2)
+        && t.checkExpect(packed.size(), 6)
+        && t.checkExpect(cells.width(), 3)
+        && t.checkExpect(cells.height(), 2)
+        && t.checkExpect(cells.size(), 6);
+  }
+
+  // tests that both representations agree on every cell
+  boolean testSameContents(Tester t) {
+    reset();
+    boolean result = true;
+    for (int i = 0; i < 6; i++) {
+      result = result
+          && t.checkExpect(packed.colorAt(i), cells.colorAt(i))
+          && t.checkExpect(packed.isFlooded(i), cells.isFlooded(i));
+    }
+    return result;
+  }
+
+  // tests changing the color of a cell
+  boolean testSetColor(Tester t) {
+    reset();
+    boolean test1 = t.checkExpect(packed.colorAt(4), 3);
+    packed.setColor(4, 2);
+    boolean test2 = t.checkExpect(packed.colorAt(4), 2);
+    cells.setColor(4, 2);
+    boolean test3 = t.checkExpect(cells.colorAt(4), 2);
+    boolean test4 = t.checkExpect(cells.cells.get(4).color, Color.yellow);
+    return test1 && test2 && test3 && test4;
+  }
+
+  // tests flooding cells, including ones past the first word of the bitset
+  boolean testMakeFlooded(Tester t) {
+    reset();
+    PackedBoard big = new PackedBoard(10, 10);
+    boolean test1 = t.checkExpect(packed.isFlooded(0), true);
+    boolean test2 = t.checkExpect(packed.isFlooded(5), false);
+    packed.makeFlooded(5);
+    boolean test3 = t.checkExpect(packed.isFlooded(5), true);
+    boolean test4 = t.checkExpect(packed.isFlooded(4), false);
+    big.makeFlooded(64);
+    big.makeFlooded(99);
+    boolean test5 = t.checkExpect(big.isFlooded(64), true);
+    boolean test6 = t.checkExpect(big.isFlooded(0), false);
+    boolean test7 = t.checkExpect(big.isFlooded(99), true);
+    cells.makeFlooded(5);
+    boolean test8 = t.checkExpect(cells.isFlooded(5), true);
+    big.makeUnflooded(64);
+    cells.makeUnflooded(5);
+    boolean test9 = t.checkExpect(big.isFlooded(64), false)
+        && t.checkExpect(big.isFlooded(99), true)
+        && t.checkExpect(cells.isFlooded(5), false);
+    return test1 && test2 && test3 && test4 && test5 && test6 && test7 && test8 && test9;
+  }
+
+  // tests that a random packed board matches the board FloodItWorld builds from Cells
+  boolean testRandomMatchesCells(Tester t) {
+    FloodItWorld world = new FloodItWorld(4, new Random(7));
+    PackedBoard board = PackedBoard.random(FloodItWorld.DEFAULT_BOARD_SIZE,
+        FloodItWorld.DEFAULT_BOARD_SIZE, 4, new Random(7));
+    boolean result = t.checkExpect(board.isFlooded(0), true);
+    for (int i = 0; i < board.size(); i++) {
+      result = result && t.checkExpect(board.colorAt(i), world.grid.colorAt(i));
+    }
+    return result;
+  }
+}
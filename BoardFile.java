@@ -0,0 +1,403 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import tester.*;
+
+// A board to play with its number of colors and move limit, as kept in a BoardFile
+class Puzzle {
+  PackedBoard board;
+  int numColors;
+  // the moves allowed, or 0 for FloodItWorld.moveLimitFor's
+  int moveLimit;
+
+  Puzzle(PackedBoard board, int numColors, int moveLimit) {
+    this.board = board;
+    this.numColors = numColors;
+    this.moveLimit = moveLimit;
+  }
+
+  // a game on a copy of this puzzle's board, so the puzzle can be played again;
+  // a reset starts the puzzle over
+  FloodItWorld world(Random rand) {
+    FloodItWorld world = new FloodItWorld(this.board.copy(), this.numColors, rand);
+    world.puzzle = this;
+    if (this.moveLimit > 0) {
+      world.moveLimit = this.moveLimit;
+    }
+    return world;
+  }
+}
+
+// A file of puzzles. It starts with a header (MAGIC, VERSION and the number of
+// puzzles) and an index with the offset of every puzzle in the file. A puzzle is
+// its width, height, number of colors and move limit, then its colors packed
+// little-endian, lowest bits first, in as few bits per cell as the colors need
+// and padded to whole ints. Every puzzle starts with only its top-left cell flooded.
+// Loading a puzzle maps just its bytes and unpacks them straight into a PackedBoard
+class BoardFile {
+  // "FBRD"
+  static final int MAGIC = 0x46425244;
+  static final int VERSION = 1;
+  static final int HEADER_BYTES = 12;
+  // width, height, colors and move limit
+  static final int PUZZLE_HEADER_BYTES = 4 + 4 + 1 + 4;
+  // the most colors a puzzle can have, one per color of FloodItWorld's palette
+  static final int MAX_COLORS = 6;
+
+  Path path;
+  FileChannel channel;
+  long size;
+  long[] offsets;
+
+  // opens the board file at the given path, reading its index. Nothing read is
+  // trusted: a header, count or offset that does not fit the file means it is not
+  // a board file
+  BoardFile(Path path) throws IOException {
+    this.path = path;
+    this.channel = FileChannel.open(path, StandardOpenOption.READ);
+    try {
+      this.size = this.channel.size();
+      MappedByteBuffer header = this.channel.map(FileChannel.MapMode.READ_ONLY, 0,
+          Math.min(this.size, HEADER_BYTES));
+      header.order(ByteOrder.LITTLE_ENDIAN);
+      if (this.size < HEADER_BYTES || header.getInt() != MAGIC
+          || header.getInt() != VERSION) {
+        throw this.notABoardFile();
+      }
+      int count = header.getInt();
+      if (count < 0 || count > (this.size - HEADER_BYTES) / 8) {
+        throw this.notABoardFile();
+      }
+      MappedByteBuffer index = this.channel.map(FileChannel.MapMode.READ_ONLY,
+          HEADER_BYTES, 8L * count);
+      index.order(ByteOrder.LITTLE_ENDIAN);
+      this.offsets = new long[count];
+      long first = HEADER_BYTES + 8L * count;
+      for (int i = 0; i < count; i++) {
+        this.offsets[i] = index.getLong();
+        if (this.offsets[i] < first || this.offsets[i] > this.size - PUZZLE_HEADER_BYTES) {
+          throw this.notABoardFile();
+        }
+      }
+    }
+    catch (IOException | RuntimeException e) {
+      this.channel.close();
+      throw e;
+    }
+  }
+
+  // the error for a file whose contents are not a board file's
+  IllegalArgumentException notABoardFile() {
+    return new IllegalArgumentException("Not a board file: " + this.path);
+  }
+
+  // the number of bits a cell takes for the given number of colors
+  static int bitsPerCell(int numColors) {
+    return Math.max(1, 32 - Integer.numberOfLeadingZeros(numColors - 1));
+  }
+
+  // the number of bytes the packed colors of a board take
+  static long packedBytes(int cells, int bits) {
+    return ((long) cells * bits + 31) / 32 * 4;
+  }
+
+  // the number of puzzles in this file
+  int count() {
+    return this.offsets.length;
+  }
+
+  // the puzzle at the given position in this file
+  Puzzle load(int position) throws IOException {
+    if (position < 0 || position >= this.offsets.length) {
+      throw new IllegalArgumentException("No puzzle " + position + " in a file of "
+          + this.offsets.length);
+    }
+    long offset = this.offsets[position];
+    MappedByteBuffer header = this.channel.map(FileChannel.MapMode.READ_ONLY, offset,
+        PUZZLE_HEADER_BYTES);
+    header.order(ByteOrder.LITTLE_ENDIAN);
+    int width = header.getInt();
+    int height = header.getInt();
+    int numColors = header.get();
+    int moveLimit = header.getInt();
+    if (width < 1 || height < 1 || (long) width * height > PackedBoard.MAX_CELLS
+        || numColors < 1 || numColors > MAX_COLORS || moveLimit < 0) {
+      throw this.notABoardFile();
+    }
+    int bits = bitsPerCell(numColors);
+    long bytes = packedBytes(width * height, bits);
+    if (bytes > this.size - offset - PUZZLE_HEADER_BYTES) {
+      throw this.notABoardFile();
+    }
+    PackedBoard board = new PackedBoard(width, height);
+    MappedByteBuffer packed = this.channel.map(FileChannel.MapMode.READ_ONLY,
+        offset + PUZZLE_HEADER_BYTES, bytes);
+    packed.order(ByteOrder.LITTLE_ENDIAN);
+    unpack(packed, board.colors, bits);
+    for (byte color : board.colors) {
+      if (color >= numColors) {
+        throw this.notABoardFile();
+      }
+    }
+    board.makeFlooded(0);
+    return new Puzzle(board, numColors, moveLimit);
+  }
+
+  // EFFECT: fills colors from the packed cells at the buffer's position
+  static void unpack(ByteBuffer packed, byte[] colors, int bits) {
+    int mask = (1 << bits) - 1;
+    long pending = 0;
+    int pendingBits = 0;
+    for (int i = 0; i < colors.length; i++) {
+      if (pendingBits < bits) {
+        pending |= (packed.getInt() & 0xFFFFFFFFL) << pendingBits;
+        pendingBits += 32;
+      }
+      colors[i] = (byte) (pending & mask);
+      pending >>>= bits;
+      pendingBits -= bits;
+    }
+  }
+
+  // EFFECT: writes the colors packed at the buffer's position
+  static void pack(byte[] colors, int bits, ByteBuffer packed) {
+    long pending = 0;
+    int pendingBits = 0;
+    for (byte color : colors) {
+      pending |= (long) color << pendingBits;
+      pendingBits += bits;
+      if (pendingBits >= 32) {
+        packed.putInt((int) pending);
+        pending >>>= 32;
+        pendingBits -= 32;
+      }
+    }
+    if (pendingBits > 0) {
+      packed.putInt((int) pending);
+    }
+  }
+
+  // EFFECT: writes the given puzzles to a new board file at the given path,
+  // replacing any file there
+  static void write(Path path, ArrayList<Puzzle> puzzles) throws IOException {
+    FileChannel out = FileChannel.open(path, StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    try {
+      ByteBuffer index = ByteBuffer.allocate(HEADER_BYTES + 8 * puzzles.size())
+          .order(ByteOrder.LITTLE_ENDIAN);
+      index.putInt(MAGIC).putInt(VERSION).putInt(puzzles.size());
+      long offset = index.capacity();
+      for (Puzzle puzzle : puzzles) {
+        index.putLong(offset);
+        offset += PUZZLE_HEADER_BYTES
+            + packedBytes(puzzle.board.size(), bitsPerCell(puzzle.numColors));
+      }
+      index.flip();
+      writeFully(out, index);
+      for (Puzzle puzzle : puzzles) {
+        int bits = bitsPerCell(puzzle.numColors);
+        ByteBuffer bytes = ByteBuffer.allocate((int) (PUZZLE_HEADER_BYTES
+            + packedBytes(puzzle.board.size(), bits))).order(ByteOrder.LITTLE_ENDIAN);
+        bytes.putInt(puzzle.board.width).putInt(puzzle.board.height)
+            .put((byte) puzzle.numColors).putInt(puzzle.moveLimit);
+        pack(puzzle.board.colors, bits, bytes);
+        bytes.flip();
+        writeFully(out, bytes);
+      }
+    }
+    finally {
+      out.close();
+    }
+  }
+
+  // EFFECT: writes the rest of the given buffer to the channel
+  static void writeFully(FileChannel out, ByteBuffer bytes) throws IOException {
+    while (bytes.hasRemaining()) {
+      out.write(bytes);
+    }
+  }
+
+  // EFFECT: closes the file; puzzles already loaded stay usable
+  void close() throws IOException {
+    this.channel.close();
+  }
+}
+
+class ExamplesBoardFile {
+  // a fresh, empty file
+  Path tempFile() {
+    try {
+      File file = File.createTempFile("boards", ".fbrd");
+      file.deleteOnExit();
+      return file.toPath();
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  // are both boards the same, cell for cell
+  boolean sameBoard(PackedBoard a, PackedBoard b) {
+    return a.width == b.width && a.height == b.height && Arrays.equals(a.colors, b.colors)
+        && Arrays.equals(a.flooded, b.flooded);
+  }
+
+  // does the given board have the same colors and flooded cells as the packed one
+  boolean sameCells(IBoard a, PackedBoard b) {
+    boolean same = a.width() == b.width && a.height() == b.height;
+    for (int i = 0; same && i < b.size(); i++) {
+      same = a.colorAt(i) == b.colorAt(i) && a.isFlooded(i) == b.isFlooded(i);
+    }
+    return same;
+  }
+
+  // tests that puzzles of different sizes and colors come back as they were written
+  boolean testRoundTrip(Tester t) throws IOException {
+    ArrayList<Puzzle> puzzles = new ArrayList<Puzzle>();
+    puzzles.add(new Puzzle(PackedBoard.random(12, 12, 6, new Random(1)), 6, 20));
+    puzzles.add(new Puzzle(PackedBoard.random(7, 3, 2, new Random(2)), 2, 0));
+    puzzles.add(new Puzzle(PackedBoard.random(1, 1, 1, new Random(3)), 1, 0));
+    puzzles.add(new Puzzle(PackedBoard.random(33, 5, 4, new Random(4)), 4, 9));
+    Path path = tempFile();
+    BoardFile.write(path, puzzles);
+    BoardFile file = new BoardFile(path);
+    boolean same = file.count() == 4;
+    for (int i = 0; i < 4; i++) {
+      Puzzle back = file.load(i);
+      same = same && sameBoard(back.board, puzzles.get(i).board)
+          && back.numColors == puzzles.get(i).numColors
+          && back.moveLimit == puzzles.get(i).moveLimit;
+    }
+    file.close();
+    long expected = BoardFile.HEADER_BYTES + 4 * 8 + 4 * BoardFile.PUZZLE_HEADER_BYTES
+        + 56 + 4 + 4 + 44;
+    return t.checkExpect(same, true)
+        && t.checkExpect(path.toFile().length(), expected)
+        && t.checkExpect(BoardFile.bitsPerCell(6), 3)
+        && t.checkExpect(BoardFile.bitsPerCell(2), 1)
+        && t.checkExpect(BoardFile.packedBytes(4096 * 4096, 3), 4096L * 4096 * 3 / 8);
+  }
+
+  // tests that a 4096x4096 board loads into a packed board and can be played
+  boolean testLargeBoard(Tester t) throws IOException {
+    BoardGenerator generator = new BoardGenerator(new ForkJoinPool(2));
+    PackedBoard board = generator.generate(4096, 4096, 6, 17);
+    ArrayList<Puzzle> puzzles = new ArrayList<Puzzle>();
+    puzzles.add(new Puzzle(board, 6, 0));
+    Path path = tempFile();
+    BoardFile.write(path, puzzles);
+    BoardFile file = new BoardFile(path);
+    Puzzle back = file.load(0);
+    file.close();
+    FloodItWorld world = back.world(new Random(1));
+    return t.checkExpect(sameBoard(back.board, board), true)
+        && t.checkExpect(world.board, null)
+        && t.checkExpect(world.grid == back.board, false)
+        && t.checkExpect(sameCells(world.grid, board), true)
+        && t.checkExpect(world.moveLimit, FloodItWorld.moveLimitFor(4096, 4096, 6));
+  }
+
+  // tests a puzzle's move limit and the errors for bad files and positions
+  boolean testErrors(Tester t) throws IOException {
+    ArrayList<Puzzle> puzzles = new ArrayList<Puzzle>();
+    puzzles.add(new Puzzle(PackedBoard.random(5, 5, 3, new Random(5)), 3, 7));
+    Path path = tempFile();
+    BoardFile.write(path, puzzles);
+    BoardFile file = new BoardFile(path);
+    Path empty = tempFile();
+    boolean test1 = t.checkExpect(file.load(0).world(new Random(1)).moveLimit, 7)
+        && t.checkException(new IllegalArgumentException("No puzzle 1 in a file of 1"),
+            file, "load", 1)
+        && t.checkConstructorException(
+            new IllegalArgumentException("Not a board file: " + empty), "BoardFile", empty);
+    file.close();
+    return test1;
+  }
+
+  // a file holding one 5x5 puzzle of 3 colors, with the given bytes written over it
+  // at the given position
+  Path patched(long position, ByteBuffer bytes) throws IOException {
+    ArrayList<Puzzle> puzzles = new ArrayList<Puzzle>();
+    puzzles.add(new Puzzle(PackedBoard.random(5, 5, 3, new Random(5)), 3, 7));
+    Path path = tempFile();
+    BoardFile.write(path, puzzles);
+    FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE);
+    try {
+      channel.write(bytes.flip(), position);
+    }
+    finally {
+      channel.close();
+    }
+    return path;
+  }
+
+  // a little-endian buffer of the given number of bytes, as board files are written
+  ByteBuffer bytes(int count) {
+    return ByteBuffer.allocate(count).order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  // does loading the first puzzle of the given file fail as a file that is not a
+  // board file
+  boolean loadFails(Tester t, Path path) throws IOException {
+    BoardFile file = new BoardFile(path);
+    boolean result = t.checkException(
+        new IllegalArgumentException("Not a board file: " + path), file, "load", 0);
+    file.close();
+    return result;
+  }
+
+  // tests that counts, offsets, dimensions, colors and lengths that do not fit the
+  // file are refused
+  boolean testCorrupt(Tester t) throws IOException {
+    // the count is at 8, the offset at 12, and the puzzle at 20: width, height,
+    // colors at 28, move limit, then the packed colors at 33
+    Path count = patched(8, bytes(4).putInt(1000));
+    Path offset = patched(12, bytes(8).putLong(1 << 20));
+    Path width = patched(20, bytes(4).putInt(-5));
+    Path noColors = patched(28, bytes(1).put((byte) 0));
+    Path tooManyColors = patched(28, bytes(1).put((byte) 7));
+    Path badColor = patched(33, bytes(1).put((byte) 3));
+    Path tall = patched(24, bytes(4).putInt(500));
+    return t.checkConstructorException(
+        new IllegalArgumentException("Not a board file: " + count), "BoardFile", count)
+        && t.checkConstructorException(
+            new IllegalArgumentException("Not a board file: " + offset), "BoardFile", offset)
+        && loadFails(t, width)
+        && loadFails(t, noColors)
+        && loadFails(t, tooManyColors)
+        && loadFails(t, badColor)
+        && loadFails(t, tall);
+  }
+
+  // tests that a puzzle's board is left as it was by playing it, and that a reset
+  // starts the puzzle over
+  boolean testReplayPuzzle(Tester t) {
+    PackedBoard board = PackedBoard.random(6, 6, 3, new Random(8));
+    PackedBoard original = board.copy();
+    Puzzle puzzle = new Puzzle(board, 3, 9);
+    FloodItWorld world = puzzle.world(new Random(1));
+    world.animation = new InstantAnimation();
+    world.onTick();
+    world.flood((world.floodColor + 1) % 3);
+    world.onTick();
+    boolean test1 = t.checkExpect(sameBoard(board, original), true)
+        && t.checkExpect(world.tilesTouched > 1, true);
+    world.moveLimit = 1;
+    world.onKeyEvent("r");
+    return test1
+        && t.checkExpect(sameCells(world.grid, original), true)
+        && t.checkExpect(world.grid == board, false)
+        && t.checkExpect(world.moveLimit, 9)
+        && t.checkExpect(world.movesMade, 0);
+  }
+}
@@ -0,0 +1,172 @@
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import tester.*;
+
+// Makes random boards in parallel. The color of every cell is a hash of the seed
+// and the cell's index, so cells can be filled in any order by any number of
+// threads and a seed always gives the same board. These boards differ from the
+// ones drawn from java.util.Random; compatible() still makes those, one cell
+// after another
+class BoardGenerator {
+  // a chunk of cells small enough to balance across threads, big enough that
+  // splitting costs nothing next to filling it
+  static final int DEFAULT_CHUNK_CELLS = 1 << 16;
+
+  ForkJoinPool pool;
+  int chunkCells;
+
+  BoardGenerator(ForkJoinPool pool) {
+    this(pool, DEFAULT_CHUNK_CELLS);
+  }
+
+  BoardGenerator(ForkJoinPool pool, int chunkCells) {
+    if (chunkCells < 1) {
+      throw new IllegalArgumentException("Chunks must have at least one cell, given "
+          + chunkCells);
+    }
+    this.pool = pool;
+    this.chunkCells = chunkCells;
+  }
+
+  // a width x height board for the given seed, whose top-left cell is flooded
+  PackedBoard generate(int width, int height, int numColors, long seed) {
+    PackedBoard board = new PackedBoard(width, height);
+    this.pool.invoke(new FillTask(board.colors, 0, board.size(), numColors, seed,
+        this.chunkCells));
+    board.makeFlooded(0);
+    return board;
+  }
+
+  // the board FloodItWorld has always built from the given Random, drawn one
+  // cell at a time in row-major order
+  static PackedBoard compatible(int width, int height, int numColors, Random rand) {
+    return PackedBoard.random(width, height, numColors, rand);
+  }
+
+  // the color of the cell at the given index on the board for the given seed.
+  // The index goes through the SplittableRandom mix (a Stafford variant of
+  // MurmurHash3's finalizer), and the top 32 bits are scaled to the number of colors
+  static int colorAt(long seed, int index, int numColors) {
+    long z = seed + (index + 1L) * 0x9E3779B97F4A7C15L;
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    z = z ^ (z >>> 31);
+    return (int) (((z >>> 32) * numColors) >>> 32);
+  }
+}
+
+// Fills colors[from, to) for one seed, splitting in halves down to chunks
+@SuppressWarnings("serial")
+class FillTask extends RecursiveAction {
+  byte[] colors;
+  int from;
+  int to;
+  int numColors;
+  long seed;
+  int chunkCells;
+
+  FillTask(byte[] colors, int from, int to, int numColors, long seed, int chunkCells) {
+    this.colors = colors;
+    this.from = from;
+    this.to = to;
+    this.numColors = numColors;
+    this.seed = seed;
+    this.chunkCells = chunkCells;
+  }
+
+  protected void compute() {
+    if (this.to - this.from <= this.chunkCells) {
+      for (int i = this.from; i < this.to; i++) {
+        this.colors[i] = (byte) BoardGenerator.colorAt(this.seed, i, this.numColors);
+      }
+    }
+    else {
+      int middle = (int) (((long) this.from + this.to) >>> 1);
+      invokeAll(new FillTask(this.colors, this.from, middle, this.numColors, this.seed,
+              this.chunkCells),
+          new FillTask(this.colors, middle, this.to, this.numColors, this.seed,
+              this.chunkCells));
+    }
+  }
+}
+
+class ExamplesBoardGenerator {
+  ForkJoinPool single = new ForkJoinPool(1);
+  ForkJoinPool many = new ForkJoinPool(4);
+
+  // tests that a seed gives the same board whatever the threads and chunks
+  boolean testDeterministic(Tester t) {
+    PackedBoard one = new BoardGenerator(single).generate(300, 200, 6, 42);
+    PackedBoard four = new BoardGenerator(many, 100).generate(300, 200, 6, 42);
+    PackedBoard odd = new BoardGenerator(many, 7).generate(300, 200, 6, 42);
+    PackedBoard other = new BoardGenerator(many, 100).generate(300, 200, 6, 43);
+    boolean same = true;
+    boolean matchesHash = true;
+    int differ = 0;
+    for (int i = 0; i < one.size(); i++) {
+      same = same && one.colorAt(i) == four.colorAt(i) && one.colorAt(i) == odd.colorAt(i);
+      matchesHash = matchesHash && one.colorAt(i) == BoardGenerator.colorAt(42, i, 6);
+      if (one.colorAt(i) != other.colorAt(i)) {
+        differ++;
+      }
+    }
+    return t.checkExpect(same, true)
+        && t.checkExpect(matchesHash, true)
+        && t.checkExpect(differ > one.size() / 2, true)
+        && t.checkExpect(one.isFlooded(0), true)
+        && t.checkExpect(one.isFlooded(1), false);
+  }
+
+  // tests that every color comes up about as often as the others
+  boolean testUniform(Tester t) {
+    int[] counts = new int[6];
+    for (int i = 0; i < 600_000; i++) {
+      counts[BoardGenerator.colorAt(7, i, 6)]++;
+    }
+    boolean result = true;
+    for (int c = 0; c < 6; c++) {
+      result = result && counts[c] > 99_000 && counts[c] < 101_000;
+    }
+    return t.checkExpect(result, true)
+        && t.checkExpect(BoardGenerator.colorAt(7, 5, 1), 0);
+  }
+
+  // tests that the compatible boards are the ones FloodItWorld builds from a Random
+  boolean testCompatible(Tester t) {
+    FloodItWorld world = new FloodItWorld(3, new Random(42));
+    PackedBoard board = BoardGenerator.compatible(FloodItWorld.DEFAULT_BOARD_SIZE,
+        FloodItWorld.DEFAULT_BOARD_SIZE, 3, new Random(42));
+    boolean result = true;
+    for (int i = 0; i < board.size(); i++) {
+      result = result && board.colorAt(i) == world.grid.colorAt(i);
+    }
+    return t.checkExpect(result, true);
+  }
+
+  // tests that a world with a generator plays on generated boards, including after a reset
+  boolean testWorld(Tester t) {
+    BoardGenerator generator = new BoardGenerator(many);
+    FloodItWorld world = new FloodItWorld(4, 50, 40, new Random(42), generator);
+    Random seeds = new Random(42);
+    long seed = seeds.nextLong();
+    PackedBoard expected = generator.generate(50, 40, 4, seed);
+    boolean same = true;
+    for (int i = 0; i < expected.size(); i++) {
+      same = same && world.grid.colorAt(i) == expected.colorAt(i);
+    }
+    boolean test1 = t.checkExpect(world.seed, seed)
+        && t.checkExpect(world.compact, true)
+        && t.checkExpect(same, true);
+    world.onKeyEvent("r");
+    return test1 && t.checkExpect(world.seed, seeds.nextLong())
+        && t.checkExpect(world.grid.colorAt(1), BoardGenerator.colorAt(world.seed, 1, 4));
+  }
+
+  // tests the bad chunk size
+  boolean testBadChunk(Tester t) {
+    return t.checkConstructorException(
+        new IllegalArgumentException("Chunks must have at least one cell, given 0"),
+        "BoardGenerator", single, 0);
+  }
+}
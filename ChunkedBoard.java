@@ -0,0 +1,387 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import tester.*;
+
+// A board that is never held in memory as a whole. The cells are split into square
+// chunks of CHUNK_SIDE x CHUNK_SIDE, and a chunk is only made the first time a cell
+// in it is read or written, with the same colors BoardGenerator makes for the seed.
+// At most maxChunks chunks are kept, least recently used first out; a chunk that
+// changed since it was made is written to a spill file when it goes out, and read
+// back from there the next time it is needed. The chunks also keep FloodItWorld's
+// flood marks, so flooding never needs an array as big as the board either
+class ChunkedBoard implements IBoard {
+  static final int CHUNK_BITS = 6;
+  static final int CHUNK_SIDE = 1 << CHUNK_BITS;
+  static final int CHUNK_CELLS = CHUNK_SIDE * CHUNK_SIDE;
+  // a spilled chunk: its colors, its flooded bits and its marks
+  static final int RECORD_BYTES = CHUNK_CELLS + CHUNK_CELLS / 8 + CHUNK_CELLS * 4;
+
+  int width;
+  int height;
+  int numColors;
+  long seed;
+  int maxChunks;
+  // the chunks per row of chunks
+  int chunkColumns;
+
+  // the chunks in memory by chunk number, least recently used first
+  LinkedHashMap<Integer, BoardChunk> loaded =
+      new LinkedHashMap<Integer, BoardChunk>(16, 0.75f, true);
+  // the last chunk used, which most accesses hit without a map lookup
+  BoardChunk last;
+  // where each spilled chunk is in the spill file
+  HashMap<Integer, Long> spilledAt = new HashMap<Integer, Long>();
+  // made on the first spill
+  File spillFile;
+  RandomAccessFile spill;
+  ByteBuffer record = ByteBuffer.allocate(RECORD_BYTES);
+
+  // how many chunks were made from the seed, read back and written out so far
+  int generated;
+  int reloaded;
+  int spilled;
+
+  ChunkedBoard(int width, int height, int numColors, long seed, int maxChunks) {
+    PackedBoard.checkedSize(width, height);
+    if (maxChunks < 2) {
+      throw new IllegalArgumentException("A chunked board must keep at least 2 chunks, given "
+          + maxChunks);
+    }
+    this.width = width;
+    this.height = height;
+    this.numColors = numColors;
+    this.seed = seed;
+    this.maxChunks = maxChunks;
+    this.chunkColumns = (width + CHUNK_SIDE - 1) >>> CHUNK_BITS;
+  }
+
+  public int width() {
+    return this.width;
+  }
+
+  public int height() {
+    return this.height;
+  }
+
+  public int size() {
+    return this.width * this.height;
+  }
+
+  public int colorAt(int index) {
+    return this.chunkOf(index).colors[this.offsetOf(index)];
+  }
+
+  public void setColor(int index, int color) {
+    BoardChunk chunk = this.chunkOf(index);
+    chunk.colors[this.offsetOf(index)] = (byte) color;
+    chunk.dirty = true;
+  }
+
+  public boolean isFlooded(int index) {
+    int offset = this.offsetOf(index);
+    return (this.chunkOf(index).flooded[offset >>> 6] & (1L << offset)) != 0;
+  }
+
+  public void makeFlooded(int index) {
+    BoardChunk chunk = this.chunkOf(index);
+    int offset = this.offsetOf(index);
+    chunk.flooded[offset >>> 6] |= 1L << offset;
+    chunk.dirty = true;
+  }
+
+  public void makeUnflooded(int index) {
+    BoardChunk chunk = this.chunkOf(index);
+    int offset = this.offsetOf(index);
+    chunk.flooded[offset >>> 6] &= ~(1L << offset);
+    chunk.dirty = true;
+  }
+
+  // the flood mark of the cell at the given index, 0 until one is set
+  int markAt(int index) {
+    int[] marks = this.chunkOf(index).marks;
+    return marks == null ? 0 : marks[this.offsetOf(index)];
+  }
+
+  // EFFECT: sets the flood mark of the cell at the given index
+  void setMark(int index, int mark) {
+    BoardChunk chunk = this.chunkOf(index);
+    if (chunk.marks == null) {
+      chunk.marks = new int[CHUNK_CELLS];
+    }
+    chunk.marks[this.offsetOf(index)] = mark;
+    chunk.dirty = true;
+  }
+
+  // EFFECT: sets every flood mark back to 0, reading back every spilled chunk to do it.
+  // Only needed when FloodItWorld's epoch wraps around, about once in a billion moves
+  void clearMarks() {
+    for (BoardChunk chunk : this.loaded.values()) {
+      chunk.marks = null;
+      chunk.dirty = true;
+    }
+    Integer[] spilledChunks = this.spilledAt.keySet().toArray(new Integer[0]);
+    for (Integer number : spilledChunks) {
+      BoardChunk chunk = this.chunk(number);
+      chunk.marks = null;
+      chunk.dirty = true;
+    }
+  }
+
+  // the number of the chunk holding the cell at the given index
+  int chunkNumber(int index) {
+    int x = index % this.width;
+    int y = index / this.width;
+    return (y >>> CHUNK_BITS) * this.chunkColumns + (x >>> CHUNK_BITS);
+  }
+
+  // where the cell at the given index is within its chunk
+  int offsetOf(int index) {
+    int x = index % this.width;
+    int y = index / this.width;
+    return ((y & (CHUNK_SIDE - 1)) << CHUNK_BITS) | (x & (CHUNK_SIDE - 1));
+  }
+
+  // the chunk holding the cell at the given index
+  // EFFECT: may make or read back the chunk, spilling the least recently used one
+  BoardChunk chunkOf(int index) {
+    int number = this.chunkNumber(index);
+    if (this.last != null && this.last.number == number) {
+      return this.last;
+    }
+    return this.chunk(number);
+  }
+
+  // the chunk with the given number
+  // EFFECT: may make or read back the chunk, spilling the least recently used one
+  BoardChunk chunk(int number) {
+    BoardChunk chunk = this.loaded.get(number);
+    if (chunk == null) {
+      Long position = this.spilledAt.get(number);
+      chunk = position == null ? this.generate(number) : this.readBack(number, position);
+      this.loaded.put(number, chunk);
+      if (this.loaded.size() > this.maxChunks) {
+        this.evictEldest();
+      }
+    }
+    this.last = chunk;
+    return chunk;
+  }
+
+  // a chunk made from the seed, with the top-left cell of the board flooded
+  BoardChunk generate(int number) {
+    BoardChunk chunk = new BoardChunk(number);
+    int left = number % this.chunkColumns << CHUNK_BITS;
+    int top = number / this.chunkColumns << CHUNK_BITS;
+    int right = Math.min(this.width, left + CHUNK_SIDE);
+    int bottom = Math.min(this.height, top + CHUNK_SIDE);
+    for (int y = top; y < bottom; y++) {
+      int offset = (y - top) << CHUNK_BITS;
+      int index = y * this.width + left;
+      for (int x = left; x < right; x++) {
+        chunk.colors[offset] = (byte) BoardGenerator.colorAt(this.seed, index, this.numColors);
+        offset++;
+        index++;
+      }
+    }
+    if (number == 0) {
+      chunk.flooded[0] = 1L;
+    }
+    this.generated++;
+    return chunk;
+  }
+
+  // EFFECT: drops the least recently used chunk, writing it out first if it changed
+  void evictEldest() {
+    Iterator<Map.Entry<Integer, BoardChunk>> entries = this.loaded.entrySet().iterator();
+    BoardChunk eldest = entries.next().getValue();
+    entries.remove();
+    if (eldest == this.last) {
+      this.last = null;
+    }
+    if (eldest.dirty) {
+      this.writeOut(eldest);
+    }
+  }
+
+  // EFFECT: writes the given chunk to its place in the spill file, which is made
+  // on the first spill
+  void writeOut(BoardChunk chunk) {
+    try {
+      if (this.spill == null) {
+        this.spillFile = File.createTempFile("flood-chunks", ".bin");
+        this.spillFile.deleteOnExit();
+        this.spill = new RandomAccessFile(this.spillFile, "rw");
+      }
+      Long position = this.spilledAt.get(chunk.number);
+      if (position == null) {
+        position = (long) this.spilledAt.size() * RECORD_BYTES;
+        this.spilledAt.put(chunk.number, position);
+      }
+      this.record.clear();
+      this.record.put(chunk.colors);
+      for (long word : chunk.flooded) {
+        this.record.putLong(word);
+      }
+      for (int i = 0; i < CHUNK_CELLS; i++) {
+        this.record.putInt(chunk.marks == null ? 0 : chunk.marks[i]);
+      }
+      this.spill.seek(position);
+      this.spill.write(this.record.array());
+      this.spilled++;
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException("Could not spill chunk " + chunk.number, e);
+    }
+  }
+
+  // the chunk with the given number, read back from the given place in the spill file
+  BoardChunk readBack(int number, long position) {
+    BoardChunk chunk = new BoardChunk(number);
+    try {
+      this.spill.seek(position);
+      this.spill.readFully(this.record.array());
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException("Could not read back chunk " + number, e);
+    }
+    this.record.clear();
+    this.record.get(chunk.colors);
+    for (int i = 0; i < chunk.flooded.length; i++) {
+      chunk.flooded[i] = this.record.getLong();
+    }
+    for (int i = 0; i < CHUNK_CELLS; i++) {
+      int mark = this.record.getInt();
+      if (mark != 0) {
+        if (chunk.marks == null) {
+          chunk.marks = new int[CHUNK_CELLS];
+        }
+        chunk.marks[i] = mark;
+      }
+    }
+    this.reloaded++;
+    return chunk;
+  }
+
+  // EFFECT: drops every chunk and deletes the spill file; the board is unusable after
+  void close() {
+    this.loaded.clear();
+    this.last = null;
+    this.spilledAt.clear();
+    try {
+      if (this.spill != null) {
+        this.spill.close();
+        this.spill = null;
+      }
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException("Could not close the spill file", e);
+    }
+    if (this.spillFile != null) {
+      this.spillFile.delete();
+      this.spillFile = null;
+    }
+  }
+}
+
+// One chunk of a ChunkedBoard, laid out like a small PackedBoard of
+// CHUNK_SIDE x CHUNK_SIDE cells
+class BoardChunk {
+  int number;
+  byte[] colors = new byte[ChunkedBoard.CHUNK_CELLS];
+  long[] flooded = new long[ChunkedBoard.CHUNK_CELLS / 64];
+  // made on the first mark
+  int[] marks;
+  // whether this chunk changed since it was made or read back
+  boolean dirty;
+
+  BoardChunk(int number) {
+    this.number = number;
+  }
+}
+
+class ExamplesChunkedBoard {
+  // tests that a chunked board has the cells of the generated board for its seed
+  boolean testMatchesGenerator(Tester t) {
+    ChunkedBoard chunked = new ChunkedBoard(150, 70, 5, 42, 2);
+    PackedBoard packed = new BoardGenerator(new ForkJoinPool(1))
+        .generate(150, 70, 5, 42);
+    boolean result = true;
+    for (int i = 0; i < packed.size(); i++) {
+      result = result && chunked.colorAt(i) == packed.colorAt(i)
+          && chunked.isFlooded(i) == packed.isFlooded(i);
+    }
+    return t.checkExpect(result, true)
+        && t.checkExpect(chunked.size(), 150 * 70)
+        && t.checkExpect(chunked.loaded.size(), 2)
+        && t.checkExpect(chunked.spilled, 0)
+        && t.checkExpect(chunked.spillFile, null);
+  }
+
+  // tests that changed chunks survive being spilled and read back, and that
+  // unchanged ones are made again instead
+  boolean testSpill(Tester t) {
+    ChunkedBoard board = new ChunkedBoard(256, 256, 4, 7, 2);
+    int far = 255 * 256 + 255;
+    board.setColor(far, 3);
+    board.makeFlooded(far);
+    board.setMark(far, 11);
+    int color = board.colorAt(200);
+    board.colorAt(130 * 256);
+    board.colorAt(70 * 256 + 70);
+    boolean test1 = t.checkExpect(board.spilled, 1)
+        && t.checkExpect(board.loaded.size(), 2)
+        && t.checkExpect(board.spillFile.length(), (long) ChunkedBoard.RECORD_BYTES);
+    boolean test2 = t.checkExpect(board.colorAt(far), 3)
+        && t.checkExpect(board.isFlooded(far), true)
+        && t.checkExpect(board.isFlooded(far - 1), false)
+        && t.checkExpect(board.markAt(far), 11)
+        && t.checkExpect(board.markAt(far - 1), 0)
+        && t.checkExpect(board.colorAt(200), color)
+        && t.checkExpect(board.reloaded, 1)
+        && t.checkExpect(board.generated, 5);
+    board.clearMarks();
+    boolean test3 = t.checkExpect(board.markAt(far), 0);
+    File file = board.spillFile;
+    board.close();
+    return test1 && test2 && test3 && t.checkExpect(file.exists(), false);
+  }
+
+  // tests a whole game on a chunked board against the same game on a generated board,
+  // keeping far fewer chunks than the board has
+  boolean testWorld(Tester t) {
+    FloodItWorld chunked = new FloodItWorld(3, 300, 200, new Random(4), 4);
+    FloodItWorld packed = new FloodItWorld(3, 300, 200, new Random(4),
+        new BoardGenerator(new ForkJoinPool(1)));
+    chunked.animation = new InstantAnimation();
+    packed.animation = new InstantAnimation();
+    ChunkedBoard board = (ChunkedBoard) chunked.grid;
+    boolean same = chunked.seed == packed.seed && chunked.marks == null;
+    for (int m = 0; m < 60; m++) {
+      chunked.onTick();
+      packed.onTick();
+      same = same && chunked.tilesTouched == packed.tilesTouched;
+      chunked.flood(m % 3);
+      packed.flood(m % 3);
+    }
+    return t.checkExpect(same, true)
+        && t.checkExpect(chunked.tilesTouched > 1, true)
+        && t.checkExpect(board.loaded.size() <= 4, true)
+        && t.checkExpect(board.spilled > 0, true);
+  }
+
+  // tests the bad cache size
+  boolean testBadCache(Tester t) {
+    return t.checkConstructorException(
+        new IllegalArgumentException("A chunked board must keep at least 2 chunks, given 1"),
+        "ChunkedBoard", 10, 10, 3, 0L, 1);
+  }
+}
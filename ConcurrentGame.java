@@ -0,0 +1,378 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+import tester.*;
+import javalib.impworld.*;
+import java.awt.Color;
+import javalib.worldimages.*;
+
+// Is told which cells of a FloodItWorld are shown in a new color
+interface ICellListener {
+  // EFFECT: records that the cell at the given index is shown in a new color
+  void cellChanged(int index);
+
+  // EFFECT: records that any cell may be shown in a new color
+  void boardChanged();
+}
+
+// What a FloodItWorld shows at one moment: the palette color of every cell and the HUD.
+// Nothing in a snapshot changes once it is published, so any thread may read it
+// without locks. The colors are split into blocks of BLOCK_CELLS cells, and a
+// new snapshot shares every block that did not change with the one before it
+class BoardSnapshot {
+  static final int BLOCK_BITS = 12;
+  static final int BLOCK_CELLS = 1 << BLOCK_BITS;
+
+  // counts up from 1 with every snapshot of the same game
+  long version;
+  int width;
+  int height;
+  // the color of cell i is blocks[i >>> BLOCK_BITS][i & (BLOCK_CELLS - 1)]
+  byte[][] blocks;
+  ArrayList<Color> palette;
+  int movesMade;
+  int moveLimit;
+  int timer;
+  boolean wonGame;
+  boolean lostGame;
+  int bestTime;
+  boolean flooding;
+
+  BoardSnapshot(long version, FloodItWorld world, byte[][] blocks) {
+    this.version = version;
+    this.width = world.width;
+    this.height = world.height;
+    this.blocks = blocks;
+    this.palette = world.colors;
+    this.movesMade = world.movesMade;
+    this.moveLimit = world.moveLimit;
+    this.timer = world.timer;
+    this.wonGame = world.wonGame;
+    this.lostGame = world.lostGame;
+    this.bestTime = world.bestTime;
+    this.flooding = world.flooding;
+  }
+
+  // the number of cells on the board
+  int size() {
+    return this.width * this.height;
+  }
+
+  // the palette color the cell at the given index is shown in
+  int colorAt(int index) {
+    return this.blocks[index >>> BLOCK_BITS][index & (BLOCK_CELLS - 1)];
+  }
+}
+
+// Makes snapshots of one world, copying only the blocks with cells that changed
+// since the last snapshot. Used only by the thread that runs the world
+class SnapshotPublisher implements ICellListener {
+  // the blocks with changed cells, unless every block is to be copied
+  boolean[] dirtyBlocks;
+  boolean allDirty = true;
+  // the most recent snapshot, read by any thread
+  volatile BoardSnapshot latest;
+
+  public void cellChanged(int index) {
+    if (!this.allDirty) {
+      this.dirtyBlocks[index >>> BoardSnapshot.BLOCK_BITS] = true;
+    }
+  }
+
+  public void boardChanged() {
+    this.allDirty = true;
+  }
+
+  // a snapshot of the given world, which this publisher listens to
+  // EFFECT: makes it the latest snapshot and forgets the changed blocks
+  BoardSnapshot publish(FloodItWorld world) {
+    int size = world.grid.size();
+    int blockCount = (int) (((long) size + BoardSnapshot.BLOCK_CELLS - 1)
+        >>> BoardSnapshot.BLOCK_BITS);
+    BoardSnapshot previous = this.latest;
+    if (previous == null || previous.blocks.length != blockCount) {
+      this.allDirty = true;
+    }
+    byte[][] blocks = new byte[blockCount][];
+    for (int b = 0; b < blockCount; b++) {
+      if (this.allDirty || this.dirtyBlocks[b]) {
+        blocks[b] = this.copyBlock(world, b, size);
+      }
+      else {
+        blocks[b] = previous.blocks[b];
+      }
+    }
+    if (this.dirtyBlocks == null || this.dirtyBlocks.length != blockCount) {
+      this.dirtyBlocks = new boolean[blockCount];
+    }
+    else {
+      Arrays.fill(this.dirtyBlocks, false);
+    }
+    this.allDirty = false;
+    long version = previous == null ? 1 : previous.version + 1;
+    BoardSnapshot snapshot = new BoardSnapshot(version, world, blocks);
+    this.latest = snapshot;
+    return snapshot;
+  }
+
+  // the colors the given world shows for the cells of the given block
+  byte[] copyBlock(FloodItWorld world, int block, int size) {
+    int first = block << BoardSnapshot.BLOCK_BITS;
+    byte[] colors = new byte[Math.min(BoardSnapshot.BLOCK_CELLS, size - first)];
+    for (int i = 0; i < colors.length; i++) {
+      colors[i] = (byte) world.displayColor(first + i);
+    }
+    return colors;
+  }
+}
+
+// Something the player did, applied to the world by the simulation thread
+interface IGameInput {
+  // EFFECT: applies this input to the given world
+  void apply(FloodItWorld world);
+}
+
+// A mouse click at the given position
+class ClickInput implements IGameInput {
+  Posn position;
+
+  ClickInput(Posn position) {
+    this.position = position;
+  }
+
+  public void apply(FloodItWorld world) {
+    world.onMouseClicked(this.position);
+  }
+}
+
+// A key press
+class KeyInput implements IGameInput {
+  String key;
+
+  KeyInput(String key) {
+    this.key = key;
+  }
+
+  public void apply(FloodItWorld world) {
+    world.onKeyEvent(this.key);
+  }
+}
+
+// Runs a FloodItWorld on its own thread. Each step applies the queued inputs,
+// ticks the world and publishes a snapshot; the world is never touched by any
+// other thread. Inputs arrive through a lock-free queue and snapshots leave
+// through a volatile field, so a slow step never blocks the thread drawing
+// the game or taking its input
+class FloodSimulation implements Runnable {
+  FloodItWorld world;
+  SnapshotPublisher publisher = new SnapshotPublisher();
+  ConcurrentLinkedQueue<IGameInput> inputs = new ConcurrentLinkedQueue<IGameInput>();
+  // the time between the starts of two steps
+  long tickNanos;
+  volatile boolean running;
+  Thread thread;
+
+  FloodSimulation(FloodItWorld world, long tickNanos) {
+    if (tickNanos <= 0) {
+      throw new IllegalArgumentException("The tick must be positive, given " + tickNanos);
+    }
+    this.world = world;
+    this.tickNanos = tickNanos;
+    world.listener = this.publisher;
+    this.publisher.publish(world);
+  }
+
+  // EFFECT: queues the given input for the next step; safe from any thread
+  void post(IGameInput input) {
+    this.inputs.offer(input);
+  }
+
+  // the most recent snapshot of the world; safe from any thread
+  BoardSnapshot latest() {
+    return this.publisher.latest;
+  }
+
+  // applies the queued inputs, ticks the world and publishes it
+  // EFFECT: changes the world and replaces the latest snapshot
+  void step() {
+    IGameInput input = this.inputs.poll();
+    while (input != null) {
+      input.apply(this.world);
+      input = this.inputs.poll();
+    }
+    this.world.onTick();
+    this.publisher.publish(this.world);
+  }
+
+  // EFFECT: starts stepping on a new daemon thread
+  void start() {
+    this.running = true;
+    this.thread = new Thread(this, "flood-simulation");
+    this.thread.setDaemon(true);
+    this.thread.start();
+  }
+
+  // EFFECT: stops stepping and waits for the thread to finish
+  void stop() throws InterruptedException {
+    this.running = false;
+    if (this.thread != null) {
+      LockSupport.unpark(this.thread);
+      this.thread.join();
+    }
+  }
+
+  // steps every tickNanos; a step that runs late delays the next one instead
+  // of being followed by a burst of catch-up steps
+  public void run() {
+    long next = System.nanoTime();
+    while (this.running) {
+      this.step();
+      next += this.tickNanos;
+      long wait = next - System.nanoTime();
+      if (wait > 0) {
+        LockSupport.parkNanos(wait);
+      }
+      else {
+        next = System.nanoTime();
+      }
+    }
+  }
+}
+
+// The world given to bigBang when the game runs on a FloodSimulation: it only
+// queues input and draws the latest snapshot, so javalib's thread never waits
+// for a flood
+class ConcurrentFloodItWorld extends World {
+  FloodSimulation simulation;
+  SceneRenderer renderer = new SceneRenderer();
+
+  ConcurrentFloodItWorld(FloodSimulation simulation) {
+    this.simulation = simulation;
+  }
+
+  // draws the latest snapshot, redrawing only the blocks that changed
+  public WorldScene makeScene() {
+    return this.renderer.render(this.simulation.latest());
+  }
+
+  // EFFECT: queues the click for the simulation
+  public void onMouseClicked(Posn p) {
+    this.simulation.post(new ClickInput(p));
+  }
+
+  // EFFECT: queues the key for the simulation
+  public void onKeyEvent(String k) {
+    this.simulation.post(new KeyInput(k));
+  }
+}
+
+class ExamplesConcurrentGame {
+  FloodItWorld world;
+  FloodSimulation simulation;
+
+  // resets the world and simulation for testing purposes, on a board of three
+  // blocks whose first flood is done
+  void reset() {
+    world = new FloodItWorld(3, 100, 100, new Random(42), true);
+    world.animation = new InstantAnimation();
+    simulation = new FloodSimulation(world, 1_000_000L);
+    simulation.step();
+  }
+
+  // does the snapshot show exactly what the world shows
+  boolean matches(BoardSnapshot snapshot, FloodItWorld w) {
+    boolean result = snapshot.size() == w.grid.size();
+    for (int i = 0; i < w.grid.size(); i++) {
+      result = result && snapshot.colorAt(i) == w.displayColor(i);
+    }
+    return result && snapshot.movesMade == w.movesMade && snapshot.timer == w.timer
+        && snapshot.flooding == w.flooding;
+  }
+
+  // tests that snapshots copy only the blocks that changed and never change later
+  boolean testSnapshots(Tester t) {
+    reset();
+    BoardSnapshot first = simulation.latest();
+    byte[] firstColors = first.blocks[0].clone();
+    boolean test1 = t.checkExpect(first.version, 2L)
+        && t.checkExpect(first.blocks.length, 3)
+        && t.checkExpect(first.blocks[2].length, 10000 - 2 * 4096)
+        && t.checkExpect(matches(first, world), true);
+    world.flood((world.floodColor + 1) % 3);
+    simulation.step();
+    BoardSnapshot second = simulation.latest();
+    boolean test2 = t.checkExpect(second.version, 3L)
+        && t.checkExpect(second.blocks[0] == first.blocks[0], false)
+        && t.checkExpect(second.blocks[1] == first.blocks[1], true)
+        && t.checkExpect(second.blocks[2] == first.blocks[2], true)
+        && t.checkExpect(matches(second, world), true)
+        && t.checkExpect(first.blocks[0], firstColors);
+    simulation.step();
+    boolean test3 = t.checkExpect(simulation.latest().blocks[0] == second.blocks[0], true);
+    return test1 && test2 && test3;
+  }
+
+  // tests that queued inputs are applied in order on the next step
+  boolean testInputs(Tester t) {
+    reset();
+    int color = (world.floodColor + 1) % 3;
+    int x = 0;
+    while (world.grid.colorAt(x) != color) {
+      x++;
+    }
+    ConcurrentFloodItWorld front = new ConcurrentFloodItWorld(simulation);
+    front.onMouseClicked(new Posn(40 + x % 100 * 30, 40 + x / 100 * 30));
+    boolean test1 = t.checkExpect(world.movesMade, 0)
+        && t.checkExpect(simulation.inputs.size(), 1);
+    simulation.step();
+    boolean test2 = t.checkExpect(world.movesMade, 1)
+        && t.checkExpect(world.floodColor, color)
+        && t.checkExpect(simulation.latest().movesMade, 1);
+    front.onKeyEvent("r");
+    simulation.step();
+    boolean test3 = t.checkExpect(simulation.latest().movesMade, 0)
+        && t.checkExpect(matches(simulation.latest(), world), true);
+    return test1 && test2 && test3;
+  }
+
+  // tests that snapshots are drawn like the world itself, redrawing only new blocks
+  boolean testRender(Tester t) {
+    reset();
+    ConcurrentFloodItWorld front = new ConcurrentFloodItWorld(simulation);
+    WorldScene first = front.makeScene();
+    boolean test1 = t.checkExpect(first, new ExamplesSceneRenderer().fullScene(world))
+        && t.checkExpect(front.makeScene() == first, true);
+    world.flood((world.floodColor + 1) % 3);
+    simulation.step();
+    boolean test2 = t.checkExpect(front.makeScene() == first, true)
+        && t.checkExpect(front.renderer.overlays >= 4096, true)
+        && t.checkExpect(front.renderer.overlays < 2 * 4096, true);
+    return test1 && test2;
+  }
+
+  // tests the simulation on its own thread
+  boolean testThread(Tester t) throws InterruptedException {
+    reset();
+    long version = simulation.latest().version;
+    simulation.start();
+    simulation.post(new KeyInput("r"));
+    long deadline = System.nanoTime() + 5_000_000_000L;
+    while (simulation.latest().version < version + 5 && System.nanoTime() < deadline) {
+      Thread.sleep(1);
+    }
+    simulation.stop();
+    return t.checkExpect(simulation.latest().version >= version + 5, true)
+        && t.checkExpect(simulation.inputs.isEmpty(), true)
+        && t.checkExpect(simulation.thread.isAlive(), false)
+        && t.checkExpect(matches(simulation.latest(), world), true);
+  }
+
+  // tests the bad tick
+  boolean testBadTick(Tester t) {
+    return t.checkConstructorException(
+        new IllegalArgumentException("The tick must be positive, given 0"),
+        "FloodSimulation", new FloodItWorld(3, new Random(1)), 0L);
+  }
+}
@@ -0,0 +1,250 @@
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import tester.*;
+
+// Identifies a generated board: the seed its colors were drawn from and its shape
+class BoardKey {
+  long seed;
+  int width;
+  int height;
+  int numColors;
+
+  BoardKey(long seed, int width, int height, int numColors) {
+    this.seed = seed;
+    this.width = width;
+    this.height = height;
+    this.numColors = numColors;
+  }
+
+  // mixes every field, since seeds are usually consecutive or random
+  public int hashCode() {
+    long h = this.seed * 0x9E3779B97F4A7C15L;
+    h = (h ^ this.width) * 31 + this.height;
+    h = h * 31 + this.numColors;
+    return (int) (h ^ (h >>> 32));
+  }
+
+  // instanceof is acceptable because equals is being overridden
+  public boolean equals(Object other) {
+    if (other instanceof BoardKey) {
+      BoardKey temp = (BoardKey) other;
+      return this.seed == temp.seed && this.width == temp.width
+          && this.height == temp.height && this.numColors == temp.numColors;
+    }
+    return false;
+  }
+}
+
+// Sets the move limit of each board from the moves that board actually needs,
+// instead of from its size and colors alone. The estimate is the solver's best
+// solution found within a time budget, so every calibrated board can be won;
+// the limit adds a few moves of slack on top. Results are kept in a bounded
+// LRU cache, so seeing a board again costs nothing
+class DifficultyCalibrator {
+  static final long DEFAULT_BUDGET_NANOS = 20_000_000L;
+  static final int DEFAULT_SLACK = 3;
+  // the most slack a calibrator may add, which is all a MoveReplayer accepts
+  static final int MAX_SLACK = 16;
+  static final int DEFAULT_CAPACITY = 256;
+  // boards with more cells than this keep FloodItWorld.moveLimitFor, so that
+  // building the region graph and solving greedily, which cannot be cut short,
+  // stay a small part of the default budget
+  static final int DEFAULT_MAX_CELLS = 48 * 48;
+  // a 512 KB transposition table, which is cheap to allocate for every board
+  static final int TABLE_BITS = 16;
+  // the beam searched once the exact search has used its share of the budget
+  static final int FALLBACK_BEAM_WIDTH = 4;
+
+  long budgetNanos;
+  int slack;
+  int maxCells;
+  ForkJoinPool pool;
+  // move limits by board, least recently used first
+  LinkedHashMap<BoardKey, Integer> cache;
+  int hits;
+  int misses;
+
+  DifficultyCalibrator() {
+    this(DEFAULT_BUDGET_NANOS, DEFAULT_SLACK, DEFAULT_CAPACITY, DEFAULT_MAX_CELLS,
+        ForkJoinPool.commonPool());
+  }
+
+  DifficultyCalibrator(long budgetNanos, int slack, int capacity, int maxCells,
+      ForkJoinPool pool) {
+    if (budgetNanos <= 0 || slack < 0 || slack > MAX_SLACK || capacity < 1) {
+      throw new IllegalArgumentException("Calibration needs a positive budget and capacity"
+          + " and a slack from 0 to " + MAX_SLACK);
+    }
+    this.budgetNanos = budgetNanos;
+    this.slack = slack;
+    this.maxCells = maxCells;
+    this.pool = pool;
+    this.cache = new LinkedHashMap<BoardKey, Integer>(16, 0.75f, true) {
+      protected boolean removeEldestEntry(Map.Entry<BoardKey, Integer> eldest) {
+        return this.size() > capacity;
+      }
+    };
+  }
+
+  // the move limit for the given board, generated from the given seed. The cache
+  // is locked only to read and write it, so worlds calibrate different boards at
+  // once; two worlds asking for the same new board may both estimate it
+  // EFFECT: caches the limit, evicting the least recently used board when full
+  int moveLimit(long seed, IBoard board, int numColors) {
+    if (!this.calibrates(board)) {
+      return FloodItWorld.moveLimitFor(board.width(), board.height(), numColors);
+    }
+    BoardKey key = new BoardKey(seed, board.width(), board.height(), numColors);
+    synchronized (this) {
+      Integer cached = this.cache.get(key);
+      if (cached != null) {
+        this.hits++;
+        return cached;
+      }
+      this.misses++;
+    }
+    int limit = this.estimate(board, numColors) + this.slack;
+    synchronized (this) {
+      this.cache.put(key, limit);
+    }
+    return limit;
+  }
+
+  // whether the given board's limit is estimated, rather than the fixed formula's
+  boolean calibrates(IBoard board) {
+    return board.size() <= this.maxCells;
+  }
+
+  // the number of moves the solver needs for the given board from its top-left
+  // cell: the optimum when it is found within three quarters of the budget,
+  // otherwise the shorter of the greedy solution, found first, and what a narrow
+  // beam search finds in the rest of the budget. The greedy solution is also the
+  // bound a MoveReplayer checks calibrated limits against
+  int estimate(IBoard board, int numColors) {
+    long start = System.nanoTime();
+    long end = start + this.budgetNanos;
+    PackedBoard copy = new PackedBoard(board.width(), board.height());
+    for (int i = 0; i < copy.size(); i++) {
+      copy.setColor(i, board.colorAt(i));
+    }
+    copy.makeFlooded(0);
+    FloodSolver solver = new FloodSolver(new FloodGame(copy, numColors), this.pool, TABLE_BITS);
+    SolverResult greedy = solver.solveGreedy();
+    long left = this.budgetNanos * 3 / 4 - (System.nanoTime() - start);
+    if (left <= 0) {
+      return greedy.moves.length;
+    }
+    return solver.solveExact(left, FALLBACK_BEAM_WIDTH, end, greedy).moves.length;
+  }
+}
+
+class ExamplesDifficultyCalibrator {
+  ForkJoinPool pool = new ForkJoinPool(2);
+
+  // tests that keys with the same fields are equal and hash alike
+  boolean testBoardKey(Tester t) {
+    BoardKey key = new BoardKey(42, 12, 12, 6);
+    return t.checkExpect(key.equals(new BoardKey(42, 12, 12, 6)), true)
+        && t.checkExpect(key.hashCode(), new BoardKey(42, 12, 12, 6).hashCode())
+        && t.checkExpect(key.equals(new BoardKey(43, 12, 12, 6)), false)
+        && t.checkExpect(key.equals(new BoardKey(42, 12, 14, 6)), false)
+        && t.checkExpect(key.equals(new BoardKey(42, 12, 12, 5)), false)
+        && t.checkExpect(key.equals("42"), false);
+  }
+
+  // tests that the limit is the optimal solution plus the slack on small boards
+  boolean testMoveLimit(Tester t) {
+    DifficultyCalibrator calibrator = new DifficultyCalibrator(5_000_000_000L, 2, 8, 4096, pool);
+    boolean result = true;
+    for (int seed = 0; seed < 4; seed++) {
+      PackedBoard board = PackedBoard.random(8, 8, 4, new Random(seed));
+      SolverResult solved = new FloodSolver(FloodGame.seeded(seed, 8, 8, 4), pool)
+          .solveExact(5_000_000_000L);
+      result = result
+          && t.checkExpect(calibrator.moveLimit(seed, board, 4), solved.moves.length + 2);
+    }
+    return result;
+  }
+
+  // tests that repeated boards are served from the cache
+  // and the least recently used board is evicted first
+  boolean testCache(Tester t) {
+    DifficultyCalibrator calibrator = new DifficultyCalibrator(5_000_000_000L, 3, 2, 4096, pool);
+    PackedBoard board = PackedBoard.random(6, 6, 3, new Random(1));
+    int first = calibrator.moveLimit(1, board, 3);
+    boolean test1 = t.checkExpect(calibrator.moveLimit(1, board, 3), first)
+        && t.checkExpect(calibrator.hits, 1)
+        && t.checkExpect(calibrator.misses, 1);
+    calibrator.moveLimit(2, PackedBoard.random(6, 6, 3, new Random(2)), 3);
+    calibrator.moveLimit(1, board, 3);
+    calibrator.moveLimit(3, PackedBoard.random(6, 6, 3, new Random(3)), 3);
+    boolean test2 = t.checkExpect(calibrator.cache.size(), 2)
+        && t.checkExpect(calibrator.cache.containsKey(new BoardKey(1, 6, 6, 3)), true)
+        && t.checkExpect(calibrator.cache.containsKey(new BoardKey(2, 6, 6, 3)), false)
+        && t.checkExpect(calibrator.hits, 2)
+        && t.checkExpect(calibrator.misses, 3);
+    return test1 && test2;
+  }
+
+  // tests that a short budget still gives a winnable limit, and that boards
+  // past the size cap keep the fixed formula
+  boolean testBudget(Tester t) {
+    DifficultyCalibrator calibrator = new DifficultyCalibrator(1_000_000L, 0, 8, 4096, pool);
+    PackedBoard board = PackedBoard.random(60, 60, 6, new Random(1));
+    int limit = calibrator.moveLimit(1, board, 6);
+    PackedBoard huge = PackedBoard.random(100, 100, 6, new Random(1));
+    SolverResult greedy = new FloodSolver(FloodGame.seeded(1, 60, 60, 6), pool).solveGreedy();
+    return t.checkExpect(limit > 0 && limit <= greedy.moves.length + 5, true)
+        && t.checkExpect(calibrator.moveLimit(1, huge, 6), FloodItWorld.moveLimitFor(100, 100, 6))
+        && t.checkExpect(calibrator.misses, 1);
+  }
+
+  // tests that, once warmed up, estimating a board at the default size cap takes
+  // no more than the default budget and a little overrun, and never more moves
+  // than the greedy solution. The median of several boards is timed, since any
+  // one of them may wait on the thread scheduler
+  boolean testFitsBudget(Tester t) {
+    DifficultyCalibrator calibrator = new DifficultyCalibrator();
+    for (int seed = 0; seed < 10; seed++) {
+      calibrator.estimate(PackedBoard.random(48, 48, 6, new Random(seed)), 6);
+    }
+    long[] elapsed = new long[7];
+    boolean result = true;
+    for (int i = 0; i < elapsed.length; i++) {
+      PackedBoard board = PackedBoard.random(48, 48, 6, new Random(10 + i));
+      long start = System.nanoTime();
+      int moves = calibrator.estimate(board, 6);
+      elapsed[i] = System.nanoTime() - start;
+      result = result && moves <= new FloodSolver(new FloodGame(board, 6), pool)
+          .solveGreedy().moves.length;
+    }
+    Arrays.sort(elapsed);
+    return t.checkExpect(48 * 48, DifficultyCalibrator.DEFAULT_MAX_CELLS)
+        && t.checkExpect(elapsed[elapsed.length / 2]
+            <= DifficultyCalibrator.DEFAULT_BUDGET_NANOS + 2_000_000L, true)
+        && t.checkExpect(result, true);
+  }
+
+  // tests that a beam search past its deadline goes on greedily, unless it has a
+  // solution to give up for
+  boolean testBeamDeadline(Tester t) {
+    FloodSolver solver = new FloodSolver(FloodGame.seeded(3, 30, 30, 6), pool);
+    SolverResult greedy = solver.solveGreedy();
+    SolverResult given = new SolverResult(new int[] {1, 2}, false, 0);
+    return t.checkExpect(solver.solveBeam(64, System.nanoTime()).moves, greedy.moves)
+        && t.checkExpect(solver.solveBeam(64, System.nanoTime(), given).moves, given.moves);
+  }
+
+  // tests the bad arguments
+  boolean testBadArguments(Tester t) {
+    IllegalArgumentException bad = new IllegalArgumentException(
+        "Calibration needs a positive budget and capacity and a slack from 0 to 16");
+    return t.checkConstructorException(bad, "DifficultyCalibrator", 0L, 3, 8, 4096, pool)
+        && t.checkConstructorException(bad, "DifficultyCalibrator", 1000L, 3, 0, 4096, pool)
+        && t.checkConstructorException(bad, "DifficultyCalibrator", 1000L, -1, 8, 4096, pool)
+        && t.checkConstructorException(bad, "DifficultyCalibrator", 1000L, 17, 8, 4096, pool);
+  }
+}
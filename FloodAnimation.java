@@ -0,0 +1,184 @@
+import java.util.Random;
+import tester.*;
+
+// Decides how much of a flood FloodItWorld.onTick animates at once.
+// Every animation reveals the flood in the waterfall's breadth-first order,
+// one animateFlood call per cell; they only differ in how many cells a tick takes
+interface IFloodAnimation {
+  // animates part of the world's current flood
+  // EFFECT: calls animateFlood on the world one or more times
+  void step(FloodItWorld world);
+}
+
+// The original animation: one cell per tick. A flood takes as many ticks as it
+// has cells, which is fine on the default board and far too slow on large ones
+class CellAnimation implements IFloodAnimation {
+  public void step(FloodItWorld world) {
+    world.animateFlood();
+  }
+}
+
+// One breadth-first layer per tick: every cell queued when the tick starts.
+// A flood takes as many ticks as it is deep
+class LayerAnimation implements IFloodAnimation {
+  public void step(FloodItWorld world) {
+    int layer = world.waterfall.size();
+    for (int i = 0; i < layer; i++) {
+      world.animateFlood();
+    }
+    if (world.flooding && world.waterfall.isEmpty()) {
+      world.animateFlood();
+    }
+  }
+}
+
+// Spreads each flood over about targetTicks ticks, whatever the size of the board,
+// but never spends more than budgetNanos of a tick on it. A move revisits every
+// flooded cell, so the cells flooded before the move tell how big it will be
+class BudgetedAnimation implements IFloodAnimation {
+  // the clock is read once per this many cells, as one cell takes well under a microsecond
+  static final int CLOCK_INTERVAL = 32;
+
+  int targetTicks;
+  long budgetNanos;
+
+  BudgetedAnimation(int targetTicks, long budgetNanos) {
+    if (targetTicks < 1 || budgetNanos <= 0) {
+      throw new IllegalArgumentException("An animation needs a positive number of ticks"
+          + " and a positive budget");
+    }
+    this.targetTicks = targetTicks;
+    this.budgetNanos = budgetNanos;
+  }
+
+  public void step(FloodItWorld world) {
+    long deadline = System.nanoTime() + this.budgetNanos;
+    int cells = Math.max(1, (world.tilesTouched + this.targetTicks - 1) / this.targetTicks);
+    for (int i = 0; i < cells && world.flooding; i++) {
+      world.animateFlood();
+      if (i % CLOCK_INTERVAL == CLOCK_INTERVAL - 1 && System.nanoTime() > deadline) {
+        return;
+      }
+    }
+  }
+}
+
+// Resolves the whole flood in one tick
+class InstantAnimation implements IFloodAnimation {
+  public void step(FloodItWorld world) {
+    while (world.flooding) {
+      world.animateFlood();
+    }
+  }
+}
+
+class ExamplesFloodAnimation {
+  // the number of ticks the given world takes to finish its current flood
+  int ticksToDrain(FloodItWorld world) {
+    int ticks = 0;
+    while (world.flooding) {
+      world.onTick();
+      ticks++;
+    }
+    return ticks;
+  }
+
+  // a compact world on a board with two colors in vertical stripes two cells wide,
+  // so every move floods the next stripe
+  FloodItWorld stripes(int size, IFloodAnimation animation) {
+    PackedBoard board = new PackedBoard(size, size);
+    for (int i = 0; i < board.size(); i++) {
+      board.setColor(i, i % size / 2 % 2);
+    }
+    board.makeFlooded(0);
+    FloodItWorld world = new FloodItWorld(board, 2, new Random(42));
+    world.animation = animation;
+    return world;
+  }
+
+  // tests that every animation ends with the same board as the original one
+  boolean testSameResult(Tester t) {
+    IFloodAnimation[] animations = new IFloodAnimation[] {new LayerAnimation(),
+        new BudgetedAnimation(10, 1_000_000_000L), new InstantAnimation()};
+    boolean result = true;
+    for (IFloodAnimation animation : animations) {
+      FloodItWorld reference = new FloodItWorld(4, 20, 15, new Random(8), true);
+      FloodItWorld world = new FloodItWorld(4, 20, 15, new Random(8), true);
+      world.animation = animation;
+      Random moves = new Random(9);
+      for (int m = 0; m < 12; m++) {
+        ticksToDrain(reference);
+        ticksToDrain(world);
+        int color = moves.nextInt(4);
+        reference.flood(color);
+        world.flood(color);
+      }
+      ticksToDrain(reference);
+      ticksToDrain(world);
+      result = result && world.tilesTouched == reference.tilesTouched;
+      for (int i = 0; i < world.grid.size(); i++) {
+        result = result && world.grid.colorAt(i) == reference.grid.colorAt(i)
+            && world.grid.isFlooded(i) == reference.grid.isFlooded(i);
+      }
+    }
+    return t.checkExpect(result, true);
+  }
+
+  // tests how many ticks each animation takes for one flood
+  boolean testTicks(Tester t) {
+    FloodItWorld cell = stripes(10, new CellAnimation());
+    FloodItWorld layer = stripes(10, new LayerAnimation());
+    FloodItWorld instant = stripes(10, new InstantAnimation());
+    boolean test1 = t.checkExpect(ticksToDrain(cell), 20 + 1)
+        && t.checkExpect(ticksToDrain(layer), 11)
+        && t.checkExpect(ticksToDrain(instant), 1);
+    cell.flood(1);
+    layer.flood(1);
+    instant.flood(1);
+    boolean test2 = t.checkExpect(ticksToDrain(cell), 40 + 1)
+        && t.checkExpect(ticksToDrain(layer), 12 + 1)
+        && t.checkExpect(ticksToDrain(instant), 1)
+        && t.checkExpect(layer.tilesTouched, 40)
+        && t.checkExpect(instant.tilesTouched, 40);
+    return test1 && test2;
+  }
+
+  // tests that a budgeted flood takes about the same number of ticks on any board size
+  boolean testBudgetedScales(Tester t) {
+    boolean result = true;
+    for (int size = 20; size <= 320; size *= 4) {
+      FloodItWorld world = stripes(size, new BudgetedAnimation(30, 1_000_000_000L));
+      ticksToDrain(world);
+      for (int m = 0; m < 6; m++) {
+        world.flood((world.floodColor + 1) % 2);
+        int ticks = ticksToDrain(world);
+        result = result && ticks >= 30 && ticks <= 2 * 30 + 2;
+      }
+    }
+    return t.checkExpect(result, true);
+  }
+
+  // tests that a tiny budget cuts a tick short, but the flood still finishes
+  boolean testBudgetCut(Tester t) {
+    FloodItWorld world = stripes(200, new BudgetedAnimation(1, 1));
+    ticksToDrain(world);
+    world.flood(1);
+    world.onTick();
+    boolean test1 = t.checkExpect(world.flooding, true)
+        && t.checkExpect(world.visitedCount, BudgetedAnimation.CLOCK_INTERVAL);
+    ticksToDrain(world);
+    return test1 && t.checkExpect(world.tilesTouched, 200 * 4);
+  }
+
+  // tests the bad arguments
+  boolean testBadArguments(Tester t) {
+    return t.checkConstructorException(
+        new IllegalArgumentException("An animation needs a positive number of ticks"
+            + " and a positive budget"),
+        "BudgetedAnimation", 0, 1000L)
+        && t.checkConstructorException(
+        new IllegalArgumentException("An animation needs a positive number of ticks"
+            + " and a positive budget"),
+        "BudgetedAnimation", 5, 0L);
+  }
+}
@@ -0,0 +1,288 @@
+import java.util.Arrays;
+import java.util.Random;
+import tester.*;
+
+// A way of flooding a board one whole move at a time, without animation.
+// The flooded region always contains the top-left cell. Engines only track which
+// cells are flooded: a flooded cell shows the current color, whatever color
+// the board still stores for it
+interface IFloodEngine {
+  // starts flooding the given board from its top-left cell
+  // EFFECT: floods every cell connected to the top-left cell by its color,
+  // and forgets any previous board
+  void start(IBoard board);
+
+  // floods the region with the given palette color
+  // EFFECT: floods every cell of that color connected to the flooded region
+  // returns the number of cells that became flooded
+  int flood(int color);
+
+  // the number of flooded cells
+  int floodedCount();
+
+  // the palette color of the flooded region
+  int currentColor();
+}
+
+// Floods by keeping the boundary of the flooded region between moves: the flooded
+// cells that still touch an unflooded cell. A move only expands from the boundary,
+// so it costs the cells it gains plus the boundary, never the whole flooded area
+class FloodFrontier implements IFloodEngine {
+  IBoard board;
+  int width;
+  int currentColor;
+  int floodedCount;
+
+  // the flooded cells touching at least one unflooded cell, in boundary[0, boundarySize)
+  int[] boundary = new int[16];
+  int boundarySize;
+
+  // the cells gained by the current move, in the order they were flooded
+  int[] gained = new int[16];
+  int gainedSize;
+
+  public void start(IBoard board) {
+    this.board = board;
+    this.width = board.width();
+    this.currentColor = board.colorAt(0);
+    this.floodedCount = 0;
+    this.boundarySize = 0;
+    this.gainedSize = 0;
+    board.makeFlooded(0);
+    this.addGained(0);
+    this.absorbGained();
+    this.rebuildBoundary(0);
+  }
+
+  public int flood(int color) {
+    if (color == this.currentColor) {
+      return 0;
+    }
+    this.currentColor = color;
+    this.gainedSize = 0;
+    for (int i = 0; i < this.boundarySize; i++) {
+      this.absorbAround(this.boundary[i]);
+    }
+    this.absorbGained();
+    int kept = 0;
+    for (int i = 0; i < this.boundarySize; i++) {
+      if (this.touchesUnflooded(this.boundary[i])) {
+        this.boundary[kept] = this.boundary[i];
+        kept++;
+      }
+    }
+    this.rebuildBoundary(kept);
+    return this.gainedSize;
+  }
+
+  public int floodedCount() {
+    return this.floodedCount;
+  }
+
+  public int currentColor() {
+    return this.currentColor;
+  }
+
+  // floods outward from every gained cell until no connected cell
+  // of the current color is left
+  // EFFECT: appends the newly flooded cells to gained
+  void absorbGained() {
+    for (int i = 0; i < this.gainedSize; i++) {
+      this.absorbAround(this.gained[i]);
+    }
+  }
+
+  // floods the unflooded neighbors of the given cell that have the current color
+  // EFFECT: marks them flooded on the board and appends them to gained
+  void absorbAround(int index) {
+    int x = index % this.width;
+    if (x != 0) {
+      this.absorb(index - 1);
+    }
+    if (x != this.width - 1) {
+      this.absorb(index + 1);
+    }
+    if (index >= this.width) {
+      this.absorb(index - this.width);
+    }
+    if (index < this.board.size() - this.width) {
+      this.absorb(index + this.width);
+    }
+  }
+
+  // EFFECT: floods the given cell if it is unflooded and has the current color
+  void absorb(int index) {
+    if (!this.board.isFlooded(index) && this.board.colorAt(index) == this.currentColor) {
+      this.board.makeFlooded(index);
+      this.addGained(index);
+    }
+  }
+
+  // EFFECT: appends the given newly flooded cell to gained
+  void addGained(int index) {
+    if (this.gainedSize == this.gained.length) {
+      this.gained = Arrays.copyOf(this.gained, this.gainedSize * 2);
+    }
+    this.gained[this.gainedSize] = index;
+    this.gainedSize++;
+    this.floodedCount++;
+  }
+
+  // EFFECT: keeps the first kept boundary cells, then adds the gained cells
+  // that touch an unflooded cell
+  void rebuildBoundary(int kept) {
+    this.boundarySize = kept;
+    for (int i = 0; i < this.gainedSize; i++) {
+      int index = this.gained[i];
+      if (this.touchesUnflooded(index)) {
+        if (this.boundarySize == this.boundary.length) {
+          this.boundary = Arrays.copyOf(this.boundary, this.boundarySize * 2);
+        }
+        this.boundary[this.boundarySize] = index;
+        this.boundarySize++;
+      }
+    }
+  }
+
+  // does the given cell have an unflooded neighbor
+  boolean touchesUnflooded(int index) {
+    int x = index % this.width;
+    return (x != 0 && !this.board.isFlooded(index - 1))
+        || (x != this.width - 1 && !this.board.isFlooded(index + 1))
+        || (index >= this.width && !this.board.isFlooded(index - this.width))
+        || (index < this.board.size() - this.width && !this.board.isFlooded(index + this.width));
+  }
+}
+
+class ExamplesFloodEngine {
+  // a 4x3 board laid out as
+  //   0 0 1 2
+  //   1 0 1 2
+  //   1 1 2 0
+  PackedBoard board;
+  FloodFrontier frontier;
+
+  // resets the board and engine for testing purposes
+  void reset() {
+    int[] layout = new int[] {0, 0, 1, 2, 1, 0, 1, 2, 1, 1, 2, 0};
+    board = new PackedBoard(4, 3);
+    for (int i = 0; i < layout.length; i++) {
+      board.setColor(i, layout[i]);
+    }
+    frontier = new FloodFrontier();
+  }
+
+  // tests that starting floods the top-left cell's region
+  boolean testStart(Tester t) {
+    reset();
+    frontier.start(board);
+    return t.checkExpect(frontier.floodedCount(), 3)
+        && t.checkExpect(frontier.currentColor(), 0)
+        && t.checkExpect(board.isFlooded(0), true)
+        && t.checkExpect(board.isFlooded(1), true)
+        && t.checkExpect(board.isFlooded(5), true)
+        && t.checkExpect(board.isFlooded(2), false)
+        && t.checkExpect(frontier.boundarySize, 3);
+  }
+
+  // tests that a move absorbs whole connected areas of the chosen color
+  boolean testFlood(Tester t) {
+    reset();
+    frontier.start(board);
+    boolean test1 = t.checkExpect(frontier.flood(0), 0);
+    boolean test2 = t.checkExpect(frontier.flood(1), 5)
+        && t.checkExpect(frontier.floodedCount(), 8)
+        && t.checkExpect(frontier.currentColor(), 1)
+        && t.checkExpect(board.isFlooded(9), true)
+        && t.checkExpect(board.isFlooded(3), false);
+    boolean test3 = t.checkExpect(frontier.flood(2), 3)
+        && t.checkExpect(frontier.floodedCount(), 12 - 1);
+    boolean test4 = t.checkExpect(frontier.flood(0), 1)
+        && t.checkExpect(frontier.floodedCount(), 12)
+        && t.checkExpect(frontier.boundarySize, 0);
+    return test1 && test2 && test3 && test4;
+  }
+
+  // tests that only cells touching unflooded cells stay on the boundary
+  boolean testBoundary(Tester t) {
+    reset();
+    frontier.start(board);
+    frontier.flood(1);
+    boolean result = true;
+    for (int i = 0; i < frontier.boundarySize; i++) {
+      result = result && frontier.touchesUnflooded(frontier.boundary[i]);
+    }
+    int onBoundary = 0;
+    for (int i = 0; i < board.size(); i++) {
+      if (board.isFlooded(i) && frontier.touchesUnflooded(i)) {
+        onBoundary++;
+      }
+    }
+    return t.checkExpect(result, true)
+        && t.checkExpect(frontier.boundarySize, onBoundary);
+  }
+
+  // tests that the frontier agrees with the animated waterfall on random games
+  boolean testMatchesWaterfall(Tester t) {
+    boolean result = true;
+    for (int seed = 0; seed < 5; seed++) {
+      FloodItWorld world = new FloodItWorld(4, 20, 15, new Random(seed), true);
+      PackedBoard copy = PackedBoard.random(20, 15, 4, new Random(seed));
+      FloodFrontier engine = new FloodFrontier();
+      engine.start(copy);
+      Random moves = new Random(seed + 100);
+      for (int m = 0; m < 30; m++) {
+        while (world.flooding) {
+          world.onTick();
+        }
+        result = result && world.tilesTouched == engine.floodedCount();
+        for (int i = 0; i < copy.size(); i++) {
+          result = result && world.grid.isFlooded(i) == copy.isFlooded(i);
+        }
+        int color = moves.nextInt(4);
+        world.flood(color);
+        engine.flood(color);
+      }
+    }
+    return t.checkExpect(result, true);
+  }
+
+  // does the given engine agree with FloodFrontier cell for cell when both play the
+  // same given number of random moves, seeded by seed, on copies of the given board?
+  // EFFECT: floods the given board with the engine
+  boolean agreesWithFrontier(IFloodEngine engine, PackedBoard board, int numColors,
+      long seed, int moves) {
+    PackedBoard expected = board.copy();
+    FloodFrontier frontier = new FloodFrontier();
+    frontier.start(expected);
+    engine.start(board);
+    boolean result = engine.floodedCount() == frontier.floodedCount();
+    Random rand = new Random(seed);
+    for (int m = 0; m < moves; m++) {
+      int color = rand.nextInt(numColors);
+      result = result && engine.flood(color) == frontier.flood(color)
+          && engine.floodedCount() == frontier.floodedCount()
+          && engine.currentColor() == frontier.currentColor()
+          && Arrays.equals(board.flooded, expected.flooded);
+    }
+    return result;
+  }
+
+  // does a 30x30 world flooded by the given engine touch as many tiles as one
+  // animated cell by cell, after each of 25 moves on the same 5-color board?
+  boolean agreesWithAnimation(IFloodEngine engine) {
+    FloodItWorld animated = new FloodItWorld(5, 30, 30, new Random(8), true);
+    FloodItWorld world = new FloodItWorld(5, 30, 30, new Random(8), engine);
+    boolean result = true;
+    for (int m = 0; m < 25; m++) {
+      while (animated.flooding) {
+        animated.onTick();
+      }
+      result = result && animated.tilesTouched == world.tilesTouched;
+      int color = (animated.floodColor + 1 + m % 3) % 5;
+      animated.flood(color);
+      world.flood(color);
+    }
+    return result && world.movesMade == animated.movesMade;
+  }
+}
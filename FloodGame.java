@@ -0,0 +1,432 @@
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ForkJoinPool;
+import tester.*;
+
+// A game of Flood-It without any drawing or animation: a compact board flooded
+// a whole move at a time. Wins and losses follow FloodItWorld.onTick
+class FloodGame {
+  IBoard board;
+  RegionFloodEngine engine;
+  int numColors;
+  int moveLimit;
+  int movesMade;
+  // the number of cells flooded before the first move
+  int startCells;
+  // times every move and counts the cells it gains, when not null
+  GameMetrics metrics;
+
+  // starts a game on the given board, whose top-left cell is flooded
+  FloodGame(IBoard board, int numColors) {
+    this.board = board;
+    this.numColors = numColors;
+    this.moveLimit = FloodItWorld.moveLimitFor(board.width(), board.height(), numColors);
+    this.engine = new RegionFloodEngine();
+    this.engine.start(board);
+    this.startCells = this.engine.floodedCount();
+  }
+
+  // starts a game on the board FloodItWorld would build from new Random(seed)
+  static FloodGame seeded(long seed, int width, int height, int numColors) {
+    return new FloodGame(PackedBoard.random(width, height, numColors, new Random(seed)),
+        numColors);
+  }
+
+  // floods the board with the given color
+  // EFFECT: absorbs cells and counts the move, unless the color is already the
+  // current one; returns whether a move was made
+  boolean play(int color) {
+    if (color == this.engine.currentColor() || color < 0 || color >= this.numColors) {
+      return false;
+    }
+    if (this.metrics == null) {
+      this.engine.flood(color);
+    }
+    else {
+      long start = System.nanoTime();
+      this.engine.flood(color);
+      this.metrics.move(System.nanoTime() - start);
+    }
+    this.movesMade++;
+    return true;
+  }
+
+  // the palette color of the flooded region
+  int currentColor() {
+    return this.engine.currentColor();
+  }
+
+  // the number of flooded cells
+  int floodedCount() {
+    return this.engine.floodedCount();
+  }
+
+  // the number of cells playing the given color would flood now
+  int gainOf(int color) {
+    return this.engine.gainOf(color);
+  }
+
+  // is the whole board flooded
+  boolean flooded() {
+    return this.engine.floodedCount() == this.board.size();
+  }
+
+  // was the board flooded within the move limit
+  boolean won() {
+    return this.flooded() && this.movesMade <= this.moveLimit;
+  }
+
+  // has the move limit been reached without flooding the board
+  boolean lost() {
+    return !this.won() && this.movesMade >= this.moveLimit;
+  }
+}
+
+// Chooses the next color to play in a headless game
+interface IMovePolicy {
+  // a palette color other than the game's current color
+  // rand is owned by the game being played, so policies keep no state of their own
+  int choose(FloodGame game, SplittableRandom rand);
+}
+
+// Plays the colors in palette order
+class CyclePolicy implements IMovePolicy {
+  public int choose(FloodGame game, SplittableRandom rand) {
+    return (game.currentColor() + 1) % game.numColors;
+  }
+}
+
+// Plays any other color, uniformly at random
+class RandomPolicy implements IMovePolicy {
+  public int choose(FloodGame game, SplittableRandom rand) {
+    int color = rand.nextInt(game.numColors - 1);
+    return color >= game.currentColor() ? color + 1 : color;
+  }
+}
+
+// Plays the color that floods the most cells right now, the lowest color on ties
+class GreedyPolicy implements IMovePolicy {
+  public int choose(FloodGame game, SplittableRandom rand) {
+    int best = -1;
+    int bestGain = -1;
+    for (int color = 0; color < game.numColors; color++) {
+      int gain = game.gainOf(color);
+      if (color != game.currentColor() && gain > bestGain) {
+        best = color;
+        bestGain = gain;
+      }
+    }
+    return best;
+  }
+}
+
+// Aggregate results of many headless games of one size and color count
+class BatchStats {
+  long games;
+  long wins;
+  long movesPlayed;
+  long cellsGained;
+  // moveCounts[m] is the number of games that flooded the board in exactly m moves;
+  // games that never finished are counted in unfinished instead
+  long[] moveCounts;
+  long unfinished;
+
+  BatchStats(int maxMoves) {
+    this.moveCounts = new long[maxMoves + 1];
+  }
+
+  // EFFECT: records one finished or abandoned game
+  void add(FloodGame game) {
+    this.games++;
+    this.movesPlayed += game.movesMade;
+    this.cellsGained += game.floodedCount() - game.startCells;
+    if (game.won()) {
+      this.wins++;
+    }
+    if (game.flooded()) {
+      this.moveCounts[game.movesMade]++;
+    }
+    else {
+      this.unfinished++;
+    }
+  }
+
+  // EFFECT: adds the given stats, of the same maximum moves, to these
+  void merge(BatchStats other) {
+    this.games += other.games;
+    this.wins += other.wins;
+    this.movesPlayed += other.movesPlayed;
+    this.cellsGained += other.cellsGained;
+    this.unfinished += other.unfinished;
+    for (int m = 0; m < this.moveCounts.length; m++) {
+      this.moveCounts[m] += other.moveCounts[m];
+    }
+  }
+
+  // the fraction of games won
+  double winRate() {
+    return this.games == 0 ? 0 : (double) this.wins / this.games;
+  }
+
+  // the average number of cells a move floods
+  double cellsPerMove() {
+    return this.movesPlayed == 0 ? 0 : (double) this.cellsGained / this.movesPlayed;
+  }
+
+  // the smallest move count that floods the board in at least the given fraction
+  // of the finished games, or -1 if no game finished
+  int movesPercentile(double fraction) {
+    long finished = this.games - this.unfinished;
+    long seen = 0;
+    for (int m = 0; m < this.moveCounts.length; m++) {
+      seen += this.moveCounts[m];
+      if (finished > 0 && seen >= fraction * finished) {
+        return m;
+      }
+    }
+    return -1;
+  }
+
+  // a one-line summary of these stats
+  public String toString() {
+    return String.format("games=%d wins=%d winRate=%.4f movesP50=%d movesP90=%d movesP99=%d"
+        + " cellsPerMove=%.2f unfinished=%d", this.games, this.wins, this.winRate(),
+        this.movesPercentile(0.5), this.movesPercentile(0.9), this.movesPercentile(0.99),
+        this.cellsPerMove(), this.unfinished);
+  }
+}
+
+// Receives the running totals of a batch as chunks of games complete
+interface IBatchListener {
+  // EFFECT: anything; soFar must not be kept, it keeps changing
+  void progress(BatchStats soFar);
+}
+
+// Plays a range of seeded headless games on a fork-join pool. Seeds are split into
+// chunks; every chunk plays its games sequentially into its own BatchStats, and only
+// the calling thread merges finished chunks, so games share no mutable state
+class FloodBatchRunner {
+  int width;
+  int height;
+  int numColors;
+  IMovePolicy policy;
+  // games stop after this many moves even if the board is not flooded
+  int maxMoves;
+  int chunkSize = 4096;
+  ForkJoinPool pool;
+
+  FloodBatchRunner(int width, int height, int numColors, IMovePolicy policy, ForkJoinPool pool) {
+    this.width = width;
+    this.height = height;
+    this.numColors = numColors;
+    this.policy = policy;
+    this.pool = pool;
+    // generous enough for the random policy to finish nearly every game
+    this.maxMoves = 20 * FloodItWorld.moveLimitFor(width, height, numColors);
+  }
+
+  // plays one game for every seed in [firstSeed, lastSeed), reporting the totals
+  // to the listener after every chunk
+  BatchStats run(long firstSeed, long lastSeed, IBatchListener listener) {
+    CompletionService<BatchStats> done = new ExecutorCompletionService<BatchStats>(this.pool);
+    int chunks = 0;
+    for (long from = firstSeed; from < lastSeed; from += this.chunkSize) {
+      long to = Math.min(lastSeed, from + this.chunkSize);
+      long chunkFrom = from;
+      done.submit(new Callable<BatchStats>() {
+        public BatchStats call() {
+          return FloodBatchRunner.this.playChunk(chunkFrom, to);
+        }
+      });
+      chunks++;
+    }
+    BatchStats total = new BatchStats(this.maxMoves);
+    try {
+      for (int i = 0; i < chunks; i++) {
+        total.merge(done.take().get());
+        listener.progress(total);
+      }
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Batch interrupted", e);
+    }
+    catch (ExecutionException e) {
+      throw new IllegalStateException("Batch game failed", e.getCause());
+    }
+    return total;
+  }
+
+  // plays the games for the seeds in [from, to) on this thread
+  BatchStats playChunk(long from, long to) {
+    BatchStats stats = new BatchStats(this.maxMoves);
+    for (long seed = from; seed < to; seed++) {
+      stats.add(this.playGame(seed));
+    }
+    return stats;
+  }
+
+  // plays the game for the given seed until the board is flooded or maxMoves is reached
+  FloodGame playGame(long seed) {
+    FloodGame game = FloodGame.seeded(seed, this.width, this.height, this.numColors);
+    SplittableRandom rand = new SplittableRandom(seed);
+    while (!game.flooded() && game.movesMade < this.maxMoves
+        && game.play(this.policy.choose(game, rand))) {
+      // the move was played by the loop condition
+    }
+    return game;
+  }
+
+  // runs a batch from the command line:
+  //   java FloodBatchRunner firstSeed lastSeed width height colors [cycle|random|greedy]
+  public static void main(String[] args) {
+    long first = Long.parseLong(args[0]);
+    long last = Long.parseLong(args[1]);
+    IMovePolicy policy = new GreedyPolicy();
+    if (args.length > 5 && args[5].equals("cycle")) {
+      policy = new CyclePolicy();
+    }
+    else if (args.length > 5 && args[5].equals("random")) {
+      policy = new RandomPolicy();
+    }
+    FloodBatchRunner runner = new FloodBatchRunner(Integer.parseInt(args[2]),
+        Integer.parseInt(args[3]), Integer.parseInt(args[4]), policy, ForkJoinPool.commonPool());
+    long start = System.nanoTime();
+    BatchStats stats = runner.run(first, last, new IBatchListener() {
+      public void progress(BatchStats soFar) {
+        System.out.println(soFar);
+      }
+    });
+    double seconds = (System.nanoTime() - start) / 1e9;
+    System.out.printf("%d games in %.2f s, %.0f games/s%n", stats.games, seconds,
+        stats.games / seconds);
+  }
+}
+
+class ExamplesFloodGame {
+  // tests that a headless game floods like the animated world
+  boolean testMatchesWorld(Tester t) {
+    FloodItWorld world = new FloodItWorld(4, 14, 9, new Random(11), true);
+    FloodGame game = FloodGame.seeded(11, 14, 9, 4);
+    boolean result = t.checkExpect(game.moveLimit, world.moveLimit)
+        && t.checkExpect(game.currentColor(), world.floodColor);
+    Random moves = new Random(1);
+    for (int m = 0; m < 25; m++) {
+      while (world.flooding) {
+        world.onTick();
+      }
+      result = result && t.checkExpect(game.floodedCount(), world.tilesTouched)
+          && t.checkExpect(game.movesMade, world.movesMade);
+      int color = moves.nextInt(4);
+      world.flood(color);
+      game.play(color);
+    }
+    return result;
+  }
+
+  // tests playing moves and the end of a game
+  boolean testPlay(Tester t) {
+    PackedBoard board = new PackedBoard(2, 1);
+    board.setColor(1, 1);
+    FloodGame game = new FloodGame(board, 2);
+    boolean test1 = t.checkExpect(game.play(0), false)
+        && t.checkExpect(game.play(7), false)
+        && t.checkExpect(game.movesMade, 0)
+        && t.checkExpect(game.flooded(), false)
+        && t.checkExpect(game.lost(), false);
+    boolean test2 = t.checkExpect(game.gainOf(1), 1)
+        && t.checkExpect(game.play(1), true)
+        && t.checkExpect(game.flooded(), true)
+        && t.checkExpect(game.won(), true);
+    game.movesMade = game.moveLimit + 1;
+    boolean test3 = t.checkExpect(game.won(), false)
+        && t.checkExpect(game.lost(), true);
+    return test1 && test2 && test3;
+  }
+
+  // tests that the policies never choose the current color
+  boolean testPolicies(Tester t) {
+    FloodGame game = FloodGame.seeded(3, 12, 12, 6);
+    SplittableRandom rand = new SplittableRandom(3);
+    IMovePolicy[] policies = new IMovePolicy[] {new CyclePolicy(), new RandomPolicy(),
+        new GreedyPolicy()};
+    boolean result = true;
+    for (IMovePolicy policy : policies) {
+      for (int i = 0; i < 50; i++) {
+        int color = policy.choose(game, rand);
+        result = result && color != game.currentColor() && color >= 0 && color < 6;
+      }
+    }
+    int greedy = new GreedyPolicy().choose(game, rand);
+    for (int color = 0; color < 6; color++) {
+      result = result && game.gainOf(color) <= game.gainOf(greedy);
+    }
+    return t.checkExpect(result, true);
+  }
+
+  // tests that batch results do not depend on the number of threads
+  boolean testBatchDeterministic(Tester t) {
+    FloodBatchRunner single = new FloodBatchRunner(12, 12, 6, new GreedyPolicy(),
+        new ForkJoinPool(1));
+    FloodBatchRunner many = new FloodBatchRunner(12, 12, 6, new GreedyPolicy(),
+        new ForkJoinPool(4));
+    single.chunkSize = 7;
+    many.chunkSize = 7;
+    int[] reports = new int[] {0};
+    BatchStats one = single.run(0, 100, new IBatchListener() {
+      public void progress(BatchStats soFar) {
+        reports[0]++;
+      }
+    });
+    BatchStats four = many.run(0, 100, new IBatchListener() {
+      public void progress(BatchStats soFar) {
+        // nothing to check while running
+      }
+    });
+    single.pool.shutdown();
+    many.pool.shutdown();
+    return t.checkExpect(one.games, 100L)
+        && t.checkExpect(reports[0], 15)
+        && t.checkExpect(one.unfinished, 0L)
+        && t.checkExpect(four.toString(), one.toString())
+        && t.checkExpect(four.moveCounts, one.moveCounts)
+        && t.checkExpect(one.wins > 0, true);
+  }
+
+  // a game on a one-row board of the given colors, with its first cell flooded
+  FloodGame row(int... colors) {
+    PackedBoard board = new PackedBoard(colors.length, 1);
+    for (int i = 0; i < colors.length; i++) {
+      board.setColor(i, colors[i]);
+    }
+    board.makeFlooded(0);
+    return new FloodGame(board, 2);
+  }
+
+  // tests combining the stats of two batches
+  boolean testMergeStats(Tester t) {
+    BatchStats a = new BatchStats(10);
+    BatchStats b = new BatchStats(10);
+    a.add(row(0, 1));
+    FloodGame oneMove = row(0, 1);
+    oneMove.play(1);
+    a.add(oneMove);
+    FloodGame twoMoves = row(0, 1, 0);
+    twoMoves.play(1);
+    twoMoves.play(0);
+    b.add(twoMoves);
+    boolean empty = t.checkExpect(new BatchStats(10).movesPercentile(1.0), -1);
+    a.merge(b);
+    return empty && t.checkExpect(a.games, 3L)
+        && t.checkExpect(a.unfinished, 1L)
+        && t.checkExpect(a.moveCounts[1], 1L)
+        && t.checkExpect(a.moveCounts[2], 1L)
+        && t.checkExpect(a.movesPlayed, 3L)
+        && t.checkExpect(a.movesPercentile(0.5), 1)
+        && t.checkExpect(a.movesPercentile(1.0), 2);
+  }
+}
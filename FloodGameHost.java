@@ -0,0 +1,469 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import tester.*;
+
+// One player's game on a FloodGameHost, played headlessly over a line protocol:
+//   color C    floods with palette color C
+//   click X Y  floods with the color shown at column X, row Y
+//   reset      starts a new board
+//   state      only reports the state
+//   quit       ends the session
+// Every command is answered with one line, the state or an error. A session only
+// touches its own game, on its own thread. An idle session drops its board and
+// keeps just its record, the seed and moves, to play them again when it wakes
+class GameSession implements Runnable {
+  int id;
+  FloodGameHost host;
+  BufferedReader in;
+  PrintWriter out;
+  // the seed, size, colors and moves of the game; enough to make it again
+  GameRecord record;
+  // the game, or null while evicted
+  FloodGame game;
+  volatile long lastActive;
+  LatencyHistogram latency = new LatencyHistogram();
+
+  GameSession(int id, FloodGameHost host, Reader in, Writer out) {
+    this.id = id;
+    this.host = host;
+    this.in = new BufferedReader(in);
+    this.out = new PrintWriter(out);
+    this.lastActive = System.nanoTime();
+    this.newGame();
+  }
+
+  // answers commands until the client quits or hangs up
+  public void run() {
+    try {
+      this.out.println("session " + this.id + " " + this.record.width + "x"
+          + this.record.height + " " + this.record.numColors + " colors");
+      this.out.println(this.handle("state"));
+      this.out.flush();
+      String line = this.in.readLine();
+      while (line != null && !line.trim().equals("quit")) {
+        this.out.println(this.handle(line));
+        this.out.flush();
+        line = this.in.readLine();
+      }
+    }
+    catch (IOException e) {
+      // the client went away; the session just ends
+    }
+    finally {
+      this.host.closed(this);
+      this.out.close();
+    }
+  }
+
+  // the reply to the given command, timing it
+  // EFFECT: plays the command on this session's game
+  synchronized String handle(String line) {
+    long start = System.nanoTime();
+    this.lastActive = start;
+    this.load();
+    String[] words = line.trim().split("\\s+");
+    String reply;
+    try {
+      if (words[0].equals("color") && words.length == 2) {
+        reply = this.play(Integer.parseInt(words[1]));
+      }
+      else if (words[0].equals("click") && words.length == 3) {
+        int x = Integer.parseInt(words[1]);
+        int y = Integer.parseInt(words[2]);
+        if (x < 0 || y < 0 || x >= this.record.width || y >= this.record.height) {
+          reply = "error no cell at " + x + " " + y;
+        }
+        else {
+          reply = this.play(this.colorShownAt(y * this.record.width + x));
+        }
+      }
+      else if (words[0].equals("reset") && words.length == 1) {
+        this.newGame();
+        reply = this.state();
+      }
+      else if (words[0].equals("state") && words.length == 1) {
+        reply = this.state();
+      }
+      else {
+        reply = "error unknown command: " + line.trim();
+      }
+    }
+    catch (NumberFormatException e) {
+      reply = "error not a number in: " + line.trim();
+    }
+    long elapsed = System.nanoTime() - start;
+    this.latency.record(elapsed);
+    if (this.host.metrics != null) {
+      this.host.metrics.tick(elapsed, this.game.board.size());
+    }
+    return reply;
+  }
+
+  // the state after playing the given color, or an error if it cannot be played
+  // EFFECT: floods the board and records the move
+  String play(int color) {
+    if (this.game.won() || this.game.lost()) {
+      return "error the game is over";
+    }
+    if (color < 0 || color >= this.record.numColors) {
+      return "error no color " + color;
+    }
+    if (this.game.play(color)) {
+      this.record.add(color);
+    }
+    return this.state();
+  }
+
+  // the palette color shown at the given cell
+  int colorShownAt(int index) {
+    return this.game.board.isFlooded(index) ? this.game.currentColor()
+        : this.game.board.colorAt(index);
+  }
+
+  // the state line: moves, flooded cells, current color and result
+  String state() {
+    return "moves " + this.game.movesMade + "/" + this.game.moveLimit + " flooded "
+        + this.game.floodedCount() + "/" + this.game.board.size() + " color "
+        + this.game.currentColor() + " "
+        + (this.game.won() ? "won" : this.game.lost() ? "lost" : "playing");
+  }
+
+  // EFFECT: starts a game on a new board from this session's next seed
+  void newGame() {
+    this.record = new GameRecord(GameRecord.HASHED_BOARD, this.host.nextSeed(this.id),
+        this.host.width, this.host.height, this.host.numColors, 0);
+    this.game = new FloodGame(this.record.board(this.host.generator), this.host.numColors);
+    this.game.metrics = this.host.metrics;
+    this.record.moveLimit = this.game.moveLimit;
+  }
+
+  // EFFECT: makes the game again from its record if it was evicted
+  void load() {
+    if (this.game == null) {
+      this.game = new FloodGame(this.record.board(this.host.generator), this.record.numColors);
+      this.game.moveLimit = this.record.moveLimit;
+      this.game.metrics = this.host.metrics;
+      for (int i = 0; i < this.record.moveCount; i++) {
+        this.game.play(this.record.moves[i]);
+      }
+      this.host.reloads.incrementAndGet();
+    }
+  }
+
+  // drops the game if no command came for idleNanos; returns whether it did
+  // EFFECT: may set game to null
+  synchronized boolean evictIfIdle(long now, long idleNanos) {
+    if (this.game != null && now - this.lastActive >= idleNanos) {
+      this.game = null;
+      return true;
+    }
+    return false;
+  }
+}
+
+// Runs many independent game sessions in one JVM, each on its own thread: a virtual
+// thread where the JVM has them (Java 21 on), a platform thread otherwise. Sessions
+// share nothing but the board generator, which keeps no state between boards.
+// A janitor thread evicts the boards of idle sessions, and every session times its
+// commands, so report() gives real per-session tick latencies
+class FloodGameHost {
+  int width;
+  int height;
+  int numColors;
+  long hostSeed;
+  long idleNanos;
+  BoardGenerator generator = new BoardGenerator(ForkJoinPool.commonPool());
+  ThreadFactory sessionThreads = sessionThreadFactory();
+  ConcurrentHashMap<Integer, GameSession> sessions =
+      new ConcurrentHashMap<Integer, GameSession>();
+  AtomicInteger nextId = new AtomicInteger();
+  AtomicLong boardsMade = new AtomicLong();
+  AtomicInteger evictions = new AtomicInteger();
+  AtomicInteger reloads = new AtomicInteger();
+  // the latencies of the sessions that ended
+  LatencyHistogram closedLatency = new LatencyHistogram();
+  // also times the commands and moves of all sessions together, when not null;
+  // made without a frontier gauge, since headless games have no flood frontier
+  GameMetrics metrics;
+  volatile boolean running = true;
+
+  FloodGameHost(int width, int height, int numColors, long hostSeed, long idleNanos) {
+    PackedBoard.checkedSize(width, height);
+    this.width = width;
+    this.height = height;
+    this.numColors = numColors;
+    this.hostSeed = hostSeed;
+    this.idleNanos = idleNanos;
+  }
+
+  // makes virtual threads through Thread.ofVirtual when this JVM has it, found
+  // reflectively so the game still builds for Java 17, and daemon platform threads
+  // otherwise
+  static ThreadFactory sessionThreadFactory() {
+    try {
+      Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+      Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+      builder = builderClass.getMethod("name", String.class, long.class)
+          .invoke(builder, "session-", 0L);
+      return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+    }
+    catch (ReflectiveOperationException e) {
+      AtomicInteger count = new AtomicInteger();
+      return task -> {
+        Thread thread = new Thread(task, "session-" + count.getAndIncrement());
+        thread.setDaemon(true);
+        return thread;
+      };
+    }
+  }
+
+  // the seed of the next board of the given session; different for every session and board
+  long nextSeed(int session) {
+    return this.hostSeed + ((long) session << 32) + this.boardsMade.getAndIncrement();
+  }
+
+  // a new session talking through the given streams, running on its own thread
+  // EFFECT: adds and starts the session
+  GameSession open(Reader in, Writer out) {
+    GameSession session = new GameSession(this.nextId.getAndIncrement(), this, in, out);
+    this.sessions.put(session.id, session);
+    this.sessionThreads.newThread(session).start();
+    return session;
+  }
+
+  // EFFECT: forgets the given session, keeping its latencies for the report; they are
+  // merged first, so once no session is open every latency is in the report
+  void closed(GameSession session) {
+    this.closedLatency.merge(session.latency);
+    this.sessions.remove(session.id);
+  }
+
+  // EFFECT: drops the boards of the sessions idle for idleNanos; returns how many
+  int evictIdle() {
+    long now = System.nanoTime();
+    int evicted = 0;
+    for (GameSession session : this.sessions.values()) {
+      if (session.evictIfIdle(now, this.idleNanos)) {
+        evicted++;
+      }
+    }
+    this.evictions.addAndGet(evicted);
+    return evicted;
+  }
+
+  // EFFECT: starts a daemon thread that evicts idle boards every half idle time
+  void startJanitor() {
+    Thread janitor = new Thread(() -> {
+      while (this.running) {
+        try {
+          Thread.sleep(Math.max(1, this.idleNanos / 2_000_000L));
+        }
+        catch (InterruptedException e) {
+          return;
+        }
+        this.evictIdle();
+      }
+    }, "session-janitor");
+    janitor.setDaemon(true);
+    janitor.start();
+  }
+
+  // EFFECT: accepts clients on the given socket until the host stops, each in a session
+  void serve(ServerSocket server) throws IOException {
+    while (this.running) {
+      Socket client = server.accept();
+      this.open(new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8),
+          new OutputStreamWriter(client.getOutputStream(), StandardCharsets.UTF_8));
+    }
+  }
+
+  // one line per open session with its tick latencies, then the totals of all sessions
+  String report() {
+    StringBuilder result = new StringBuilder();
+    LatencyHistogram total = new LatencyHistogram();
+    total.merge(this.closedLatency);
+    for (GameSession session : this.sessions.values()) {
+      result.append("session ").append(session.id).append(": ").append(session.latency)
+          .append(session.game == null ? " (evicted)" : "").append('\n');
+      total.merge(session.latency);
+    }
+    result.append("all sessions: ").append(total).append(", ").append(this.sessions.size())
+        .append(" open, ").append(this.evictions.get()).append(" evictions, ")
+        .append(this.reloads.get()).append(" reloads");
+    return result.toString();
+  }
+
+  // hosts games from the command line, on the given local port or on stdin:
+  //   java FloodGameHost [port]
+  public static void main(String[] args) throws IOException, InterruptedException {
+    FloodGameHost host = new FloodGameHost(14, 14, 6, System.nanoTime(), 60_000_000_000L);
+    host.startJanitor();
+    if (args.length > 0) {
+      ServerSocket server = new ServerSocket(Integer.parseInt(args[0]), 1024,
+          InetAddress.getLoopbackAddress());
+      host.serve(server);
+    }
+    else {
+      GameSession session = new GameSession(host.nextId.getAndIncrement(), host,
+          new InputStreamReader(System.in, StandardCharsets.UTF_8),
+          new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+      host.sessions.put(session.id, session);
+      session.run();
+      System.err.println(host.report());
+    }
+  }
+}
+
+class ExamplesFloodGameHost {
+  // the replies of a session that reads the given commands, run on this thread
+  String[] converse(FloodGameHost host, String commands) {
+    StringWriter out = new StringWriter();
+    GameSession session = new GameSession(0, host, new StringReader(commands), out);
+    session.run();
+    return out.toString().split("\n");
+  }
+
+  // tests the replies to every command
+  boolean testProtocol(Tester t) {
+    FloodGameHost host = new FloodGameHost(5, 5, 3, 42, 1_000_000_000L);
+    String[] replies = converse(host, "state\ncolor 9\nclick 7 0\nfly\ncolor x\nquit\ncolor 1\n");
+    return t.checkExpect(replies.length, 7)
+        && t.checkExpect(replies[0], "session 0 5x5 3 colors")
+        && t.checkExpect(replies[1].startsWith("moves 0/"), true)
+        && t.checkExpect(replies[2], replies[1])
+        && t.checkExpect(replies[3], "error no color 9")
+        && t.checkExpect(replies[4], "error no cell at 7 0")
+        && t.checkExpect(replies[5], "error unknown command: fly")
+        && t.checkExpect(replies[6], "error not a number in: color x");
+  }
+
+  // tests that clicks and colors play moves until the game is over
+  boolean testPlay(Tester t) {
+    FloodGameHost host = new FloodGameHost(6, 6, 3, 7, 1_000_000_000L);
+    GameSession session = new GameSession(1, host, new StringReader(""), new StringWriter());
+    int color = session.game.currentColor();
+    String first = session.handle("color " + ((color + 1) % 3));
+    boolean test1 = t.checkExpect(first.startsWith("moves 1/"), true)
+        && t.checkExpect(session.record.moveCount, 1);
+    String clicked = session.handle("click 0 0");
+    boolean test2 = t.checkExpect(clicked, first);
+    while (!session.game.won() && !session.game.lost()) {
+      session.handle("color " + ((session.game.currentColor() + 1) % 3));
+    }
+    boolean test3 = t.checkExpect(session.handle("color 0"), "error the game is over")
+        && t.checkExpect(session.handle("reset").startsWith("moves 0/"), true)
+        && t.checkExpect(session.record.moveCount, 0)
+        && t.checkExpect(session.latency.count.sum() > 3, true);
+    return test1 && test2 && test3;
+  }
+
+  // tests that an idle session drops its board and gets the same game back
+  boolean testEviction(Tester t) {
+    FloodGameHost host = new FloodGameHost(30, 30, 4, 3, 0);
+    GameSession session = new GameSession(2, host, new StringReader(""), new StringWriter());
+    host.sessions.put(session.id, session);
+    for (int m = 0; m < 8; m++) {
+      session.handle("color " + ((session.game.currentColor() + 1) % 4));
+    }
+    String before = session.handle("state");
+    boolean test1 = t.checkExpect(host.evictIdle(), 1)
+        && t.checkExpect(session.game, null)
+        && t.checkExpect(host.report().contains("(evicted)"), true);
+    return test1 && t.checkExpect(session.handle("state"), before)
+        && t.checkExpect(host.reloads.get(), 1);
+  }
+
+  // tests many sessions playing at once, each on its own thread
+  boolean testManySessions(Tester t) throws InterruptedException {
+    FloodGameHost host = new FloodGameHost(10, 10, 3, 11, 1_000_000_000L);
+    ArrayList<StringWriter> outputs = new ArrayList<StringWriter>();
+    StringBuilder script = new StringBuilder();
+    for (int m = 0; m < 40; m++) {
+      script.append("click ").append(m % 10).append(' ').append(m / 10 % 10).append('\n');
+    }
+    for (int s = 0; s < 500; s++) {
+      StringWriter out = new StringWriter();
+      outputs.add(out);
+      host.open(new StringReader(script.toString()), out);
+    }
+    long deadline = System.currentTimeMillis() + 30_000;
+    while (!host.sessions.isEmpty() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    boolean allAnswered = true;
+    for (StringWriter out : outputs) {
+      allAnswered = allAnswered && out.toString().split("\n").length == 42;
+    }
+    return t.checkExpect(host.sessions.size(), 0)
+        && t.checkExpect(allAnswered, true)
+        && t.checkExpect(host.closedLatency.count.sum(), 500L * 41);
+  }
+
+  // tests a session over a local socket
+  boolean testSocket(Tester t) throws IOException {
+    FloodGameHost host = new FloodGameHost(5, 5, 3, 42, 1_000_000_000L);
+    ServerSocket server = new ServerSocket(0, 16, InetAddress.getLoopbackAddress());
+    Thread acceptor = new Thread(() -> {
+      try {
+        host.serve(server);
+      }
+      catch (IOException e) {
+        // the server socket was closed
+      }
+    });
+    acceptor.setDaemon(true);
+    acceptor.start();
+    Socket client = new Socket(InetAddress.getLoopbackAddress(), server.getLocalPort());
+    PrintWriter toHost = new PrintWriter(new OutputStreamWriter(client.getOutputStream(),
+        StandardCharsets.UTF_8), true);
+    BufferedReader fromHost = new BufferedReader(new InputStreamReader(
+        client.getInputStream(), StandardCharsets.UTF_8));
+    String greeting = fromHost.readLine();
+    String state = fromHost.readLine();
+    toHost.println("state");
+    String again = fromHost.readLine();
+    toHost.println("quit");
+    boolean ended = fromHost.readLine() == null;
+    host.running = false;
+    client.close();
+    server.close();
+    return t.checkExpect(greeting.endsWith("5x5 3 colors"), true)
+        && t.checkExpect(again, state)
+        && t.checkExpect(ended, true);
+  }
+
+  // tests merging the latencies of sessions, as the report does
+  boolean testLatency(Tester t) {
+    LatencyHistogram stats = new LatencyHistogram();
+    for (int i = 1; i <= 100; i++) {
+      stats.record(i * 1000L);
+    }
+    LatencyHistogram merged = new LatencyHistogram();
+    merged.merge(stats);
+    merged.merge(stats);
+    return t.checkExpect(stats.percentile(0.5), 51_199L)
+        && t.checkExpect(merged.percentile(0.5), 51_199L)
+        && t.checkExpect(merged.percentile(1.0), 100_000L)
+        && t.checkExpect(merged.count.sum(), 200L)
+        && t.checkExpect(merged.meanNanos(), 50_500L)
+        && t.checkExpect(merged.toString(), "200 ticks, mean 50.5 us, p50 51.2 us,"
+            + " p99 100.0 us, max 100.0 us");
+  }
+}
@@ -0,0 +1,432 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+// Timing harness for the game's hot paths, run with
+//   java FloodItBenchmarks [benchmark ...] [-sizes 12,64] [-colors 3,6]
+// (javalib and tester on the classpath, like the game itself).
+// The benchmarks are initializeBoard, flood, game, makeScene, fullScene, bigFlood, parallelFlood,
+// scanlineFlood and scaling; with no names all of them run. Each benchmark except scaling runs
+// over every board size and color count and prints one line of throughput, latency percentiles and
+// allocation, so runs can be compared by eye or diffed between commits
+class FloodItBenchmarks {
+  static final int[] SIZES = new int[] {200, 400, 800};
+  static final int MOVES = 4;
+  static final int NUM_COLORS = 2;
+
+  // the grid the per-operation benchmarks run over
+  static final int[] BOARD_SIZES = new int[] {12, 64, 256, 1024};
+  static final int[] COLOR_COUNTS = new int[] {3, 6};
+  // how long each configuration warms up and is measured for
+  static final long WARMUP_NANOS = 500_000_000L;
+  static final long MEASURE_NANOS = 2_000_000_000L;
+  // slow configurations still run at least this many measured operations
+  static final int MIN_OPS = 5;
+
+  int[] boardSizes = BOARD_SIZES;
+  int[] colorCounts = COLOR_COUNTS;
+  // results of every operation end up here, so the JIT cannot discard the work
+  long sink;
+
+  public static void main(String[] args) {
+    FloodItBenchmarks bench = new FloodItBenchmarks();
+    ArrayList<String> names = new ArrayList<String>();
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("-sizes") && i + 1 < args.length) {
+        i++;
+        bench.boardSizes = parseInts(args[i]);
+      }
+      else if (args[i].equals("-colors") && i + 1 < args.length) {
+        i++;
+        bench.colorCounts = parseInts(args[i]);
+      }
+      else {
+        names.add(args[i]);
+      }
+    }
+    IBenchmark[] all = new IBenchmark[] {new InitializeBoardBenchmark(),
+        new FloodCycleBenchmark(), new ScriptedGameBenchmark(),
+        new MakeSceneBenchmark("makeScene", false), new MakeSceneBenchmark("fullScene", true),
+        new BigFloodBenchmark("bigFlood", new FloodFrontier()),
+        new BigFloodBenchmark("parallelFlood", new ParallelFloodEngine(ForkJoinPool.commonPool())),
+        new BigFloodBenchmark("scanlineFlood", new ScanlineFloodEngine())};
+    System.out.println(Measurement.HEADER);
+    for (IBenchmark b : all) {
+      if (names.isEmpty() || names.contains(b.name())) {
+        bench.runAll(b);
+      }
+    }
+    if (names.isEmpty() || names.contains("scaling")) {
+      bench.floodScaling();
+    }
+  }
+
+  // the comma-separated integers in the given string
+  static int[] parseInts(String list) {
+    String[] parts = list.split(",");
+    int[] result = new int[parts.length];
+    for (int i = 0; i < parts.length; i++) {
+      result[i] = Integer.parseInt(parts[i].trim());
+    }
+    return result;
+  }
+
+  // EFFECT: measures the given benchmark for every board size and color count,
+  // printing one line each
+  void runAll(IBenchmark b) {
+    for (int size : this.boardSizes) {
+      for (int numColors : this.colorCounts) {
+        System.out.println(this.measure(b, size, numColors));
+      }
+    }
+  }
+
+  // warms the given benchmark up, then times its operations one by one.
+  // Only run() is timed and counted towards allocation, never setUp()
+  Measurement measure(IBenchmark b, int size, int numColors) {
+    b.setUp(size, numColors, 42);
+    this.runFor(b, WARMUP_NANOS, 1, null);
+    Measurement result = new Measurement(b.name(), size, numColors);
+    this.runFor(b, MEASURE_NANOS, MIN_OPS, result);
+    return result;
+  }
+
+  // runs operations until both the given time and number of operations are reached
+  // EFFECT: records each operation in the given measurement, if there is one
+  void runFor(IBenchmark b, long nanos, int minOps, Measurement result) {
+    long end = System.nanoTime() + nanos;
+    int ops = 0;
+    while (ops < minOps || System.nanoTime() < end) {
+      b.prepare();
+      long bytes = GameMetrics.allocatedBytes();
+      long start = System.nanoTime();
+      this.sink += b.run();
+      long elapsed = System.nanoTime() - start;
+      bytes = GameMetrics.allocatedBytes() - bytes;
+      if (result != null) {
+        result.add(elapsed, bytes);
+      }
+      ops++;
+    }
+  }
+
+  // floods boards of growing size and reports the time per cell the waterfall visits.
+  // With constant-time queued/visited checks that figure stays flat as boards grow;
+  // with the old Hashtable value scans it grew with the flooded area
+  // EFFECT: prints the results, and fails if the largest board is more than
+  // 4x slower per cell than the smallest
+  void floodScaling() {
+    // warm up the JIT on a small board first
+    this.timeFlood(100, 5);
+    double smallest = 0;
+    double largest = 0;
+    for (int size : SIZES) {
+      long[] result = this.timeFlood(size, 3);
+      double nsPerCell = (double) result[0] / result[1];
+      System.out.printf("flood %5dx%-5d %12d cells %10.1f ms %8.1f ns/cell%n",
+          size, size, result[1], result[0] / 1e6, nsPerCell);
+      if (size == SIZES[0]) {
+        smallest = nsPerCell;
+      }
+      largest = nsPerCell;
+    }
+    if (largest > 4 * smallest) {
+      throw new IllegalStateException("flood time per cell grew from "
+          + smallest + " ns to " + largest + " ns");
+    }
+  }
+
+  // plays MOVES moves on a single-colored size x size compact board, so every flood
+  // repaints the whole board, and returns the best of the given number of runs
+  // as {nanoseconds, cells visited}
+  long[] timeFlood(int size, int runs) {
+    long best = Long.MAX_VALUE;
+    long cells = 0;
+    for (int r = 0; r < runs; r++) {
+      PackedBoard board = new PackedBoard(size, size);
+      board.makeFlooded(0);
+      FloodItWorld world = new FloodItWorld(board, NUM_COLORS, new Random(42));
+      cells = 0;
+      long start = System.nanoTime();
+      for (int m = 0; m <= MOVES; m++) {
+        while (world.flooding) {
+          world.animateFlood();
+        }
+        cells += world.tilesTouched;
+        world.flood((world.floodColor + 1) % NUM_COLORS);
+      }
+      best = Math.min(best, System.nanoTime() - start);
+    }
+    return new long[] {best, cells};
+  }
+}
+
+// The timings of one benchmark on one board size and color count
+class Measurement {
+  static final String HEADER = String.format("%-16s %5s %2s %8s %12s %10s %10s %10s %10s %10s %12s",
+      "benchmark", "size", "c", "ops", "ops/s", "p50 us", "p90 us", "p99 us", "p99.9 us",
+      "max us", "alloc B/op");
+
+  String name;
+  int size;
+  int numColors;
+  // the time of every operation, in samples[0, ops)
+  long[] samples = new long[1024];
+  int ops;
+  long totalNanos;
+  long totalBytes;
+
+  Measurement(String name, int size, int numColors) {
+    this.name = name;
+    this.size = size;
+    this.numColors = numColors;
+  }
+
+  // EFFECT: records one operation
+  void add(long nanos, long bytes) {
+    if (this.ops == this.samples.length) {
+      this.samples = Arrays.copyOf(this.samples, this.ops * 2);
+    }
+    this.samples[this.ops] = nanos;
+    this.ops++;
+    this.totalNanos += nanos;
+    this.totalBytes += bytes;
+  }
+
+  // operations per second of measured time
+  double throughput() {
+    return this.ops * 1e9 / this.totalNanos;
+  }
+
+  // the time, in nanoseconds, that the given fraction of operations finished within
+  long percentile(double p) {
+    long[] sorted = Arrays.copyOf(this.samples, this.ops);
+    Arrays.sort(sorted);
+    int rank = (int) Math.ceil(p * this.ops);
+    return sorted[Math.max(0, Math.min(this.ops, rank) - 1)];
+  }
+
+  // bytes allocated per operation
+  long bytesPerOp() {
+    return this.totalBytes / this.ops;
+  }
+
+  public String toString() {
+    return String.format("%-16s %5d %2d %8d %12.1f %10.1f %10.1f %10.1f %10.1f %10.1f %12d",
+        this.name, this.size, this.numColors, this.ops, this.throughput(),
+        this.percentile(0.5) / 1e3, this.percentile(0.9) / 1e3, this.percentile(0.99) / 1e3,
+        this.percentile(0.999) / 1e3, this.percentile(1.0) / 1e3, this.bytesPerOp());
+  }
+}
+
+// One operation to time on boards of a given size and color count
+interface IBenchmark {
+  // the name the harness is run with
+  String name();
+
+  // EFFECT: builds the state for the given board size and color count; not timed
+  void setUp(int size, int numColors, long seed);
+
+  // EFFECT: gets ready for the next run(); not timed
+  void prepare();
+
+  // runs one operation, returning a value that depends on its work
+  long run();
+}
+
+// Builds the linked Cell board of a new game
+class InitializeBoardBenchmark implements IBenchmark {
+  FloodItWorld world;
+  int numColors;
+
+  public String name() {
+    return "initializeBoard";
+  }
+
+  public void setUp(int size, int numColors, long seed) {
+    this.world = new FloodItWorld(numColors, size, size, new Random(seed), true);
+    this.numColors = numColors;
+  }
+
+  public void prepare() {
+    // every board is built from scratch
+  }
+
+  public long run() {
+    return this.world.initializeBoard(this.numColors).size();
+  }
+}
+
+// One move: flood with the next color, then animate until the flood drains.
+// The board starts over once it is fully flooded
+class FloodCycleBenchmark implements IBenchmark {
+  FloodItWorld world;
+  int numColors;
+
+  public String name() {
+    return "flood";
+  }
+
+  public void setUp(int size, int numColors, long seed) {
+    this.world = new FloodItWorld(numColors, size, size, new Random(seed), true);
+    this.numColors = numColors;
+    this.drain();
+  }
+
+  public void prepare() {
+    if (this.world.tilesTouched == this.world.grid.size()) {
+      this.world.onKeyEvent("r");
+      this.drain();
+    }
+  }
+
+  public long run() {
+    this.world.flood((this.world.floodColor + 1) % this.numColors);
+    this.drain();
+    return this.world.tilesTouched;
+  }
+
+  // EFFECT: animates until the current flood is done
+  void drain() {
+    while (this.world.flooding) {
+      this.world.animateFlood();
+    }
+  }
+}
+
+// A game of SCRIPT_MOVES moves on a fresh board, with the colors drawn from a
+// fixed seed so every run plays the same script
+class ScriptedGameBenchmark implements IBenchmark {
+  static final int SCRIPT_MOVES = 32;
+
+  int size;
+  int numColors;
+  long seed;
+  int[] script;
+  FloodItWorld world;
+
+  public String name() {
+    return "game";
+  }
+
+  public void setUp(int size, int numColors, long seed) {
+    this.size = size;
+    this.numColors = numColors;
+    this.seed = seed;
+    this.script = new int[SCRIPT_MOVES];
+    Random moves = new Random(seed + 1);
+    for (int i = 0; i < SCRIPT_MOVES; i++) {
+      this.script[i] = moves.nextInt(numColors);
+    }
+  }
+
+  public void prepare() {
+    this.world = new FloodItWorld(this.numColors, this.size, this.size,
+        new Random(this.seed), true);
+  }
+
+  public long run() {
+    for (int color : this.script) {
+      while (this.world.flooding) {
+        this.world.onTick();
+      }
+      this.world.flood(color);
+    }
+    while (this.world.flooding) {
+      this.world.onTick();
+    }
+    return this.world.tilesTouched;
+  }
+}
+
+// Draws a frame of a game in progress. A steady frame follows one tick of flood
+// animation, so only the cells that tick recolored are drawn again; a full frame
+// is drawn from scratch, as after a pan or an engine move
+class MakeSceneBenchmark implements IBenchmark {
+  String name;
+  boolean full;
+  FloodItWorld world;
+  int numColors;
+
+  MakeSceneBenchmark(String name, boolean full) {
+    this.name = name;
+    this.full = full;
+  }
+
+  public String name() {
+    return this.name;
+  }
+
+  public void setUp(int size, int numColors, long seed) {
+    this.world = new FloodItWorld(numColors, size, size, new Random(seed), true);
+    this.numColors = numColors;
+    while (this.world.flooding) {
+      this.world.animateFlood();
+    }
+    this.world.makeScene();
+  }
+
+  public void prepare() {
+    if (this.full) {
+      this.world.renderer.invalidate();
+      return;
+    }
+    if (!this.world.flooding && this.world.tilesTouched == this.world.grid.size()) {
+      this.world.onKeyEvent("r");
+      while (this.world.flooding) {
+        this.world.animateFlood();
+      }
+      this.world.makeScene();
+    }
+    if (!this.world.flooding) {
+      this.world.flood((this.world.floodColor + 1) % this.numColors);
+    }
+    this.world.animation.step(this.world);
+  }
+
+  public long run() {
+    return this.world.makeScene() == null ? 0 : 1;
+  }
+}
+
+// One move that floods most of a board at once: the board is mostly one color
+// with the rest of another, and only the top-left cell has a third. The rest of the
+// top row has the first color, so the move reaches the big area of it. Runs on
+// any flood engine
+class BigFloodBenchmark implements IBenchmark {
+  String name;
+  PackedBoard template;
+  PackedBoard board;
+  IFloodEngine engine;
+
+  BigFloodBenchmark(String name, IFloodEngine engine) {
+    this.name = name;
+    this.engine = engine;
+  }
+
+  public String name() {
+    return this.name;
+  }
+
+  public void setUp(int size, int numColors, long seed) {
+    this.template = new PackedBoard(size, size);
+    Random rand = new Random(seed);
+    for (int i = size; i < this.template.size(); i++) {
+      this.template.setColor(i, rand.nextInt(10) < 7 ? 0 : 1);
+    }
+    this.template.setColor(0, 2);
+    this.template.makeFlooded(0);
+  }
+
+  public void prepare() {
+    this.board = new PackedBoard(this.template.width, this.template.height);
+    System.arraycopy(this.template.colors, 0, this.board.colors, 0, this.board.size());
+    this.board.makeFlooded(0);
+    this.engine.start(this.board);
+  }
+
+  public long run() {
+    return this.engine.flood(0);
+  }
+}
@@ -4,6 +4,7 @@ import java.util.Arrays;
 import java.util.Hashtable;
 import java.util.Deque;
 import java.util.LinkedList;
+import java.util.concurrent.ForkJoinPool;
 import tester.*;
 import javalib.impworld.*;
 import java.awt.Color;
@@ -85,11 +86,19 @@ class Cell implements INode {
   INode top;
   INode right;
   INode bottom;
+  // the width of the board this cell is on, which makes hashCode unique
+  int rowWidth;
 
-  // constructor for a cell
+  // constructor for a cell on a board of the default size
   Cell(int x, int y, Color color, boolean flooded) {
+    this(x, y, FloodItWorld.DEFAULT_BOARD_SIZE, color, flooded);
+  }
+
+  // constructor for a cell on a board with the given width
+  Cell(int x, int y, int rowWidth, Color color, boolean flooded) {
     this.x = x;
     this.y = y;
+    this.rowWidth = rowWidth;
     this.color = color;
     this.flooded = flooded;
     this.left = null;
@@ -134,10 +143,11 @@ class Cell implements INode {
     ht.put(this.hashCode(), this);
   }
 
-  // unique hashcode for each cell during a game
+  // unique hashcode for each cell during a game, its index on the board
+  // (boards are limited to PackedBoard.MAX_CELLS cells, so this cannot overflow)
   // hashmap used for extra speed/credit
   public int hashCode() {
-    return this.x + this.y * FloodItWorld.BOARD_SIZE;
+    return this.x + this.y * this.rowWidth;
   }
 
   // override equals to use hash
@@ -232,7 +242,7 @@ class ExamplesINode {
   // tests the overridden hashcode function for cells
   boolean testHashCode(Tester t) {
     return t.checkExpect(testCell1.hashCode(), 0)
-        && t.checkExpect(testCell2.hashCode(), 8 + 4 * FloodItWorld.BOARD_SIZE); 
+        && t.checkExpect(testCell2.hashCode(), 8 + 4 * FloodItWorld.DEFAULT_BOARD_SIZE);
   }
 
   boolean testAddToHash(Tester t) {
@@ -260,29 +270,84 @@ class ExamplesINode {
 
 
 class FloodItWorld extends World {
-  // All the cells of the game
+  // All the cells of the game, when using the linked Cell representation
+  // (null when the game runs on a compact board)
   ArrayList<Cell> board;
 
+  // the board the game is played on; flooding and drawing only go through this
+  IBoard grid;
+
+  // whether new boards use the packed representation instead of linked Cells
+  boolean compact;
+
+  // floods whole moves at once instead of animating the waterfall, when not null.
+  // Flooded cells are then drawn in currentColor, whatever the board stores for them
+  IFloodEngine engine;
 
-  // a deque used to queue the flooded elements
+
+  // a deque used to queue the flooded elements, by board index
   // I assume using the inbuilt deque is acceptable
   // given that we already made one in assignment 8
   // Deque is an IDeque and LinkedList is an IList
-  Deque<Cell> waterfall = new LinkedList<Cell>();
-
-  // hashtable to store previously visited nodes 
-  // with quicker lookup times than an arraylist
-  Hashtable<Integer, Cell> visited = new Hashtable<Integer, Cell>();
-
-  // hashtable to store nodes in the queue that have not yet been visited
-  // makes it quicker
-  Hashtable<Integer, Cell> queue = new Hashtable<Integer, Cell>();
+  Deque<Integer> waterfall = new LinkedList<Integer>();
+
+  // how much of a flood each tick animates; one cell per tick unless replaced,
+  // e.g. by a BudgetedAnimation for large boards or an InstantAnimation
+  IFloodAnimation animation = new CellAnimation();
+
+  // draws the scene, keeping it between frames and only redrawing what changed
+  SceneRenderer renderer = new SceneRenderer();
+  // also told about every cell shown in a new color, when not null
+  ICellListener listener;
+  // records every game played, when not null
+  MoveLog log;
+  // the moves of this game that can be undone, when not flooded by an engine
+  MoveHistory history = new MoveHistory(MoveHistory.DEFAULT_CAPACITY);
+  // what the move being animated changed so far, or null between moves
+  MoveDelta recording;
+  // ranks every game won against the games won on boards of the same size and
+  // colors, when not null; bestTime is then the best time on it
+  Leaderboard leaderboard;
+  // knows how many cells each color would flood next, when hints are shown
+  HintEngine hints;
+  // times ticks, moves and frames and counts the cells each move visits, when not null
+  GameMetrics metrics;
+  // the time spent animating the current move, while measured
+  long floodNanos;
+
+  // marks which cells were queued or visited during the current flood, by board index.
+  // A cell is queued in this pass when its mark is 2 * epoch and visited when it is
+  // 2 * epoch + 1, so starting a new pass is just epoch++ with nothing to clear
+  int[] marks;
+  int epoch = 1;
+  // how many cells were visited and queued during the current flood
+  int visitedCount;
+  int queuedCount;
 
   // game constants
-  static final int BOARD_SIZE = 12;      // must be 4 < X < 50
+  static final int DEFAULT_BOARD_SIZE = 12;
+  // the dimensions of this game's board, in cells; anything up to
+  // PackedBoard.MAX_CELLS cells. A compact board costs about 5 bytes per cell
+  // (color, flooded bit and flood marks), a Cell board about 60
+  int width;
+  int height;
   int numberOfColors;
   int moveLimit;
   Random rand;
+  // when not null, sets moveLimit for every new board from the moves it needs.
+  // Calibrated boards are drawn from new Random(seed), with seed taken from rand
+  DifficultyCalibrator calibrator;
+  // when not null, makes every new board from a seed taken from rand, in parallel
+  BoardGenerator generator;
+  // when positive, every new board is a ChunkedBoard from a seed taken from rand,
+  // keeping at most this many chunks in memory
+  int cachedChunks;
+  // the board, when it is a ChunkedBoard. It keeps the flood marks instead of marks,
+  // so no array as big as the board is made
+  ChunkedBoard chunks;
+  // the puzzle played, which every new board starts again, or null
+  Puzzle puzzle;
+  long seed;
   ArrayList<Color> colors = new ArrayList<Color>(Arrays.asList(Color.red, Color.green,
       Color.yellow, Color.blue, Color.cyan, Color.magenta));
 
@@ -292,8 +357,13 @@ class FloodItWorld extends World {
   boolean flooding;
   int floodStage;
   Color currentColor;
+  // the palette index of currentColor, which is what the board stores
+  int floodColor;
   int tilesTouched;
+  // the playing time in milliseconds, read from stopwatch on every tick,
+  // so it does not depend on the tick rate
   int timer;
+  Stopwatch stopwatch = new Stopwatch(new SystemClock());
   boolean wonGame = false;
   boolean lostGame = false;
   int bestTime = -1;
@@ -305,45 +375,209 @@ class FloodItWorld extends World {
 
   // constructor given random
   FloodItWorld(int numColors, Random rand) {
+    this(numColors, DEFAULT_BOARD_SIZE, DEFAULT_BOARD_SIZE, rand, false);
+  }
+
+  // constructor given random, on a compact board when compact is true
+  FloodItWorld(int numColors, Random rand, boolean compact) {
+    this(numColors, DEFAULT_BOARD_SIZE, DEFAULT_BOARD_SIZE, rand, compact);
+  }
+
+  // constructor given just board restraints
+  FloodItWorld(int numColors) {
+    this(numColors, new Random());
+  }
+
+  // constructor given the board dimensions, on a compact board when compact is true
+  FloodItWorld(int numColors, int width, int height, Random rand, boolean compact) {
+    this(numColors, width, height, rand, compact, null);
+  }
+
+  // constructor given the board dimensions, whose move limits come from the given
+  // calibrator instead of moveLimitFor when it is not null
+  FloodItWorld(int numColors, int width, int height, Random rand, boolean compact,
+      DifficultyCalibrator calibrator) {
     this(rand);
+    PackedBoard.checkedSize(width, height);
+    this.width = width;
+    this.height = height;
+    this.compact = compact;
+    this.calibrator = calibrator;
     this.movesMade = 0;
     this.floodStage = 0;
     this.timer = 0;
     this.tilesTouched = 0;
     this.numberOfColors = numColors;
-    this.moveLimit = (int) (Math.floor((50 * BOARD_SIZE * numColors / (28 * 6)))) + 3;
-    this.board = initializeBoard(numColors);
-    this.currentColor = this.board.get(0).color;
-    this.waterfall.add(this.board.get(0));
-    this.flooding = true;
+    this.moveLimit = moveLimitFor(width, height, numColors);
+    this.newBoard();
   }
 
-  // constructor given just board restraints
-  FloodItWorld(int numColors) {
-    this(new Random());
+  // constructor for a compact board of the given dimensions flooded by the given engine
+  FloodItWorld(int numColors, int width, int height, Random rand, IFloodEngine engine) {
+    this(rand);
+    PackedBoard.checkedSize(width, height);
+    this.width = width;
+    this.height = height;
+    this.compact = true;
+    this.engine = engine;
     this.movesMade = 0;
     this.floodStage = 0;
     this.timer = 0;
     this.tilesTouched = 0;
-    this.moveLimit = (int) (Math.floor((50 * BOARD_SIZE * numColors / (28 * 6)))) + 3;
     this.numberOfColors = numColors;
-    this.board = initializeBoard(numColors);
-    this.currentColor = this.board.get(0).color;
-    this.waterfall.add(this.board.get(0));
+    this.moveLimit = moveLimitFor(width, height, numColors);
+    this.newBoard();
+  }
+
+  // constructor for compact boards of the given dimensions made by the given generator,
+  // each from a seed drawn from rand
+  FloodItWorld(int numColors, int width, int height, Random rand, BoardGenerator generator) {
+    this(rand);
+    PackedBoard.checkedSize(width, height);
+    this.width = width;
+    this.height = height;
+    this.compact = true;
+    this.generator = generator;
+    this.movesMade = 0;
+    this.floodStage = 0;
+    this.timer = 0;
+    this.tilesTouched = 0;
+    this.numberOfColors = numColors;
+    this.moveLimit = moveLimitFor(width, height, numColors);
+    this.newBoard();
+  }
+
+  // constructor for ChunkedBoards of the given dimensions, each from a seed drawn from
+  // rand and keeping at most cachedChunks chunks in memory. Only a viewport of the
+  // board is drawn, which the arrow keys move
+  FloodItWorld(int numColors, int width, int height, Random rand, int cachedChunks) {
+    this(rand);
+    PackedBoard.checkedSize(width, height);
+    this.width = width;
+    this.height = height;
+    this.compact = true;
+    this.cachedChunks = cachedChunks;
+    this.renderer.view = new Viewport(0, 0, Math.min(width, Viewport.DEFAULT_CELLS),
+        Math.min(height, Viewport.DEFAULT_CELLS));
+    this.movesMade = 0;
+    this.floodStage = 0;
+    this.timer = 0;
+    this.tilesTouched = 0;
+    this.numberOfColors = numColors;
+    this.moveLimit = moveLimitFor(width, height, numColors);
+    this.newBoard();
+  }
+
+  // constructor given an existing compact board, whose top-left cell is flooded
+  FloodItWorld(IBoard grid, int numColors, Random rand) {
+    this(rand);
+    this.width = grid.width();
+    this.height = grid.height();
+    this.compact = true;
+    this.movesMade = 0;
+    this.floodStage = 0;
+    this.timer = 0;
+    this.tilesTouched = 0;
+    this.numberOfColors = numColors;
+    this.moveLimit = moveLimitFor(this.width, this.height, numColors);
+    this.grid = grid;
+    this.marks = new int[grid.size()];
+    this.floodColor = grid.colorAt(0);
+    this.currentColor = this.colors.get(this.floodColor);
+    this.waterfall.add(0);
+    this.flooding = true;
+  }
+
+  // the number of moves allowed on a width x height board with numColors colors.
+  // For square boards this is the original 50 * size * colors / (28 * 6) + 3,
+  // using the average side for rectangles; computed in longs so huge boards
+  // cannot overflow
+  static int moveLimitFor(int width, int height, int numColors) {
+    return (int) Math.min(Integer.MAX_VALUE - 3,
+        50L * ((long) width + height) * numColors / (2 * 28 * 6)) + 3;
+  }
+
+  // builds a fresh board in this game's representation
+  // EFFECT: replaces the board and starts flooding from the top-left cell
+  void newBoard() {
+    Random source = this.rand;
+    if (this.calibrator != null || this.generator != null || this.cachedChunks > 0) {
+      this.seed = this.rand.nextLong();
+      source = new Random(this.seed);
+    }
+    if (this.puzzle != null) {
+      this.board = null;
+      this.grid = this.puzzle.board.copy();
+      this.moveLimit = this.puzzle.moveLimit > 0 ? this.puzzle.moveLimit
+          : moveLimitFor(this.width, this.height, this.numberOfColors);
+    }
+    else if (this.cachedChunks > 0) {
+      if (this.chunks != null) {
+        this.chunks.close();
+      }
+      this.board = null;
+      this.chunks = new ChunkedBoard(this.width, this.height, this.numberOfColors, this.seed,
+          this.cachedChunks);
+      this.grid = this.chunks;
+    }
+    else if (this.generator != null) {
+      this.board = null;
+      this.grid = this.generator.generate(this.width, this.height, this.numberOfColors,
+          this.seed);
+    }
+    else if (this.compact) {
+      this.board = null;
+      this.grid = PackedBoard.random(this.width, this.height, this.numberOfColors, source);
+    }
+    else {
+      this.board = initializeBoard(this.numberOfColors, source);
+      this.grid = new CellBoard(this.board, this.colors, this.width, this.height);
+    }
+    if (this.calibrator != null) {
+      this.moveLimit = this.calibrator.moveLimit(this.seed, this.grid, this.numberOfColors);
+    }
+    if (this.log != null) {
+      this.log.newGame(this);
+    }
+    this.floodColor = this.grid.colorAt(0);
+    this.currentColor = this.colors.get(this.floodColor);
+    this.boardChanged();
+    this.history.clear();
+    this.recording = null;
+    if (this.hints != null) {
+      this.hints.start(this.grid, this.floodColor);
+    }
+    if (this.engine != null) {
+      this.engine.start(this.grid);
+      this.tilesTouched = this.engine.floodedCount();
+      this.flooding = false;
+      return;
+    }
+    if (this.chunks == null
+        && (this.marks == null || this.marks.length != this.grid.size())) {
+      this.marks = new int[this.grid.size()];
+      this.epoch = 1;
+    }
+    this.waterfall.add(0);
     this.flooding = true;
   }
 
   // creates the initial board
   ArrayList<Cell> initializeBoard(int numColors) {
+    return this.initializeBoard(numColors, this.rand);
+  }
+
+  // creates the initial board, drawing its colors from the given Random
+  ArrayList<Cell> initializeBoard(int numColors, Random rand) {
     ArrayList<Cell> tempBoard = new ArrayList<Cell>();
 
-    for (int i = 0; i < BOARD_SIZE; i++) {
-      for (int j = 0; j < BOARD_SIZE; j++) {
+    for (int i = 0; i < this.height; i++) {
+      for (int j = 0; j < this.width; j++) {
         if (i == 0 && j == 0) {
-          tempBoard.add(new Cell(0, 0, colors.get(rand.nextInt(numColors)), true));
+          tempBoard.add(new Cell(0, 0, this.width, colors.get(rand.nextInt(numColors)), true));
         }
         else {
-          tempBoard.add(new Cell(j, i, colors.get(rand.nextInt(numColors)), false));
+          tempBoard.add(new Cell(j, i, this.width, colors.get(rand.nextInt(numColors)), false));
         }
       }
     }
@@ -351,25 +585,25 @@ class FloodItWorld extends World {
     // link the cells to each other in 2-D Grid
     for (Cell c:tempBoard) {
       if (c.x != 0) {
-        c.left = tempBoard.get(c.y * BOARD_SIZE + c.x - 1);
+        c.left = tempBoard.get(c.y * this.width + c.x - 1);
       }
       else {
         c.left = new Leaf();
       }
-      if (c.x != BOARD_SIZE - 1) {
-        c.right = tempBoard.get(c.y * BOARD_SIZE + c.x + 1);
+      if (c.x != this.width - 1) {
+        c.right = tempBoard.get(c.y * this.width + c.x + 1);
       }
       else {
         c.right = new Leaf();
       }
       if (c.y != 0) {
-        c.top = tempBoard.get((c.y * BOARD_SIZE) - BOARD_SIZE + c.x);
+        c.top = tempBoard.get((c.y * this.width) - this.width + c.x);
       }
       else {
         c.top = new Leaf();
       }
-      if (c.y != BOARD_SIZE - 1) {
-        c.bottom = tempBoard.get((c.y * BOARD_SIZE) + BOARD_SIZE + c.x);
+      if (c.y != this.height - 1) {
+        c.bottom = tempBoard.get((c.y * this.width) + this.width + c.x);
       }
       else {
         c.bottom = new Leaf();
@@ -384,40 +618,214 @@ class FloodItWorld extends World {
     if (k.equalsIgnoreCase("r")) {
       this.movesMade = 0;
       this.timer = 0;
+      this.stopwatch.reset();
       this.tilesTouched = 0;
       this.wonGame = false;
       this.lostGame = false;
-      this.board = initializeBoard(numberOfColors);
-      this.currentColor = this.board.get(0).color;
-      this.waterfall.add(this.board.get(0));
-      this.flooding = true;
+      this.newBoard();
+    }
+    else if (k.equals("z")) {
+      this.undo();
+    }
+    else if (k.equals("y")) {
+      this.redo();
+    }
+    else if (k.equals("h")) {
+      this.showHints(this.hints == null);
+    }
+    else if (this.renderer.raster != null) {
+      this.renderer.raster.onKey(k);
+    }
+    else if (this.renderer.view != null && this.renderer.view.pan(k, this.width, this.height)) {
+      this.renderer.invalidate();
     }
   }
 
   // records a mouse click and changes the board accordingly
   // EFFECTS: may flood board if clicked accordingly
   public void onMouseClicked(Posn p) {
+    // a raster maps the click through its zoom and view, to the color it shows there
+    if (this.renderer.raster != null) {
+      int color = this.renderer.raster.colorAt(this, p.x - 35, p.y - 35);
+      if (color != -1 && !this.flooding && !this.wonGame && !this.lostGame) {
+        this.flood(color);
+      }
+      return;
+    }
     // if the click is within the playable region (the cells)
-    if (p.x > 35 && p.x < 30 * BOARD_SIZE + 35 
-        && p.y > 35 && p.y < 30 * BOARD_SIZE + 35 && !this.flooding 
+    // only the viewport's cells are drawn, when there is one
+    Viewport view = this.renderer.view;
+    int columns = view == null ? this.width : view.columns;
+    int rows = view == null ? this.height : view.rows;
+    if (p.x > 35 && p.x < 30L * columns + 35 
+        && p.y > 35 && p.y < 30L * rows + 35 && !this.flooding 
         && (!wonGame && !lostGame)) {
-      int indexCellClicked = (p.x - 35) / 30 + (p.y - 35) / 30 * BOARD_SIZE;
-      this.flood(this.board.get(indexCellClicked));
+      int x = (p.x - 35) / 30 + (view == null ? 0 : view.x);
+      int y = (p.y - 35) / 30 + (view == null ? 0 : view.y);
+      int indexCellClicked = x + y * this.width;
+      this.flood(this.displayColor(indexCellClicked));
     }
   }
 
-  // floods the board with the given color
+  // floods the board with the given cell's color
   // EFFECT: Changes the flooded state of affected cells,
   // adds one to movesMade if valid move is made
   void flood(Cell c) {
-    if (this.currentColor != c.color) {
-      this.currentColor = c.color;
-      this.board.get(0).color = c.color;
+    this.flood(this.colors.indexOf(c.color));
+  }
+
+  // floods the board with the given palette color
+  // EFFECT: Changes the flooded state of affected cells,
+  // adds one to movesMade if valid move is made
+  void flood(int color) {
+    if (this.floodColor != color && this.engine != null) {
+      this.floodColor = color;
+      this.currentColor = this.colors.get(color);
+      long start = this.metrics == null ? 0 : System.nanoTime();
+      this.engine.flood(color);
+      if (this.metrics != null) {
+        this.metrics.move(System.nanoTime() - start);
+      }
+      this.tilesTouched = this.engine.floodedCount();
+      if (this.hints != null) {
+        this.hints.moveMade(this.grid, color);
+      }
+      this.boardChanged();
+      this.moveMade(color);
+    }
+    else if (this.floodColor != color) {
+      this.recording = new MoveDelta(color, this.floodColor);
+      this.floodNanos = 0;
+      if (this.hints != null) {
+        this.hints.colorChosen(color);
+      }
+      this.floodColor = color;
+      this.currentColor = this.colors.get(color);
+      this.grid.setColor(0, color);
+      this.cellChanged(0);
       this.flooding = true;
-      this.waterfall.add(this.board.get(0));
-      this.queue.put(this.waterfall.getFirst().hashCode(), this.waterfall.getFirst());
-      movesMade++;
+      this.waterfall.add(0);
+      this.markQueued(0);
+      this.moveMade(color);
+    }
+  }
+
+  // counts a move of the given color
+  // EFFECT: adds one to movesMade and records the move, if games are recorded
+  void moveMade(int color) {
+    movesMade++;
+    if (this.log != null) {
+      this.log.moveMade(color);
+    }
+  }
+
+  // takes back the latest move still played, unless a flood is under way or the
+  // game is over, since a finished game has already been ranked and logged.
+  // Only the cells the move changed are visited; returns whether a move was undone
+  // EFFECT: restores the board, color and moves from before the move
+  boolean undo() {
+    if (this.flooding || this.engine != null || this.wonGame || this.lostGame) {
+      return false;
+    }
+    MoveDelta delta = this.history.undo();
+    if (delta == null) {
+      return false;
+    }
+    delta.setFlooded(this.grid, false);
+    this.floodColor = delta.previousColor;
+    this.currentColor = this.colors.get(delta.previousColor);
+    this.tilesTouched = this.recolorFlooded(delta.previousColor);
+    if (this.hints != null) {
+      this.hints.moveUndone(delta);
+    }
+    this.movesMade--;
+    if (this.log != null) {
+      this.log.moveUndone();
+    }
+    return true;
+  }
+
+  // plays again the earliest move undone, unless a flood is under way or the game
+  // is over. Only the cells the move changes are visited; returns whether a move
+  // was redone
+  // EFFECT: changes the board, color and moves as the move did
+  boolean redo() {
+    if (this.flooding || this.engine != null || this.wonGame || this.lostGame) {
+      return false;
+    }
+    MoveDelta delta = this.history.redo();
+    if (delta == null) {
+      return false;
+    }
+    delta.setFlooded(this.grid, true);
+    this.floodColor = delta.color;
+    this.currentColor = this.colors.get(delta.color);
+    this.tilesTouched = this.recolorFlooded(delta.color);
+    if (this.hints != null) {
+      this.hints.moveMade(this.grid, delta.color);
+    }
+    this.moveMade(delta.color);
+    return true;
+  }
+
+  // gives every flooded cell the given color, walking the flooded region from the
+  // top-left cell; returns the number of flooded cells
+  // EFFECT: recolors the flooded cells, using the waterfall and marks for the walk
+  int recolorFlooded(int color) {
+    int count = 0;
+    int width = this.grid.width();
+    this.waterfall.add(0);
+    this.markQueued(0);
+    while (!this.waterfall.isEmpty()) {
+      int current = this.waterfall.removeFirst();
+      this.grid.setColor(current, color);
+      this.cellChanged(current);
+      count++;
+      int x = current % width;
+      int y = current / width;
+      if (x != 0) {
+        this.enqueue(current - 1);
+      }
+      if (y != 0) {
+        this.enqueue(current - width);
+      }
+      if (x != width - 1) {
+        this.enqueue(current + 1);
+      }
+      if (y != this.grid.height() - 1) {
+        this.enqueue(current + width);
+      }
     }
+    this.endPass();
+    return count;
+  }
+
+  // ranks every game won from now on in the given leaderboard
+  // EFFECT: sets the leaderboard and shows its best time for this game's board class
+  void useLeaderboard(Leaderboard leaderboard) {
+    this.leaderboard = leaderboard;
+    int best = leaderboard.bestMillis(this.width, this.height, this.numberOfColors);
+    this.bestTime = best == -1 ? -1 : best / 1000;
+  }
+
+  // records this game and every game after it in the given log, starting with
+  // the current one, which must not have had a move yet
+  // EFFECT: sets the log
+  void recordTo(MoveLog log) {
+    this.log = log;
+    log.newGame(this);
+  }
+
+  // shows the color that would flood the most cells, or stops showing it
+  // EFFECT: starts following the game with a hint engine, or drops it
+  void showHints(boolean show) {
+    this.hints = show ? new HintEngine(this.grid, this.floodColor) : null;
+  }
+
+  // measures this game from now on with the given metrics
+  // EFFECT: sets the metrics
+  void measureWith(GameMetrics metrics) {
+    this.metrics = metrics;
   }
 
 
@@ -427,80 +835,199 @@ class FloodItWorld extends World {
   // EFFECT: Create the waterfall-like pattern for display
   void animateFlood() {
     // if the list is non-empty and the element is flooded
-    if (this.waterfall.size() > 0 && !this.visited.contains(this.waterfall.getFirst())) {
-
-      Cell currentCell = this.waterfall.getFirst();
-      INode left = currentCell.left;
-      INode top = currentCell.top;
-      INode right = currentCell.right;
-      INode bottom = currentCell.bottom;
-
-      if (left.sameColor(this.currentColor)) {
-        left.makeFlooded();
+    if (this.waterfall.size() > 0 && !this.isVisited(this.waterfall.getFirst())) {
+
+      int current = this.waterfall.getFirst();
+      int width = this.grid.width();
+      int x = current % width;
+      int y = current / width;
+      boolean hasLeft = x != 0;
+      boolean hasTop = y != 0;
+      boolean hasRight = x != width - 1;
+      boolean hasBottom = y != this.grid.height() - 1;
+
+      if (hasLeft) {
+        this.absorb(current - 1);
       }
-      if (top.sameColor(this.currentColor)) {
-        top.makeFlooded();
+      if (hasTop) {
+        this.absorb(current - width);
       }
-      if (right.sameColor(this.currentColor)) {
-        right.makeFlooded();
+      if (hasRight) {
+        this.absorb(current + 1);
       }
-      if (bottom.sameColor(this.currentColor)) {
-        bottom.makeFlooded();
+      if (hasBottom) {
+        this.absorb(current + width);
       }
 
       // makes this cell the new color
-      currentCell.color = this.currentColor;
+      this.grid.setColor(current, this.floodColor);
+      this.cellChanged(current);
 
       // adds new cells to the queue
-      if (left.isFlooded() 
-          && !this.queue.contains(left) 
-          && !this.visited.contains(left)) {
-        left.addToDeque(this.waterfall);
-        left.addToHash(this.queue);
+      if (hasLeft) {
+        this.enqueue(current - 1);
       }
-      if (top.isFlooded() 
-          && !this.queue.contains(top) 
-          && !this.visited.contains(top)) {
-        top.addToDeque(this.waterfall);
-        top.addToHash(this.queue);
+      if (hasTop) {
+        this.enqueue(current - width);
       }
-      if (right.isFlooded() 
-          && !this.queue.contains(right) 
-          && !this.visited.contains(right)) {
-        right.addToDeque(this.waterfall);
-        right.addToHash(this.queue);
+      if (hasRight) {
+        this.enqueue(current + 1);
       }
-      if (bottom.isFlooded() 
-          && !this.queue.contains(bottom)
-          && !this.visited.contains(bottom)) {
-        bottom.addToDeque(this.waterfall);
-        bottom.addToHash(this.queue);
+      if (hasBottom) {
+        this.enqueue(current + width);
       }
     }
 
     if (this.waterfall.size() == 0) {
       this.flooding = false;
-      this.tilesTouched = this.visited.size();
-      this.visited.clear();
-      this.queue.clear();
+      this.tilesTouched = this.visitedCount;
+      if (this.metrics != null && this.recording != null) {
+        this.metrics.move(this.floodNanos, this.visitedCount, this.queuedCount);
+      }
+      this.endPass();
+      if (this.recording != null) {
+        this.history.push(this.recording.seal());
+        this.recording = null;
+      }
     }
     else {
 
-      if (!this.visited.contains(this.waterfall.getFirst())) {
-        this.visited.put(this.waterfall.getFirst().hashCode(), this.waterfall.getFirst());
+      if (!this.isVisited(this.waterfall.getFirst())) {
+        this.markVisited(this.waterfall.getFirst());
       }
       this.waterfall.removeFirst();
     }
   }
 
+  // floods the cell at the given index if it has the flood color
+  // EFFECT: may make the cell at index flooded
+  void absorb(int index) {
+    if (this.grid.colorAt(index) == this.floodColor && !this.grid.isFlooded(index)) {
+      this.grid.makeFlooded(index);
+      if (this.recording != null) {
+        this.recording.absorb(index);
+      }
+      if (this.hints != null) {
+        this.hints.cellFlooded(index);
+      }
+    }
+  }
+
+  // queues the cell at the given index if it is flooded and has not been seen yet
+  // EFFECT: may add index to the waterfall and mark it as queued
+  void enqueue(int index) {
+    if (this.grid.isFlooded(index)
+        && this.markAt(index) < 2 * this.epoch) {
+      this.waterfall.addLast(index);
+      this.markQueued(index);
+    }
+  }
+
+  // was the cell at the given index visited during the current flood
+  boolean isVisited(int index) {
+    return this.markAt(index) == 2 * this.epoch + 1;
+  }
+
+  // the flood mark of the cell at the given index
+  int markAt(int index) {
+    return this.chunks == null ? this.marks[index] : this.chunks.markAt(index);
+  }
+
+  // EFFECT: sets the flood mark of the cell at the given index
+  void setMark(int index, int mark) {
+    if (this.chunks == null) {
+      this.marks[index] = mark;
+    }
+    else {
+      this.chunks.setMark(index, mark);
+    }
+  }
+
+  // EFFECT: marks the cell at the given index as queued during the current flood
+  void markQueued(int index) {
+    this.setMark(index, 2 * this.epoch);
+    this.queuedCount++;
+  }
+
+  // EFFECT: marks the cell at the given index as visited during the current flood
+  void markVisited(int index) {
+    this.setMark(index, 2 * this.epoch + 1);
+    this.visitedCount++;
+  }
+
+  // forgets every mark of the current flood
+  // EFFECT: advances the epoch, only clearing the marks when it would overflow
+  void endPass() {
+    this.visitedCount = 0;
+    this.queuedCount = 0;
+    this.epoch++;
+    if (this.epoch > Integer.MAX_VALUE / 2 - 1) {
+      if (this.chunks == null) {
+        Arrays.fill(this.marks, 0);
+      }
+      else {
+        this.chunks.clearMarks();
+      }
+      this.epoch = 1;
+    }
+  }
+
+  // EFFECT: draws the board from now on into a raster of the given size in pixels,
+  // each cell the given number of pixels across, which + and - zoom and the arrow
+  // keys pan
+  void drawRaster(int pixelWidth, int pixelHeight, int cellPixels) {
+    this.renderer.raster = new RasterRenderer(pixelWidth, pixelHeight, cellPixels);
+    this.renderer.invalidate();
+  }
+
+  // reports that the cell at the given index is shown in a new color
+  // EFFECT: tells the renderer and the listener, if there is one
+  void cellChanged(int index) {
+    this.renderer.cellChanged(index);
+    if (this.listener != null) {
+      this.listener.cellChanged(index);
+    }
+  }
+
+  // reports that any cell may be shown in a new color
+  // EFFECT: tells the renderer and the listener, if there is one
+  void boardChanged() {
+    this.renderer.invalidate();
+    if (this.listener != null) {
+      this.listener.boardChanged();
+    }
+  }
+
+  // the palette color the cell at the given index is shown in
+  int displayColor(int index) {
+    if (this.engine != null && this.grid.isFlooded(index)) {
+      return this.floodColor;
+    }
+    return this.grid.colorAt(index);
+  }
+
   // changes the flood over the tick rate
   public void onTick() {
+    long start = this.metrics == null ? 0 : System.nanoTime();
+    if (!this.wonGame && !this.lostGame) {
+      this.stopwatch.start();
+      this.timer = this.stopwatch.elapsedMillis();
+    }
 
-    if (this.flooding) {
-      this.animateFlood();
+    if (this.flooding && this.metrics != null) {
+      long stepStart = System.nanoTime();
+      this.animation.step(this);
+      this.floodNanos += System.nanoTime() - stepStart;
     }
-    else if (this.tilesTouched == BOARD_SIZE * BOARD_SIZE
+    else if (this.flooding) {
+      this.animation.step(this);
+    }
+    else if (this.tilesTouched == this.grid.size()
         && this.movesMade <= this.moveLimit) {
+      if (!this.wonGame && this.leaderboard != null) {
+        this.leaderboard.submit(this.width, this.height, this.numberOfColors, this.timer,
+            this.movesMade);
+      }
       this.wonGame = true;
       if (this.bestTime > this.timer / 1000 || this.bestTime == -1) {
         this.bestTime = this.timer / 1000;
@@ -510,35 +1037,28 @@ class FloodItWorld extends World {
       this.lostGame = true;
     }
 
-    if (!wonGame && !lostGame) {
-      timer += 1;
+    if (this.wonGame || this.lostGame) {
+      this.stopwatch.pause();
+      if (this.log != null) {
+        this.log.gameOver(this);
+      }
+    }
+    if (this.metrics != null) {
+      this.metrics.tick(System.nanoTime() - start, this.grid.size(), this.waterfall.size());
     }
   }
 
 
-  // draws the game
+  // draws the game, redrawing only the cells and HUD lines that changed
+  // since the last frame
   public WorldScene makeScene() {
-    WorldScene scene = new WorldScene(2000, 2000);
-    for (Cell c:this.board) {
-      scene.placeImageXY(c.draw(), c.x * 30 + 50, c.y * 30 + 50);
-    }
-    scene.placeImageXY(new TextImage("Moves made: " + movesMade + "/" + this.moveLimit,
-        22, Color.black),
-        (BOARD_SIZE * 30 + 100) / 2, BOARD_SIZE * 30 + 80);
-    scene.placeImageXY(new TextImage(timer / 1000 + "  Seconds Passed", 22, Color.black), 
-        (BOARD_SIZE * 30 + 100) / 2, BOARD_SIZE * 30 + 120);
-    if (wonGame) {
-      scene.placeImageXY(new TextImage("You win :)", 20, Color.green),
-          (BOARD_SIZE * 30 + 100) / 2, 20);
-    }
-    else if (lostGame) {
-      scene.placeImageXY(new TextImage("You lose :(", 20, Color.red),
-          (BOARD_SIZE * 30 + 100) / 2, 20);
-    }
-    if (bestTime > -1) {
-      scene.placeImageXY(new TextImage("Best Time(sec): " + this.bestTime, 19, Color.black),
-          (BOARD_SIZE * 30) + 115, (BOARD_SIZE * 30 + 100) / 2);
+    if (this.metrics == null) {
+      return this.renderer.render(this);
     }
+    long bytes = GameMetrics.allocatedBytes();
+    long start = System.nanoTime();
+    WorldScene scene = this.renderer.render(this);
+    this.metrics.frame(System.nanoTime() - start, GameMetrics.allocatedBytes() - bytes);
     return scene;
   }
 }
@@ -615,35 +1135,49 @@ class ExamplesFloodItWorld {
     boolean test2 = t.checkExpect(World1.lostGame, true); // loss when limit reached
     reset();
     World1.movesMade = World1.moveLimit;
-    World1.tilesTouched = FloodItWorld.BOARD_SIZE * FloodItWorld.BOARD_SIZE;
+    World1.tilesTouched = World1.grid.size();
     World1.flooding = false;
     World1.onTick();
     boolean test3 = t.checkExpect(World1.wonGame, true); // win is found at the limit
     reset();
+    FakeClock clock = new FakeClock();
+    World1.stopwatch = new Stopwatch(clock);
     boolean test4 = t.checkExpect(World1.timer, 0);
     World1.onTick();
+    clock.advanceMillis(1);
+    World1.onTick();
     boolean test5 = t.checkExpect(World1.timer, 1); // timer advances
+    clock.advanceMillis(1);
     World1.onTick();
-    boolean test6 = t.checkExpect(World1.timer, 2); // timer advances more
+    World1.onTick();
+    boolean test6 = t.checkExpect(World1.timer, 2); // follows the clock, not the ticks
     World1.wonGame = true;
+    clock.advanceMillis(5);
     World1.onTick();
     boolean test7 = t.checkExpect(World1.timer, 2); // timer stops ticking after game ends
     reset();
-    World1.timer = 2007;
-    World1.tilesTouched = FloodItWorld.BOARD_SIZE * FloodItWorld.BOARD_SIZE;
+    World1.stopwatch = new Stopwatch(clock);
+    World1.onTick();
+    clock.advanceMillis(2007);
+    World1.tilesTouched = World1.grid.size();
     World1.flooding = false;
     World1.onTick();
     boolean test8 = t.checkExpect(World1.bestTime, 2); // stores the score after a win
+    clock.advanceMillis(1000);
+    World1.onTick();
+    boolean test10 = t.checkExpect(World1.timer, 2007); // paused after the win
     World1.onKeyEvent("r");
-    World1.timer = 1504;
-    World1.tilesTouched = FloodItWorld.BOARD_SIZE * FloodItWorld.BOARD_SIZE;
+    boolean test11 = t.checkExpect(World1.timer, 0);
+    World1.onTick();
+    clock.advanceMillis(1504);
+    World1.tilesTouched = World1.grid.size();
     World1.flooding = false;
     World1.onTick();
     boolean test9 = t.checkExpect(World1.bestTime, 1); // faster speeds overwrite slower ones
     reset();
 
     return test1 && test2 && test3 && test4 
-        && test5 && test6 && test7 && test8 && test9;
+        && test5 && test6 && test7 && test8 && test9 && test10 && test11;
   }
 
 
@@ -662,9 +1196,11 @@ class ExamplesFloodItWorld {
     boolean test5 = t.checkExpect(World1.flooding, true);
     boolean test6 = t.checkExpect(World1.board.get(0).color, Color.red);
     boolean test7 = t.checkExpect(World1.waterfall.size(), 1);
-    boolean test8 = t.checkExpect(World1.waterfall.getFirst().color, World1.currentColor);
+    boolean test8 = t.checkExpect(World1.grid.colorAt(World1.waterfall.getFirst()),
+        World1.floodColor);
     World1.onTick();
-    boolean test9 = t.checkExpect(World1.waterfall.getFirst().color, World1.currentColor);
+    boolean test9 = t.checkExpect(World1.grid.colorAt(World1.waterfall.getFirst()),
+        World1.floodColor);
     while (World1.flooding) {
       World1.onTick();
     }
@@ -683,10 +1219,192 @@ class ExamplesFloodItWorld {
         && test9 && test10;
   }
 
+  // tests that a compact board plays exactly like the linked Cell board
+  boolean testCompactBoard(Tester t) {
+    FloodItWorld cells = new FloodItWorld(4, new Random(42));
+    FloodItWorld packed = new FloodItWorld(4, new Random(42), true);
+    boolean result = t.checkExpect(packed.board, null)
+        && t.checkExpect(packed.currentColor, cells.currentColor);
+    int[] moves = new int[] {1, 2, 3, 0, 1, 2, 3};
+    for (int m = 0; m <= moves.length; m++) {
+      while (cells.flooding || packed.flooding) {
+        cells.onTick();
+        packed.onTick();
+      }
+      for (int i = 0; i < cells.grid.size(); i++) {
+        result = result && cells.grid.colorAt(i) == packed.grid.colorAt(i)
+            && cells.grid.isFlooded(i) == packed.grid.isFlooded(i);
+      }
+      result = result && t.checkExpect(packed.tilesTouched, cells.tilesTouched);
+      if (m < moves.length) {
+        cells.flood(moves[m]);
+        packed.flood(moves[m]);
+      }
+    }
+    return t.checkExpect(result, true)
+        && t.checkExpect(packed.movesMade, cells.movesMade);
+  }
+
+  // tests that the queued/visited marks are reused between floods
+  boolean testFloodMarks(Tester t) {
+    reset();
+    while (World1.flooding) {
+      World1.onTick();
+    }
+    int firstEpoch = World1.epoch;
+    int[] marks = World1.marks;
+    boolean test1 = t.checkExpect(World1.visitedCount, 0);
+    boolean test2 = t.checkExpect(World1.isVisited(0), false);
+    World1.flood((World1.floodColor + 1) % 3);
+    World1.onTick();
+    boolean test3 = t.checkExpect(World1.isVisited(0), true);
+    while (World1.flooding) {
+      World1.onTick();
+    }
+    boolean test4 = t.checkExpect(World1.epoch, firstEpoch + 1);
+    boolean test5 = t.checkExpect(World1.marks == marks, true);
+    boolean test6 = t.checkExpect(World1.isVisited(0), false);
+    World1.epoch = Integer.MAX_VALUE / 2 - 1;
+    World1.endPass();
+    boolean test7 = t.checkExpect(World1.epoch, 1);
+    boolean test8 = t.checkExpect(World1.marks[0], 0);
+    reset();
+    return test1 && test2 && test3 && test4 && test5 && test6 && test7 && test8;
+  }
+
+  // tests that a large uniform board floods completely in one pass
+  boolean testFloodLargeBoard(Tester t) {
+    FloodItWorld world = new FloodItWorld(new PackedBoard(200, 200), 1, new Random(42));
+    world.grid.makeFlooded(0);
+    while (world.flooding) {
+      world.onTick();
+    }
+    return t.checkExpect(world.tilesTouched, 200 * 200)
+        && t.checkExpect(world.waterfall.size(), 0);
+  }
+
+  // tests games on boards of different shapes in the same JVM
+  boolean testBoardDimensions(Tester t) {
+    FloodItWorld wide = new FloodItWorld(3, 5, 2, new Random(42), false);
+    FloodItWorld tall = new FloodItWorld(3, 2, 7, new Random(42), true);
+    FloodItWorld tiny = new FloodItWorld(2, 1, 1, new Random(42), true);
+    boolean test1 = t.checkExpect(wide.grid.width(), 5)
+        && t.checkExpect(wide.grid.height(), 2)
+        && t.checkExpect(wide.board.size(), 10)
+        && t.checkExpect(wide.board.get(7).hashCode(), 7)
+        && t.checkExpect(tall.grid.width(), 2)
+        && t.checkExpect(tall.grid.height(), 7);
+    while (tiny.flooding) {
+      tiny.onTick();
+    }
+    tiny.onTick();
+    // a single cell is flooded from the start
+    boolean test2 = t.checkExpect(tiny.tilesTouched, 1)
+        && t.checkExpect(tiny.wonGame, true);
+    while (wide.flooding) {
+      wide.onTick();
+    }
+    // clicking the bottom-right cell of the 5x2 board picks its color
+    Color target = wide.board.get(9).color;
+    wide.onMouseClicked(new Posn(35 + 4 * 30 + 15, 35 + 30 + 15));
+    boolean test3 = t.checkExpect(wide.currentColor, target);
+    return test1 && test2 && test3;
+  }
+
+  // tests that the move limit keeps the original formula for square boards
+  // and does not overflow on huge ones
+  boolean testMoveLimitFor(Tester t) {
+    return t.checkExpect(FloodItWorld.moveLimitFor(12, 12, 6), 50 * 12 * 6 / (28 * 6) + 3)
+        && t.checkExpect(FloodItWorld.moveLimitFor(12, 12, 3), 13)
+        && t.checkExpect(FloodItWorld.moveLimitFor(10, 14, 6), 50 * 12 * 6 / (28 * 6) + 3)
+        && t.checkExpect(FloodItWorld.moveLimitFor(4096, 4096, 6), 7317)
+        && t.checkExpect(FloodItWorld.moveLimitFor(1, Integer.MAX_VALUE, 6) > 0, true);
+  }
+
+  // tests that a 4096x4096 compact board fits, and that impossible sizes are refused
+  boolean testHugeBoard(Tester t) {
+    FloodItWorld huge = new FloodItWorld(6, 4096, 4096, new Random(42), true);
+    while (huge.flooding) {
+      huge.onTick();
+    }
+    return t.checkExpect(huge.grid.size(), 4096 * 4096)
+        && t.checkExpect(huge.board, null)
+        && t.checkExpect(huge.tilesTouched > 0, true)
+        && t.checkExpect(PackedBoard.checkedSize(4096, 4096), 4096 * 4096)
+        && t.checkConstructorException(
+            new IllegalArgumentException("Board of 70000x70000 cells is too large"),
+            "PackedBoard", 70000, 70000)
+        && t.checkConstructorException(
+            new IllegalArgumentException("Board dimensions must be positive, given 0x5"),
+            "PackedBoard", 0, 5);
+  }
+
+  // tests a game flooded a whole move at a time by a flood engine
+  boolean testFloodEngine(Tester t) {
+    FloodItWorld animated = new FloodItWorld(4, 20, 15, new Random(3), true);
+    FloodItWorld instant = new FloodItWorld(4, 20, 15, new Random(3), new FloodFrontier());
+    while (animated.flooding) {
+      animated.onTick();
+    }
+    boolean test1 = t.checkExpect(instant.flooding, false)
+        && t.checkExpect(instant.tilesTouched, animated.tilesTouched)
+        && t.checkExpect(instant.currentColor, animated.currentColor);
+    int color = (instant.floodColor + 1) % 4;
+    instant.flood(color);
+    animated.flood(color);
+    while (animated.flooding) {
+      animated.onTick();
+    }
+    boolean test2 = t.checkExpect(instant.flooding, false)
+        && t.checkExpect(instant.movesMade, 1)
+        && t.checkExpect(instant.tilesTouched, animated.tilesTouched)
+        && t.checkExpect(instant.currentColor, animated.currentColor);
+    // flooded cells show the current color without being repainted
+    boolean test3 = true;
+    for (int i = 0; i < instant.grid.size(); i++) {
+      test3 = test3 && instant.displayColor(i) == animated.displayColor(i);
+    }
+    instant.flood(color);
+    boolean test4 = t.checkExpect(instant.movesMade, 1);
+    instant.onKeyEvent("r");
+    boolean test5 = t.checkExpect(instant.movesMade, 0)
+        && t.checkExpect(instant.flooding, false)
+        && t.checkExpect(instant.tilesTouched, instant.engine.floodedCount());
+    return test1 && test2 && t.checkExpect(test3, true) && test4 && test5;
+  }
+
+  // tests that a calibrator sets the move limit of every new board, including on reset
+  boolean testCalibratedMoveLimit(Tester t) {
+    DifficultyCalibrator calibrator = new DifficultyCalibrator(5_000_000_000L, 2, 8, 4096,
+        new ForkJoinPool(1));
+    FloodItWorld world = new FloodItWorld(4, 8, 8, new Random(5), false, calibrator);
+    long seed = new Random(5).nextLong();
+    PackedBoard expected = PackedBoard.random(8, 8, 4, new Random(seed));
+    boolean same = true;
+    for (int i = 0; i < expected.size(); i++) {
+      same = same && world.grid.colorAt(i) == expected.colorAt(i);
+    }
+    int optimal = new FloodSolver(new FloodGame(expected, 4), new ForkJoinPool(1))
+        .solveExact(5_000_000_000L).moves.length;
+    boolean test1 = t.checkExpect(world.seed, seed)
+        && t.checkExpect(same, true)
+        && t.checkExpect(world.moveLimit, optimal + 2);
+    world.onKeyEvent("r");
+    boolean test2 = t.checkExpect(world.seed != seed, true)
+        && t.checkExpect(world.moveLimit,
+            calibrator.moveLimit(world.seed, world.grid, 4))
+        && t.checkExpect(calibrator.misses, 2)
+        && t.checkExpect(calibrator.hits, 1);
+    FloodItWorld plain = new FloodItWorld(4, 8, 8, new Random(5), false);
+    boolean test3 = t.checkExpect(plain.moveLimit, FloodItWorld.moveLimitFor(8, 8, 4))
+        && t.checkExpect(plain.calibrator, null);
+    return test1 && test2 && test3;
+  }
+
   // tests the bigBang function/the game itself
   void testBigBang(Tester t) {
     FloodItWorld testGuy = new FloodItWorld(4);
-    int gameSize = (FloodItWorld.BOARD_SIZE * 30) + 100;
+    int gameSize = (FloodItWorld.DEFAULT_BOARD_SIZE * 30) + 100;
     testGuy.bigBang(gameSize + 105, gameSize + 60, 0.0001);
   }
 }
\ No newline at end of file
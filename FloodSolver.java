@@ -0,0 +1,809 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import tester.*;
+
+// The outcome of solving a board: the colors to play, in order
+class SolverResult {
+  int[] moves;
+  // whether no shorter sequence of moves floods the board
+  boolean optimal;
+  // the number of search states expanded
+  long nodes;
+
+  SolverResult(int[] moves, boolean optimal, long nodes) {
+    this.moves = moves;
+    this.optimal = optimal;
+    this.nodes = nodes;
+  }
+}
+
+// The state a search walks through: which regions are flooded, on a RegionGraph.
+// Moves are applied and undone in place, keeping the regions touching the flooded
+// area, the remaining regions of every color and a Zobrist hash of the flooded set
+class SearchState {
+  RegionGraph graph;
+  long[] zobrist;
+  int numColors;
+
+  boolean[] flooded;
+  // the number of flooded neighbors of every region
+  int[] floodedNeighbors;
+  // the unflooded regions with a flooded neighbor, in frontier[0, frontierSize);
+  // frontierPos[r] is the position of r in that list, or -1
+  int[] frontier;
+  int[] frontierPos;
+  int frontierSize;
+  // the number of unflooded regions of every color
+  int[] remaining;
+  int colorsLeft;
+  int unfloodedRegions;
+  long hash;
+
+  // the regions absorbed by every applied move, as a stack; moveStart[m] is where
+  // move m's regions begin
+  int[] absorbed;
+  int absorbedSize;
+  int[] moveStart;
+  int depth;
+
+  // scratch space for the distance heuristic and finishingColor
+  int[] distance;
+  int[] queue;
+  int[] onFrontier;
+  int[] farthest;
+
+  // a state where exactly the given regions are flooded
+  SearchState(RegionGraph graph, long[] zobrist, int numColors, boolean[] startFlooded) {
+    int n = graph.regionCount;
+    this.graph = graph;
+    this.zobrist = zobrist;
+    this.numColors = numColors;
+    this.flooded = new boolean[n];
+    this.floodedNeighbors = new int[n];
+    this.frontier = new int[n];
+    this.frontierPos = new int[n];
+    Arrays.fill(this.frontierPos, -1);
+    this.remaining = new int[numColors];
+    this.absorbed = new int[n];
+    this.moveStart = new int[n + 1];
+    this.distance = new int[n];
+    this.queue = new int[n];
+    this.onFrontier = new int[numColors];
+    this.farthest = new int[numColors];
+    this.unfloodedRegions = n;
+    for (int r = 0; r < n; r++) {
+      this.remaining[graph.regionColor[r]]++;
+    }
+    for (int c = 0; c < numColors; c++) {
+      if (this.remaining[c] > 0) {
+        this.colorsLeft++;
+      }
+    }
+    for (int r = 0; r < n; r++) {
+      if (startFlooded[r]) {
+        this.absorb(r);
+      }
+    }
+    this.absorbedSize = 0;
+  }
+
+  // a copy of this state with no move history
+  SearchState copy() {
+    return new SearchState(this.graph, this.zobrist, this.numColors, this.flooded);
+  }
+
+  // is every region flooded
+  boolean solved() {
+    return this.unfloodedRegions == 0;
+  }
+
+  // EFFECT: fills gains[c] with the cells playing color c would flood
+  void gains(int[] gains) {
+    Arrays.fill(gains, 0);
+    for (int i = 0; i < this.frontierSize; i++) {
+      int r = this.frontier[i];
+      gains[this.graph.regionColor[r]] += this.graph.regionSize[r];
+    }
+  }
+
+  // EFFECT: fills gains[c] with the cells playing color c would flood, except that
+  // when playing some color would flood every region left of that color, only that
+  // color has a gain. Such a move never makes a solution longer, so searches need
+  // not try the others
+  void usefulGains(int[] gains) {
+    Arrays.fill(this.onFrontier, 0);
+    for (int i = 0; i < this.frontierSize; i++) {
+      this.onFrontier[this.graph.regionColor[this.frontier[i]]]++;
+    }
+    this.gains(gains);
+    for (int c = 0; c < gains.length; c++) {
+      if (this.onFrontier[c] > 0 && this.onFrontier[c] == this.remaining[c]) {
+        int gain = gains[c];
+        Arrays.fill(gains, 0);
+        gains[c] = gain;
+        return;
+      }
+    }
+  }
+
+  // EFFECT: floods every frontier region of the given color and records the move
+  // returns the number of regions absorbed
+  int apply(int color) {
+    this.moveStart[this.depth] = this.absorbedSize;
+    int first = this.absorbedSize;
+    for (int i = 0; i < this.frontierSize; i++) {
+      int r = this.frontier[i];
+      if (this.graph.regionColor[r] == color) {
+        this.absorbed[this.absorbedSize] = r;
+        this.absorbedSize++;
+      }
+    }
+    // absorbing a region of this color cannot expose another one of the same color
+    for (int i = first; i < this.absorbedSize; i++) {
+      this.absorb(this.absorbed[i]);
+    }
+    this.depth++;
+    return this.absorbedSize - first;
+  }
+
+  // EFFECT: takes back the last applied move
+  void undo() {
+    this.depth--;
+    int first = this.moveStart[this.depth];
+    for (int i = this.absorbedSize - 1; i >= first; i--) {
+      this.unabsorb(this.absorbed[i]);
+    }
+    this.absorbedSize = first;
+  }
+
+  // EFFECT: floods the given region and updates the frontier, counts and hash
+  void absorb(int r) {
+    RegionGraph g = this.graph;
+    this.flooded[r] = true;
+    this.hash ^= this.zobrist[r];
+    this.unfloodedRegions--;
+    this.remaining[g.regionColor[r]]--;
+    if (this.remaining[g.regionColor[r]] == 0) {
+      this.colorsLeft--;
+    }
+    this.removeFrontier(r);
+    for (int n = g.neighborStart[r]; n < g.neighborStart[r + 1]; n++) {
+      int next = g.neighbors[n];
+      this.floodedNeighbors[next]++;
+      if (!this.flooded[next] && this.floodedNeighbors[next] == 1) {
+        this.addFrontier(next);
+      }
+    }
+  }
+
+  // EFFECT: exactly reverses absorb(r)
+  void unabsorb(int r) {
+    RegionGraph g = this.graph;
+    for (int n = g.neighborStart[r + 1] - 1; n >= g.neighborStart[r]; n--) {
+      int next = g.neighbors[n];
+      if (!this.flooded[next] && this.floodedNeighbors[next] == 1) {
+        this.removeFrontier(next);
+      }
+      this.floodedNeighbors[next]--;
+    }
+    if (this.floodedNeighbors[r] > 0) {
+      this.addFrontier(r);
+    }
+    if (this.remaining[g.regionColor[r]] == 0) {
+      this.colorsLeft++;
+    }
+    this.remaining[g.regionColor[r]]++;
+    this.unfloodedRegions++;
+    this.hash ^= this.zobrist[r];
+    this.flooded[r] = false;
+  }
+
+  // EFFECT: adds the given region to the frontier
+  void addFrontier(int r) {
+    this.frontierPos[r] = this.frontierSize;
+    this.frontier[this.frontierSize] = r;
+    this.frontierSize++;
+  }
+
+  // EFFECT: removes the given region from the frontier, if it is there
+  void removeFrontier(int r) {
+    int pos = this.frontierPos[r];
+    if (pos >= 0) {
+      this.frontierSize--;
+      int last = this.frontier[this.frontierSize];
+      this.frontier[pos] = last;
+      this.frontierPos[last] = pos;
+      this.frontierPos[r] = -1;
+    }
+  }
+
+  // a lower bound on the moves left. A region k steps away in the region graph can
+  // only be flooded by move k or later, and only by a move of its own color, so if
+  // the regions at least k steps away have n colors, at least k - 1 + n moves are left.
+  // This is the largest such bound over all k, which covers both the number of colors
+  // left (k = 1) and the distance to the farthest region
+  int heuristic() {
+    if (this.unfloodedRegions == 0) {
+      return 0;
+    }
+    int head = 0;
+    int tail = 0;
+    Arrays.fill(this.distance, -1);
+    Arrays.fill(this.farthest, 0);
+    for (int i = 0; i < this.frontierSize; i++) {
+      int r = this.frontier[i];
+      this.distance[r] = 1;
+      this.queue[tail] = r;
+      tail++;
+    }
+    while (head < tail) {
+      int r = this.queue[head];
+      head++;
+      int d = this.distance[r];
+      this.farthest[this.graph.regionColor[r]] = d;
+      for (int n = this.graph.neighborStart[r]; n < this.graph.neighborStart[r + 1]; n++) {
+        int next = this.graph.neighbors[n];
+        if (!this.flooded[next] && this.distance[next] < 0) {
+          this.distance[next] = d + 1;
+          this.queue[tail] = next;
+          tail++;
+        }
+      }
+    }
+    // the i-th farthest color bounds the moves left by its distance - 1 + i
+    Arrays.sort(this.farthest);
+    int bound = 0;
+    for (int i = this.farthest.length - 1, rank = 1; i >= 0 && this.farthest[i] > 0;
+        i--, rank++) {
+      bound = Math.max(bound, this.farthest[i] - 1 + rank);
+    }
+    return bound;
+  }
+}
+
+// A bounded table of lower bounds on the moves needed from already searched states,
+// keyed by Zobrist hash. Each slot is one long (the hash with its low byte replaced
+// by the bound), so threads can share it without locks; a newer entry always evicts
+// whatever was in its slot
+class TranspositionTable {
+  AtomicLongArray slots;
+  int mask;
+
+  // a table of 2^bits slots, 8 bytes each
+  TranspositionTable(int bits) {
+    this.slots = new AtomicLongArray(1 << bits);
+    this.mask = (1 << bits) - 1;
+  }
+
+  // the lower bound stored for the given hash, or 0 if there is none
+  int bound(long hash) {
+    long entry = this.slots.get((int) (hash >>> 40) & this.mask);
+    return (entry & ~0xFFL) == (hash & ~0xFFL) ? (int) (entry & 0xFF) : 0;
+  }
+
+  // EFFECT: remembers the given lower bound for the given hash
+  void store(long hash, int bound) {
+    this.slots.set((int) (hash >>> 40) & this.mask, (hash & ~0xFFL) | Math.min(bound, 0xFF));
+  }
+}
+
+// Finds short sequences of moves that flood a board, on its RegionGraph.
+// solveExact runs IDA* with an admissible heuristic, splitting the first move
+// across a fork-join pool and sharing one transposition table; solveBeam keeps only
+// the most promising states at every depth, and solveGreedy plays what a beam of
+// one would
+class FloodSolver {
+  // 2^20 slots, 8 MB
+  static final int DEFAULT_TABLE_BITS = 20;
+  // the beam width solveExact falls back to when it runs out of time
+  static final int FALLBACK_BEAM_WIDTH = 32;
+
+  RegionGraph graph;
+  int numColors;
+  boolean[] startFlooded;
+  long[] zobrist;
+  TranspositionTable table;
+  ForkJoinPool pool;
+
+  // a solver for the given game, from its current state
+  FloodSolver(FloodGame game, ForkJoinPool pool) {
+    this(game, pool, DEFAULT_TABLE_BITS);
+  }
+
+  // a solver for the given game, from its current state, with a table of 2^tableBits
+  // slots; small tables suit searches that must start quickly
+  FloodSolver(FloodGame game, ForkJoinPool pool, int tableBits) {
+    this(game.engine.graph, game.numColors, game.engine.regionFlooded, pool, tableBits);
+  }
+
+  // a solver for the board split into the given regions, from the given flooded regions
+  FloodSolver(RegionGraph graph, int numColors, boolean[] startFlooded, ForkJoinPool pool) {
+    this(graph, numColors, startFlooded, pool, DEFAULT_TABLE_BITS);
+  }
+
+  FloodSolver(RegionGraph graph, int numColors, boolean[] startFlooded, ForkJoinPool pool,
+      int tableBits) {
+    this.graph = graph;
+    this.numColors = numColors;
+    this.startFlooded = Arrays.copyOf(startFlooded, graph.regionCount);
+    this.pool = pool;
+    this.table = new TranspositionTable(tableBits);
+    this.zobrist = new long[graph.regionCount];
+    SplittableRandom rand = new SplittableRandom(0x5EEDL);
+    for (int r = 0; r < graph.regionCount; r++) {
+      this.zobrist[r] = rand.nextLong();
+    }
+  }
+
+  // a state at the start of the search
+  SearchState startState() {
+    return new SearchState(this.graph, this.zobrist, this.numColors, this.startFlooded);
+  }
+
+  // the shortest solution, if it can be found within the given time; otherwise
+  // the best solution a beam search finds, marked as not optimal
+  SolverResult solveExact(long budgetNanos) {
+    return this.solveExact(budgetNanos, FALLBACK_BEAM_WIDTH);
+  }
+
+  // the shortest solution, if it can be found within the given time; otherwise
+  // the solution of a beam search of the given width, marked as not optimal
+  SolverResult solveExact(long budgetNanos, int fallbackWidth) {
+    return this.solveExact(budgetNanos, fallbackWidth, Long.MAX_VALUE, null);
+  }
+
+  // the shortest solution, if it can be found within the given time; otherwise
+  // the solution of a beam search of the given width that stops at beamDeadline,
+  // marked as not optimal. The given solution, if not null, is kept unless a
+  // shorter one is found, and is optimal once the search's bound reaches its length
+  SolverResult solveExact(long budgetNanos, int fallbackWidth, long beamDeadline,
+      SolverResult incumbent) {
+    long deadline = System.nanoTime() + budgetNanos;
+    SearchState root = this.startState();
+    AtomicLong nodes = new AtomicLong();
+    int threshold = root.heuristic();
+    while (true) {
+      if (incumbent != null && threshold >= incumbent.moves.length) {
+        return new SolverResult(incumbent.moves, true, nodes.get());
+      }
+      IdaRoot search = new IdaRoot(this, root, threshold, deadline, nodes);
+      int[] found = this.pool.invoke(search);
+      if (found != null) {
+        return new SolverResult(found, true, nodes.get());
+      }
+      if (search.timedOut) {
+        SolverResult fallback = this.solveBeam(fallbackWidth, beamDeadline, incumbent);
+        fallback.nodes += nodes.get();
+        return fallback;
+      }
+      threshold = search.nextThreshold;
+    }
+  }
+
+  // the greedy solution: always the color that floods the most cells, the lowest of
+  // them on ties, just as a beam of one would choose, but played on one state
+  // instead of copying it for every color
+  SolverResult solveGreedy() {
+    SearchState state = this.startState();
+    int[] gains = new int[this.numColors];
+    int[] moves = new int[16];
+    int count = 0;
+    long nodes = 0;
+    while (!state.solved()) {
+      state.gains(gains);
+      int best = 0;
+      for (int c = 0; c < gains.length; c++) {
+        if (gains[c] > 0) {
+          nodes++;
+        }
+        if (gains[c] > gains[best]) {
+          best = c;
+        }
+      }
+      if (count == moves.length) {
+        moves = Arrays.copyOf(moves, count * 2);
+      }
+      moves[count] = best;
+      count++;
+      state.apply(best);
+    }
+    return new SolverResult(Arrays.copyOf(moves, count), false, nodes);
+  }
+
+  // keeps the given number of states with the most flooded cells at every depth
+  // (ignoring states already seen) and returns the first solution reached
+  SolverResult solveBeam(int beamWidth) {
+    return this.solveBeam(beamWidth, Long.MAX_VALUE);
+  }
+
+  // a beam search of the given width that keeps only its best state, going on
+  // greedily, from the first depth reached after System.nanoTime() passes the
+  // given deadline
+  SolverResult solveBeam(int beamWidth, long deadline) {
+    return this.solveBeam(beamWidth, deadline, null);
+  }
+
+  // a beam search of the given width that gives up for the given solution, if it
+  // is not null, once it cannot find a shorter one or System.nanoTime() passes the
+  // given deadline; without one it goes on greedily past the deadline
+  SolverResult solveBeam(int beamWidth, long deadline, SolverResult incumbent) {
+    ArrayList<BeamNode> beam = new ArrayList<BeamNode>();
+    SearchState start = this.startState();
+    beam.add(new BeamNode(start.flooded, this.floodedCells(start), new int[0]));
+    long nodes = 0;
+    int[] gains = new int[this.numColors];
+    while (true) {
+      if (incumbent != null && beam.get(0).moves.length >= incumbent.moves.length) {
+        return new SolverResult(incumbent.moves, false, nodes);
+      }
+      ArrayList<BeamNode> next = new ArrayList<BeamNode>();
+      HashMap<Long, Boolean> seen = new HashMap<Long, Boolean>();
+      for (BeamNode node : beam) {
+        SearchState state = new SearchState(this.graph, this.zobrist, this.numColors,
+            node.flooded);
+        if (state.solved()) {
+          return new SolverResult(node.moves, false, nodes);
+        }
+        state.gains(gains);
+        for (int c = 0; c < this.numColors; c++) {
+          if (gains[c] > 0) {
+            nodes++;
+            state.apply(c);
+            if (seen.put(state.hash, true) == null) {
+              int[] moves = Arrays.copyOf(node.moves, node.moves.length + 1);
+              moves[node.moves.length] = c;
+              next.add(new BeamNode(Arrays.copyOf(state.flooded, state.flooded.length),
+                  node.cells + gains[c], moves));
+            }
+            state.undo();
+          }
+        }
+      }
+      next.sort((a, b) -> b.cells - a.cells);
+      int width = beamWidth;
+      if (System.nanoTime() > deadline) {
+        if (incumbent != null) {
+          // the best state of this depth may just have flooded every cell
+          boolean solved = !next.isEmpty()
+              && next.get(0).cells == this.graph.width * this.graph.height;
+          return new SolverResult(solved ? next.get(0).moves : incumbent.moves, false, nodes);
+        }
+        width = 1;
+      }
+      beam = new ArrayList<BeamNode>(next.subList(0, Math.min(width, next.size())));
+    }
+  }
+
+  // the number of flooded cells in the given state
+  int floodedCells(SearchState state) {
+    int cells = 0;
+    for (int r = 0; r < this.graph.regionCount; r++) {
+      if (state.flooded[r]) {
+        cells += this.graph.regionSize[r];
+      }
+    }
+    return cells;
+  }
+}
+
+// A state kept by the beam search
+class BeamNode {
+  boolean[] flooded;
+  int cells;
+  int[] moves;
+
+  BeamNode(boolean[] flooded, int cells, int[] moves) {
+    this.flooded = flooded;
+    this.cells = cells;
+    this.moves = moves;
+  }
+}
+
+// One iteration of IDA* with the given threshold: every first move is searched
+// by its own task. When several first moves lead to a solution, the lowest one wins,
+// and only searches of higher first moves are cut short, so results are repeatable
+@SuppressWarnings("serial")
+class IdaRoot extends RecursiveTask<int[]> {
+  FloodSolver solver;
+  SearchState root;
+  int threshold;
+  long deadline;
+  AtomicLong nodes;
+  // the lowest first move found to lead to a solution so far
+  AtomicInteger bestFirst = new AtomicInteger(Integer.MAX_VALUE);
+  boolean timedOut;
+  int nextThreshold = Integer.MAX_VALUE;
+
+  IdaRoot(FloodSolver solver, SearchState root, int threshold, long deadline, AtomicLong nodes) {
+    this.solver = solver;
+    this.root = root;
+    this.threshold = threshold;
+    this.deadline = deadline;
+    this.nodes = nodes;
+  }
+
+  protected int[] compute() {
+    if (this.root.solved()) {
+      return new int[0];
+    }
+    int[] gains = new int[this.solver.numColors];
+    this.root.usefulGains(gains);
+    ArrayList<IdaBranch> branches = new ArrayList<IdaBranch>();
+    for (int c = 0; c < gains.length; c++) {
+      if (gains[c] > 0) {
+        branches.add(new IdaBranch(this, c));
+      }
+    }
+    ForkJoinTask.invokeAll(branches);
+    int[] best = null;
+    for (IdaBranch branch : branches) {
+      this.timedOut = this.timedOut || branch.timedOut;
+      this.nextThreshold = Math.min(this.nextThreshold, branch.nextThreshold);
+      if (best == null && branch.solution != null) {
+        best = branch.solution;
+      }
+    }
+    return best;
+  }
+}
+
+// The depth-first search below one first move of an IDA* iteration
+@SuppressWarnings("serial")
+class IdaBranch extends RecursiveTask<Void> {
+  static final int FOUND = -1;
+
+  IdaRoot root;
+  int first;
+  SearchState state;
+  int[] path;
+  int[][] gainsAt;
+  long localNodes;
+  boolean timedOut;
+  int nextThreshold = Integer.MAX_VALUE;
+  int[] solution;
+
+  IdaBranch(IdaRoot root, int first) {
+    this.root = root;
+    this.first = first;
+  }
+
+  protected Void compute() {
+    this.state = this.root.root.copy();
+    this.path = new int[this.root.threshold + 1];
+    this.gainsAt = new int[this.root.threshold + 2][this.root.solver.numColors];
+    this.state.apply(this.first);
+    this.path[0] = this.first;
+    int result = this.search(1);
+    this.root.nodes.addAndGet(this.localNodes);
+    if (result == FOUND) {
+      this.solution = Arrays.copyOf(this.path, this.state.depth);
+      this.root.bestFirst.accumulateAndGet(this.first, Math::min);
+    }
+    else {
+      this.nextThreshold = result;
+    }
+    return null;
+  }
+
+  // searches from the current state, which is g moves in; returns FOUND or
+  // the smallest estimate above the threshold seen
+  int search(int g) {
+    SearchState s = this.state;
+    if (s.solved()) {
+      return FOUND;
+    }
+    this.localNodes++;
+    // a node costs up to tens of microseconds for the heuristic on large boards, so
+    // checking the clock every 16 nodes, and on a branch's first, keeps overruns
+    // under a millisecond even for branches started after the deadline
+    if ((this.localNodes & 15) == 1 && (System.nanoTime() > this.root.deadline
+        || this.root.bestFirst.get() < this.first)) {
+      this.timedOut = System.nanoTime() > this.root.deadline;
+      return Integer.MAX_VALUE;
+    }
+    TranspositionTable table = this.root.solver.table;
+    int h = Math.max(s.heuristic(), table.bound(s.hash));
+    if (g + h > this.root.threshold) {
+      return g + h;
+    }
+    int[] gains = this.gainsAt[g];
+    s.usefulGains(gains);
+    int min = Integer.MAX_VALUE;
+    // try the biggest gains first, so solutions tend to be found early
+    for (int tried = 0; tried < gains.length; tried++) {
+      int best = -1;
+      for (int c = 0; c < gains.length; c++) {
+        if (gains[c] > 0 && (best < 0 || gains[c] > gains[best])) {
+          best = c;
+        }
+      }
+      if (best < 0) {
+        break;
+      }
+      gains[best] = 0;
+      s.apply(best);
+      this.path[g] = best;
+      int result = this.search(g + 1);
+      if (result == FOUND) {
+        return FOUND;
+      }
+      s.undo();
+      if (this.timedOut || this.root.bestFirst.get() < this.first) {
+        return Integer.MAX_VALUE;
+      }
+      min = Math.min(min, result);
+    }
+    if (min != Integer.MAX_VALUE) {
+      table.store(s.hash, min - g);
+    }
+    return min;
+  }
+}
+
+class ExamplesFloodSolver {
+  ForkJoinPool pool = new ForkJoinPool(2);
+
+  // the fewest moves that flood the given board, by breadth-first search over
+  // every reachable flooded set
+  int bruteForce(PackedBoard board, int numColors) {
+    LinkedList<PackedBoard> frontier = new LinkedList<PackedBoard>();
+    HashMap<String, Integer> depth = new HashMap<String, Integer>();
+    PackedBoard start = copyOf(board);
+    new FloodFrontier().start(start);
+    frontier.add(start);
+    depth.put(Arrays.toString(start.flooded), 0);
+    while (!frontier.isEmpty()) {
+      PackedBoard b = frontier.removeFirst();
+      int d = depth.get(Arrays.toString(b.flooded));
+      if (isFull(b)) {
+        return d;
+      }
+      for (int c = 0; c < numColors; c++) {
+        PackedBoard next = played(b, c);
+        if (depth.get(Arrays.toString(next.flooded)) == null) {
+          depth.put(Arrays.toString(next.flooded), d + 1);
+          frontier.add(next);
+        }
+      }
+    }
+    return -1;
+  }
+
+  // a copy of the given board after flooding it with the given color
+  PackedBoard played(PackedBoard board, int color) {
+    PackedBoard next = copyOf(board);
+    LinkedList<Integer> work = new LinkedList<Integer>();
+    for (int i = 0; i < next.size(); i++) {
+      if (next.isFlooded(i)) {
+        work.add(i);
+      }
+    }
+    while (!work.isEmpty()) {
+      int i = work.removeFirst();
+      int[] around = new int[] {i % next.width == 0 ? -1 : i - 1,
+          i % next.width == next.width - 1 ? -1 : i + 1, i - next.width, i + next.width};
+      for (int n : around) {
+        if (n >= 0 && n < next.size() && !next.isFlooded(n) && next.colorAt(n) == color) {
+          next.makeFlooded(n);
+          work.add(n);
+        }
+      }
+    }
+    return next;
+  }
+
+  // a copy of the given board
+  PackedBoard copyOf(PackedBoard board) {
+    PackedBoard result = new PackedBoard(board.width, board.height);
+    result.colors = Arrays.copyOf(board.colors, board.colors.length);
+    result.flooded = Arrays.copyOf(board.flooded, board.flooded.length);
+    return result;
+  }
+
+  // is every cell of the given board flooded
+  boolean isFull(PackedBoard board) {
+    for (int i = 0; i < board.size(); i++) {
+      if (!board.isFlooded(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // does playing the given moves flood the board of the given game
+  boolean floods(long seed, int size, int numColors, int[] moves) {
+    FloodGame game = FloodGame.seeded(seed, size, size, numColors);
+    for (int move : moves) {
+      game.play(move);
+    }
+    return game.flooded() && game.movesMade == moves.length;
+  }
+
+  // tests that the exact solver matches an exhaustive search on small boards
+  boolean testExactIsOptimal(Tester t) {
+    boolean result = true;
+    for (int seed = 0; seed < 8; seed++) {
+      PackedBoard board = PackedBoard.random(4, 4, 3, new Random(seed));
+      FloodGame game = new FloodGame(copyOf(board), 3);
+      SolverResult solved = new FloodSolver(game, pool).solveExact(5_000_000_000L);
+      result = result && t.checkExpect(solved.optimal, true)
+          && t.checkExpect(solved.moves.length, bruteForce(board, 3))
+          && t.checkExpect(floods(seed, 4, 3, solved.moves), true);
+    }
+    return result;
+  }
+
+  // tests that beam and greedy solutions flood the board and are never shorter
+  // than the exact one
+  boolean testBeamAndGreedy(Tester t) {
+    FloodSolver solver = new FloodSolver(FloodGame.seeded(9, 12, 12, 6), pool);
+    SolverResult exact = solver.solveExact(10_000_000_000L);
+    SolverResult beam = solver.solveBeam(64);
+    SolverResult greedy = solver.solveGreedy();
+    return t.checkExpect(exact.optimal, true)
+        && t.checkExpect(beam.optimal, false)
+        && t.checkExpect(floods(9, 12, 6, exact.moves), true)
+        && t.checkExpect(floods(9, 12, 6, beam.moves), true)
+        && t.checkExpect(floods(9, 12, 6, greedy.moves), true)
+        && t.checkExpect(beam.moves.length >= exact.moves.length, true)
+        && t.checkExpect(greedy.moves.length >= exact.moves.length, true);
+  }
+
+  // tests that a tiny time budget still returns a solution
+  boolean testTimeBudget(Tester t) {
+    FloodSolver solver = new FloodSolver(FloodGame.seeded(1, 60, 60, 6), pool);
+    SolverResult result = solver.solveExact(1_000_000L);
+    return t.checkExpect(result.optimal, false)
+        && t.checkExpect(floods(1, 60, 6, result.moves), true);
+  }
+
+  // tests that applying and undoing moves restores the search state
+  boolean testApplyUndo(Tester t) {
+    FloodSolver solver = new FloodSolver(FloodGame.seeded(4, 10, 10, 4), pool);
+    SearchState state = solver.startState();
+    long hash = state.hash;
+    int frontier = state.frontierSize;
+    int colorsLeft = state.colorsLeft;
+    boolean[] flooded = Arrays.copyOf(state.flooded, state.flooded.length);
+    int[] gains = new int[4];
+    state.gains(gains);
+    int first = gains[0] > 0 ? 0 : gains[1] > 0 ? 1 : gains[2] > 0 ? 2 : 3;
+    state.apply(first);
+    state.apply((first + 1) % 4);
+    boolean changed = t.checkExpect(state.hash != hash, true);
+    state.undo();
+    state.undo();
+    return changed
+        && t.checkExpect(state.hash, hash)
+        && t.checkExpect(state.frontierSize, frontier)
+        && t.checkExpect(state.colorsLeft, colorsLeft)
+        && t.checkExpect(state.flooded, flooded)
+        && t.checkExpect(state.depth, 0);
+  }
+
+  // tests storing and evicting bounds in the transposition table
+  boolean testTranspositionTable(Tester t) {
+    TranspositionTable table = new TranspositionTable(4);
+    long a = 0x123456789ABCDEF0L;
+    long b = a ^ 0x0100000000000000L;
+    boolean test1 = t.checkExpect(table.bound(a), 0);
+    table.store(a, 7);
+    boolean test2 = t.checkExpect(table.bound(a), 7)
+        && t.checkExpect(table.bound(b), 0);
+    // b lands in the same slot and evicts a
+    table.store(b, 3);
+    boolean test3 = t.checkExpect(table.bound(b), 3)
+        && t.checkExpect(table.bound(a), 0);
+    return test1 && test2 && test3;
+  }
+}
@@ -0,0 +1,123 @@
+import tester.*;
+
+// A source of monotonic time
+interface IClock {
+  // the current time in nanoseconds, from an arbitrary but fixed origin
+  long nanoTime();
+}
+
+// The real clock
+class SystemClock implements IClock {
+  public long nanoTime() {
+    return System.nanoTime();
+  }
+}
+
+// A clock that only moves when told to, for deterministic tests
+class FakeClock implements IClock {
+  long now;
+
+  public long nanoTime() {
+    return this.now;
+  }
+
+  // EFFECT: moves this clock forward by the given number of milliseconds
+  void advanceMillis(long millis) {
+    this.now += millis * 1_000_000L;
+  }
+}
+
+// Measures the playing time of one game on a clock, independently of how often
+// the game ticks. It starts on the first tick of a game, so building a game does
+// not read the clock, and pauses for good once the game is won or lost
+class Stopwatch {
+  IClock clock;
+  // the clock reading when the stopwatch last started running
+  long startedAt;
+  // the time measured before the stopwatch last started, in nanoseconds
+  long elapsedBefore;
+  boolean running;
+
+  Stopwatch(IClock clock) {
+    this.clock = clock;
+  }
+
+  // EFFECT: starts measuring, unless the stopwatch is already running
+  void start() {
+    if (!this.running) {
+      this.startedAt = this.clock.nanoTime();
+      this.running = true;
+    }
+  }
+
+  // EFFECT: stops measuring, keeping the time measured so far
+  void pause() {
+    if (this.running) {
+      this.elapsedBefore += this.clock.nanoTime() - this.startedAt;
+      this.running = false;
+    }
+  }
+
+  // EFFECT: stops measuring and forgets the time measured
+  void reset() {
+    this.running = false;
+    this.elapsedBefore = 0;
+  }
+
+  // the time measured, in whole milliseconds, capped to fit an int
+  int elapsedMillis() {
+    long nanos = this.elapsedBefore;
+    if (this.running) {
+      nanos += this.clock.nanoTime() - this.startedAt;
+    }
+    return (int) Math.min(Integer.MAX_VALUE, nanos / 1_000_000L);
+  }
+}
+
+class ExamplesGameClock {
+  FakeClock clock;
+  Stopwatch watch;
+
+  // resets the clock and stopwatch for testing purposes
+  void reset() {
+    clock = new FakeClock();
+    clock.advanceMillis(500);
+    watch = new Stopwatch(clock);
+  }
+
+  // tests that the stopwatch only measures time while running
+  boolean testRunAndPause(Tester t) {
+    reset();
+    boolean test1 = t.checkExpect(watch.elapsedMillis(), 0);
+    watch.start();
+    clock.advanceMillis(1500);
+    boolean test2 = t.checkExpect(watch.elapsedMillis(), 1500);
+    watch.start();
+    watch.pause();
+    clock.advanceMillis(10_000);
+    boolean test3 = t.checkExpect(watch.elapsedMillis(), 1500);
+    watch.pause();
+    watch.start();
+    clock.advanceMillis(250);
+    boolean test4 = t.checkExpect(watch.elapsedMillis(), 1750);
+    watch.reset();
+    boolean test5 = t.checkExpect(watch.elapsedMillis(), 0)
+        && t.checkExpect(watch.running, false);
+    return test1 && test2 && test3 && test4 && test5;
+  }
+
+  // tests that very long games do not overflow
+  boolean testCapped(Tester t) {
+    reset();
+    watch.start();
+    clock.advanceMillis(Long.MAX_VALUE / 2_000_000L);
+    return t.checkExpect(watch.elapsedMillis(), Integer.MAX_VALUE);
+  }
+
+  // tests that the system clock never goes backwards
+  boolean testSystemClock(Tester t) {
+    IClock system = new SystemClock();
+    long first = system.nanoTime();
+    return t.checkExpect(system.nanoTime() >= first, true);
+  }
+}
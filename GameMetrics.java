@@ -0,0 +1,442 @@
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+import tester.*;
+
+// Latencies in the style of HdrHistogram: a value is bucketed by its highest set bit
+// and then by the SUB_BITS bits below it, so a bucket's bounds are within 1/16 of
+// each other at any magnitude, from nanoseconds to minutes. Recording is one
+// atomic increment, so any number of threads may record at once, and histograms
+// merge bucket by bucket
+class LatencyHistogram {
+  static final int SUB_BITS = 4;
+  static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+  AtomicLongArray counts = new AtomicLongArray(64 * SUB_BUCKETS);
+  LongAdder count = new LongAdder();
+  LongAdder totalNanos = new LongAdder();
+  AtomicLong maxNanos = new AtomicLong();
+
+  // the bucket of the given value; values below SUB_BUCKETS have one each
+  static int bucketOf(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) Math.max(0, value);
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    int mantissa = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+    return (exponent - SUB_BITS + 1) * SUB_BUCKETS + mantissa;
+  }
+
+  // the largest value in the given bucket
+  static long upperBound(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+    long mantissa = bucket % SUB_BUCKETS;
+    return ((SUB_BUCKETS + mantissa + 1) << (exponent - SUB_BITS)) - 1;
+  }
+
+  // EFFECT: adds the given latency
+  void record(long nanos) {
+    this.counts.incrementAndGet(bucketOf(nanos));
+    this.count.increment();
+    this.totalNanos.add(nanos);
+    this.maxNanos.accumulateAndGet(nanos, Math::max);
+  }
+
+  // EFFECT: adds every latency of the given histogram
+  void merge(LatencyHistogram other) {
+    for (int b = 0; b < other.counts.length(); b++) {
+      long n = other.counts.get(b);
+      if (n != 0) {
+        this.counts.addAndGet(b, n);
+      }
+    }
+    this.count.add(other.count.sum());
+    this.totalNanos.add(other.totalNanos.sum());
+    this.maxNanos.accumulateAndGet(other.maxNanos.get(), Math::max);
+  }
+
+  // an upper bound, within 1/16, on the given fraction of the latencies
+  long percentile(double fraction) {
+    long wanted = Math.max(1, (long) Math.ceil(fraction * this.count.sum()));
+    long seen = 0;
+    for (int b = 0; b < this.counts.length(); b++) {
+      seen += this.counts.get(b);
+      if (seen >= wanted) {
+        return Math.min(this.maxNanos.get(), upperBound(b));
+      }
+    }
+    return this.maxNanos.get();
+  }
+
+  // the mean latency, or 0 when nothing was recorded
+  long meanNanos() {
+    long n = this.count.sum();
+    return n == 0 ? 0 : this.totalNanos.sum() / n;
+  }
+
+  // EFFECT: adds this histogram's count, mean, p50, p99, p99.9 and max to the given
+  // map, under names starting with the given prefix
+  void putInto(Map<String, Long> values, String prefix) {
+    values.put(prefix + "Count", this.count.sum());
+    values.put(prefix + "MeanNanos", this.meanNanos());
+    values.put(prefix + "P50Nanos", this.percentile(0.5));
+    values.put(prefix + "P99Nanos", this.percentile(0.99));
+    values.put(prefix + "P999Nanos", this.percentile(0.999));
+    values.put(prefix + "MaxNanos", this.maxNanos.get());
+  }
+
+  public String toString() {
+    long n = this.count.sum();
+    return String.format("%d ticks, mean %.1f us, p50 %.1f us, p99 %.1f us, max %.1f us",
+        n, this.meanNanos() / 1e3, this.percentile(0.5) / 1e3, this.percentile(0.99) / 1e3,
+        this.maxNanos.get() / 1e3);
+  }
+}
+
+// What a running game spends its time on: latencies of ticks, moves and frames,
+// the cells each animated move visits and queues (engines report only what a move
+// gains, so their moves are only timed), the bytes each frame allocates, and the
+// board size and flood frontier at the latest tick, the frontier left out for games
+// that have none. A FloodItWorld, a FloodGame or a FloodGameHost only measures when
+// given one, so without metrics the hot paths pay
+// one null check. Every value is cumulative and read without stopping the game:
+// through JMX, where each is an attribute of the registered MBean, or as CSV rows
+// appended to a file at a fixed period
+class GameMetrics implements DynamicMBean {
+  static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+  LatencyHistogram ticks = new LatencyHistogram();
+  LatencyHistogram floods = new LatencyHistogram();
+  LatencyHistogram frames = new LatencyHistogram();
+  LongAdder cellsVisited = new LongAdder();
+  LongAdder cellsEnqueued = new LongAdder();
+  // the moves whose cells were counted; moves flooded by an engine are only timed
+  LongAdder countedMoves = new LongAdder();
+  LongAdder frameBytes = new LongAdder();
+  volatile long boardCells;
+  volatile long frontierLength;
+  // whether ticks report a flood frontier; a FloodGameHost's headless games have none
+  boolean frontier;
+
+  // appends CSV rows while true
+  volatile boolean dumping;
+  Thread dumper;
+
+  GameMetrics() {
+    this(true);
+  }
+
+  GameMetrics(boolean frontier) {
+    this.frontier = frontier;
+  }
+
+  // the bytes this thread has allocated so far, or 0 when the JVM cannot tell
+  static long allocatedBytes() {
+    if (THREADS instanceof com.sun.management.ThreadMXBean) {
+      return ((com.sun.management.ThreadMXBean) THREADS).getCurrentThreadAllocatedBytes();
+    }
+    return 0;
+  }
+
+  // EFFECT: records a tick of the given latency, with the board size and frontier then
+  void tick(long nanos, int cells, int frontier) {
+    this.tick(nanos, cells);
+    this.frontierLength = frontier;
+  }
+
+  // EFFECT: records a tick of the given latency, with the board size then, of a game
+  // without a flood frontier
+  void tick(long nanos, int cells) {
+    this.ticks.record(nanos);
+    this.boardCells = cells;
+  }
+
+  // EFFECT: records a move that spent the given time flooding, visited the given
+  // number of cells and queued the given number
+  void move(long nanos, int visited, int enqueued) {
+    this.floods.record(nanos);
+    this.cellsVisited.add(visited);
+    this.cellsEnqueued.add(enqueued);
+    this.countedMoves.increment();
+  }
+
+  // EFFECT: records a move that spent the given time flooding, without counting
+  // cells, as an engine's moves report only the cells they gain
+  void move(long nanos) {
+    this.floods.record(nanos);
+  }
+
+  // EFFECT: records a frame of the given latency that allocated the given bytes
+  void frame(long nanos, long bytes) {
+    this.frames.record(nanos);
+    this.frameBytes.add(bytes);
+  }
+
+  // every value, by name, in a fixed order
+  LinkedHashMap<String, Long> snapshot() {
+    LinkedHashMap<String, Long> values = new LinkedHashMap<String, Long>();
+    this.ticks.putInto(values, "tick");
+    this.floods.putInto(values, "flood");
+    this.frames.putInto(values, "render");
+    long moves = this.countedMoves.sum();
+    long frameCount = this.frames.count.sum();
+    values.put("cellsVisited", this.cellsVisited.sum());
+    values.put("cellsEnqueued", this.cellsEnqueued.sum());
+    values.put("cellsVisitedPerMove", moves == 0 ? 0 : this.cellsVisited.sum() / moves);
+    values.put("cellsEnqueuedPerMove", moves == 0 ? 0 : this.cellsEnqueued.sum() / moves);
+    values.put("bytesPerFrame", frameCount == 0 ? 0 : this.frameBytes.sum() / frameCount);
+    values.put("boardCells", this.boardCells);
+    if (this.frontier) {
+      values.put("frontierLength", this.frontierLength);
+    }
+    return values;
+  }
+
+  // the CSV header for csvRow
+  String csvHeader() {
+    return "timeMillis," + String.join(",", this.snapshot().keySet());
+  }
+
+  // the CSV row of every value now, stamped with the given time
+  String csvRow(long timeMillis) {
+    StringBuilder row = new StringBuilder().append(timeMillis);
+    for (long value : this.snapshot().values()) {
+      row.append(',').append(value);
+    }
+    return row.toString();
+  }
+
+  // EFFECT: appends a row to the CSV file at the given path every periodMillis until
+  // stopDump, writing the header first when the file is new
+  void startDump(Path path, long periodMillis) throws IOException {
+    if (!Files.exists(path) || Files.size(path) == 0) {
+      Files.write(path, (this.csvHeader() + "\n").getBytes(StandardCharsets.UTF_8),
+          StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+    this.dumping = true;
+    this.dumper = new Thread(() -> {
+      while (this.dumping) {
+        try {
+          Thread.sleep(periodMillis);
+          this.appendRow(path);
+        }
+        catch (InterruptedException e) {
+          return;
+        }
+      }
+    }, "metrics-dump");
+    this.dumper.setDaemon(true);
+    this.dumper.start();
+  }
+
+  // EFFECT: appends a row of every value now to the CSV file at the given path
+  void appendRow(Path path) {
+    try {
+      Files.write(path, (this.csvRow(System.currentTimeMillis()) + "\n")
+          .getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE,
+          StandardOpenOption.APPEND);
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  // EFFECT: stops the CSV dump after appending one last row
+  void stopDump(Path path) throws InterruptedException {
+    this.dumping = false;
+    this.dumper.interrupt();
+    this.dumper.join();
+    this.appendRow(path);
+  }
+
+  // registers these metrics with the platform MBean server under the given name
+  // EFFECT: makes them visible to JMX clients such as jconsole
+  ObjectName register(String name) throws JMException {
+    ObjectName objectName = new ObjectName("flooditworld:type=GameMetrics,name=" + name);
+    ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+    return objectName;
+  }
+
+  public Object getAttribute(String attribute) throws AttributeNotFoundException {
+    Long value = this.snapshot().get(attribute);
+    if (value == null) {
+      throw new AttributeNotFoundException("No metric " + attribute);
+    }
+    return value;
+  }
+
+  public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+    throw new AttributeNotFoundException("Metrics are read-only: " + attribute.getName());
+  }
+
+  public AttributeList getAttributes(String[] attributes) {
+    LinkedHashMap<String, Long> values = this.snapshot();
+    AttributeList result = new AttributeList();
+    for (String name : attributes) {
+      if (values.containsKey(name)) {
+        result.add(new Attribute(name, values.get(name)));
+      }
+    }
+    return result;
+  }
+
+  public AttributeList setAttributes(AttributeList attributes) {
+    return new AttributeList();
+  }
+
+  public Object invoke(String actionName, Object[] params, String[] signature)
+      throws ReflectionException {
+    throw new ReflectionException(new NoSuchMethodException(actionName));
+  }
+
+  public MBeanInfo getMBeanInfo() {
+    ArrayList<MBeanAttributeInfo> attributes = new ArrayList<MBeanAttributeInfo>();
+    for (String name : this.snapshot().keySet()) {
+      attributes.add(new MBeanAttributeInfo(name, "java.lang.Long", name, true, false,
+          false));
+    }
+    return new MBeanInfo(GameMetrics.class.getName(), "Flood-It game loop metrics",
+        attributes.toArray(new MBeanAttributeInfo[0]), null, new MBeanOperationInfo[0],
+        null);
+  }
+}
+
+class ExamplesGameMetrics {
+  // tests the bucket bounds and percentiles of a histogram
+  boolean testHistogram(Tester t) {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 1; i <= 1000; i++) {
+      histogram.record(i * 1000L);
+    }
+    boolean bounds = true;
+    for (long v = 0; v < 100_000; v += 7) {
+      long upper = LatencyHistogram.upperBound(LatencyHistogram.bucketOf(v));
+      bounds = bounds && upper >= v && upper <= v + v / 16 + 1;
+    }
+    return t.checkExpect(bounds, true)
+        && t.checkExpect(LatencyHistogram.bucketOf(Long.MAX_VALUE) < 64 * 16, true)
+        && t.checkExpect(histogram.count.sum(), 1000L)
+        && t.checkExpect(histogram.meanNanos(), 500_500L)
+        && t.checkExpect(histogram.percentile(0.5) >= 500_000, true)
+        && t.checkExpect(histogram.percentile(0.5) <= 500_000 * 17 / 16, true)
+        && t.checkExpect(histogram.percentile(1.0), 1_000_000L)
+        && t.checkExpect(new LatencyHistogram().percentile(0.5), 0L);
+  }
+
+  // tests that a world with metrics times its ticks, moves and frames
+  boolean testWorld(Tester t) {
+    FloodItWorld world = new FloodItWorld(4, 20, 20, new Random(3), true);
+    GameMetrics metrics = new GameMetrics();
+    world.measureWith(metrics);
+    while (world.flooding) {
+      world.onTick();
+    }
+    world.flood((world.floodColor + 1) % 4);
+    while (world.flooding) {
+      world.onTick();
+    }
+    world.flood((world.floodColor + 1) % 4);
+    world.onTick();
+    LinkedHashMap<String, Long> values = metrics.snapshot();
+    return t.checkExpect(values.get("floodCount"), 1L)
+        && t.checkExpect(values.get("tickCount") > 2, true)
+        && t.checkExpect(values.get("cellsVisited"), (long) world.tilesTouched)
+        && t.checkExpect(values.get("cellsEnqueued") >= values.get("cellsVisited"), true)
+        && t.checkExpect(values.get("boardCells"), 400L)
+        && t.checkExpect(values.get("frontierLength") > 0, true)
+        && t.checkExpect(values.get("renderCount"), 0L);
+  }
+
+  // tests that moves flooded by an engine, in a world or a headless game, are
+  // timed without counting cells
+  boolean testEngines(Tester t) {
+    GameMetrics metrics = new GameMetrics();
+    FloodItWorld world = new FloodItWorld(4, 20, 20, new Random(3), new FloodFrontier());
+    world.measureWith(metrics);
+    int worldBefore = world.tilesTouched;
+    world.flood((world.floodColor + 1) % 4);
+    FloodGame game = FloodGame.seeded(5, 10, 10, 3);
+    game.metrics = metrics;
+    game.play((game.currentColor() + 1) % 3);
+    game.play(game.currentColor());
+    return t.checkExpect(world.tilesTouched > worldBefore, true)
+        && t.checkExpect(game.floodedCount() > game.startCells, true)
+        && t.checkExpect(metrics.floods.count.sum(), 2L)
+        && t.checkExpect(metrics.cellsVisited.sum(), 0L)
+        && t.checkExpect(metrics.cellsEnqueued.sum(), 0L)
+        && t.checkExpect(metrics.snapshot().get("cellsVisitedPerMove"), 0L);
+  }
+
+  // tests the metrics of a game host's sessions
+  boolean testHost(Tester t) {
+    FloodGameHost host = new FloodGameHost(8, 8, 3, 1, 1_000_000_000L);
+    host.metrics = new GameMetrics(false);
+    GameSession session = new GameSession(0, host, new StringReader(""), new StringWriter());
+    session.handle("color " + ((session.game.currentColor() + 1) % 3));
+    session.handle("state");
+    return t.checkExpect(host.metrics.ticks.count.sum(), 2L)
+        && t.checkExpect(session.latency.count.sum(), 2L)
+        && t.checkExpect(host.metrics.floods.count.sum(), 1L)
+        && t.checkExpect(host.metrics.boardCells, 64L)
+        && t.checkExpect(host.metrics.snapshot().containsKey("frontierLength"), false)
+        && t.checkExpect(host.metrics.csvHeader().split(",").length,
+            new GameMetrics().csvHeader().split(",").length - 1);
+  }
+
+  // tests the CSV rows and the JMX attributes
+  boolean testSurfaces(Tester t) throws JMException, IOException, InterruptedException {
+    GameMetrics metrics = new GameMetrics();
+    metrics.tick(2000, 144, 3);
+    metrics.frame(5000, 640);
+    metrics.frame(7000, 0);
+    String[] header = metrics.csvHeader().split(",");
+    String[] row = metrics.csvRow(99).split(",");
+    ObjectName name = metrics.register("test-" + System.nanoTime());
+    Object cells = ManagementFactory.getPlatformMBeanServer().getAttribute(name,
+        "boardCells");
+    Path path = Files.createTempFile("metrics", ".csv");
+    path.toFile().deleteOnExit();
+    Files.delete(path);
+    metrics.startDump(path, 5);
+    Thread.sleep(30);
+    metrics.stopDump(path);
+    List<String> lines = Files.readAllLines(path);
+    return t.checkExpect(header.length, row.length)
+        && t.checkExpect(header[0], "timeMillis")
+        && t.checkExpect(row[0], "99")
+        && t.checkExpect(metrics.snapshot().get("bytesPerFrame"), 320L)
+        && t.checkExpect(cells, 144L)
+        && t.checkExpect(lines.get(0), metrics.csvHeader())
+        && t.checkExpect(lines.size() >= 3, true)
+        && t.checkException(new AttributeNotFoundException("No metric fps"), metrics,
+            "getAttribute", "fps");
+  }
+}
@@ -0,0 +1,363 @@
+import java.util.Arrays;
+import java.util.Random;
+import tester.*;
+
+// Tells, at any moment and in O(colors), how many cells each color would flood next
+// in a game it follows. The board is collapsed into a RegionGraph once, and for every
+// color the engine keeps the total size of the unflooded regions of that color that
+// touch the flooded area: exactly what choosing the color gains, since regions of one
+// color never touch. The game reports each cell it floods, or each whole move when an
+// engine floods it, and each move it takes back, and only the regions gained or given
+// back and their neighbors are visited, so hints never cost a trial flood per color.
+// The graph is built once per board and kept through undo. The board is only read. Like any
+// RegionGraph, the engine holds a few ints per cell, so it is for boards kept in memory
+class HintEngine {
+  RegionGraph graph;
+  int currentColor;
+  boolean[] regionFlooded;
+  // whether a region is unflooded and touches the flooded area, counting in gains
+  boolean[] inFrontier;
+  // whether a region is in the frontier list of its color
+  boolean[] listed;
+  // the regions of each color that touched the flooded area when added; regions
+  // flooded or given back since are dropped when their color is next played
+  int[][] frontier;
+  int[] frontierSize;
+  // the number of cells of the unflooded regions of each color touching the flooded area
+  int[] gains;
+  // the color gaining the most cells, or -1 when none gains any; recomputed only
+  // after the gains change
+  int best;
+  boolean bestStale;
+
+  // follows the game on the given board, whose flooded cells show the given color
+  HintEngine(IBoard board, int currentColor) {
+    this.start(board, currentColor);
+  }
+
+  // EFFECT: forgets the game followed so far and follows the one on the given board
+  // from its flooded cells, which show the given color
+  void start(IBoard board, int currentColor) {
+    this.graph = new RegionGraph(board);
+    this.currentColor = currentColor;
+    int colors = Math.max(this.graph.colorCount, currentColor + 1);
+    this.regionFlooded = new boolean[this.graph.regionCount];
+    this.inFrontier = new boolean[this.graph.regionCount];
+    this.listed = new boolean[this.graph.regionCount];
+    this.frontier = new int[colors][8];
+    this.frontierSize = new int[colors];
+    this.gains = new int[colors];
+    this.absorb(0);
+    for (int i = 0; i < board.size(); i++) {
+      if (board.isFlooded(i)) {
+        this.cellFlooded(i);
+      }
+    }
+  }
+
+  // EFFECT: records that the flooded cells now show the given color
+  void colorChosen(int color) {
+    this.currentColor = color;
+    this.bestStale = true;
+  }
+
+  // EFFECT: records that the cell at the given index was flooded, with its region
+  void cellFlooded(int index) {
+    int region = this.graph.regionOf[index];
+    if (!this.regionFlooded[region]) {
+      this.absorb(region);
+    }
+  }
+
+  // EFFECT: records a whole move of the given color flooded on the given board,
+  // checking only the regions of that color that touched the flooded area
+  void moveMade(IBoard board, int color) {
+    this.colorChosen(color);
+    if (color >= this.frontier.length) {
+      return;
+    }
+    int[] regions = this.frontier[color];
+    // regions of one color never touch each other, so absorbing these regions
+    // cannot add any region to this list
+    int kept = 0;
+    for (int i = 0; i < this.frontierSize[color]; i++) {
+      int region = regions[i];
+      if (!this.regionFlooded[region]
+          && board.isFlooded(this.graph.members[this.graph.memberStart[region]])) {
+        this.absorb(region);
+      }
+      if (!this.regionFlooded[region] && this.inFrontier[region]) {
+        regions[kept] = region;
+        kept++;
+      }
+      else {
+        this.listed[region] = false;
+      }
+    }
+    this.frontierSize[color] = kept;
+  }
+
+  // EFFECT: records that the given move was taken back: the regions it absorbed are
+  // unflooded again and the flooded cells show its previous color. Only the cells
+  // the move absorbed and the neighbors of their regions are visited
+  void moveUndone(MoveDelta delta) {
+    delta.forEachAbsorbed(index -> {
+      int region = this.graph.regionOf[index];
+      if (this.regionFlooded[region]) {
+        this.release(region);
+      }
+    });
+    this.colorChosen(delta.previousColor);
+  }
+
+  // the number of cells choosing the given color would flood now
+  int gainOf(int color) {
+    if (color == this.currentColor || color < 0 || color >= this.gains.length) {
+      return 0;
+    }
+    return this.gains[color];
+  }
+
+  // the color that would flood the most cells now, the lowest on ties, or -1 when
+  // no color floods any
+  int bestColor() {
+    if (this.bestStale) {
+      this.best = -1;
+      for (int color = 0; color < this.gains.length; color++) {
+        if (this.gainOf(color) > (this.best == -1 ? 0 : this.gains[this.best])) {
+          this.best = color;
+        }
+      }
+      this.bestStale = false;
+    }
+    return this.best;
+  }
+
+  // EFFECT: marks the given region flooded, takes it out of the gains, and adds its
+  // unflooded neighbors to the frontier
+  void absorb(int region) {
+    RegionGraph g = this.graph;
+    this.regionFlooded[region] = true;
+    if (this.inFrontier[region]) {
+      this.inFrontier[region] = false;
+      this.gains[g.regionColor[region]] -= g.regionSize[region];
+    }
+    for (int n = g.neighborStart[region]; n < g.neighborStart[region + 1]; n++) {
+      int next = g.neighbors[n];
+      if (!this.regionFlooded[next] && !this.inFrontier[next]) {
+        this.join(next);
+      }
+    }
+    this.bestStale = true;
+  }
+
+  // EFFECT: marks the given flooded region unflooded, adds it to the frontier if it
+  // touches the flooded area, and takes out of the frontier its neighbors that
+  // touched the flooded area only through it
+  void release(int region) {
+    RegionGraph g = this.graph;
+    this.regionFlooded[region] = false;
+    if (this.touchesFlooded(region)) {
+      this.join(region);
+    }
+    for (int n = g.neighborStart[region]; n < g.neighborStart[region + 1]; n++) {
+      int next = g.neighbors[n];
+      if (this.inFrontier[next] && !this.touchesFlooded(next)) {
+        this.inFrontier[next] = false;
+        this.gains[g.regionColor[next]] -= g.regionSize[next];
+      }
+    }
+    this.bestStale = true;
+  }
+
+  // does the given region touch a flooded region
+  boolean touchesFlooded(int region) {
+    RegionGraph g = this.graph;
+    for (int n = g.neighborStart[region]; n < g.neighborStart[region + 1]; n++) {
+      if (this.regionFlooded[g.neighbors[n]]) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // EFFECT: adds the given unflooded region to the frontier and its color's gain,
+  // listing it unless it is listed already
+  void join(int region) {
+    RegionGraph g = this.graph;
+    this.inFrontier[region] = true;
+    int c = g.regionColor[region];
+    this.gains[c] += g.regionSize[region];
+    if (!this.listed[region]) {
+      this.listed[region] = true;
+      if (this.frontierSize[c] == this.frontier[c].length) {
+        this.frontier[c] = Arrays.copyOf(this.frontier[c], this.frontierSize[c] * 2);
+      }
+      this.frontier[c][this.frontierSize[c]] = region;
+      this.frontierSize[c]++;
+    }
+  }
+}
+
+class ExamplesHintEngine {
+  // the gains of every color on a fresh copy of the board played with the given moves,
+  // found by trial floods
+  int[] trialGains(int width, int height, int numColors, long seed, int[] moves, int count) {
+    int[] gains = new int[numColors];
+    for (int color = 0; color < numColors; color++) {
+      PackedBoard board = PackedBoard.random(width, height, numColors, new Random(seed));
+      FloodFrontier engine = new FloodFrontier();
+      engine.start(board);
+      for (int m = 0; m < count; m++) {
+        engine.flood(moves[m]);
+      }
+      gains[color] = engine.flood(color);
+    }
+    return gains;
+  }
+
+  // the gains of every color the given hints give
+  int[] hintGains(HintEngine hints, int numColors) {
+    int[] gains = new int[numColors];
+    for (int color = 0; color < numColors; color++) {
+      gains[color] = hints.gainOf(color);
+    }
+    return gains;
+  }
+
+  // tests that the hints match trial floods after every move of random games,
+  // followed move by move
+  boolean testMoves(Tester t) {
+    boolean result = true;
+    for (int seed = 0; seed < 4; seed++) {
+      PackedBoard board = PackedBoard.random(15, 12, 4, new Random(seed));
+      FloodFrontier engine = new FloodFrontier();
+      engine.start(board);
+      HintEngine hints = new HintEngine(board, engine.currentColor());
+      int[] moves = new int[30];
+      Random rand = new Random(seed + 50);
+      for (int m = 0; m < moves.length; m++) {
+        result = result && Arrays.equals(hintGains(hints, 4),
+            trialGains(15, 12, 4, seed, moves, m));
+        moves[m] = rand.nextInt(4);
+        engine.flood(moves[m]);
+        hints.moveMade(board, moves[m]);
+      }
+    }
+    return t.checkExpect(result, true);
+  }
+
+  // tests the best color and that a fully flooded board hints nothing
+  boolean testBest(Tester t) {
+    // 0 0 1 2
+    // 1 0 1 2
+    // 1 1 2 0
+    int[] layout = new int[] {0, 0, 1, 2, 1, 0, 1, 2, 1, 1, 2, 0};
+    PackedBoard board = new PackedBoard(4, 3);
+    for (int i = 0; i < layout.length; i++) {
+      board.setColor(i, layout[i]);
+    }
+    board.makeFlooded(0);
+    FloodFrontier engine = new FloodFrontier();
+    engine.start(board);
+    HintEngine hints = new HintEngine(board, 0);
+    boolean test1 = t.checkExpect(hints.bestColor(), 1)
+        && t.checkExpect(hints.gainOf(1), 5)
+        && t.checkExpect(hints.gainOf(2), 0)
+        && t.checkExpect(hints.gainOf(0), 0);
+    engine.flood(1);
+    hints.moveMade(board, 1);
+    boolean test2 = t.checkExpect(hints.bestColor(), 2)
+        && t.checkExpect(hints.gainOf(2), 3)
+        && t.checkExpect(hints.gainOf(1), 0);
+    engine.flood(2);
+    hints.moveMade(board, 2);
+    engine.flood(0);
+    hints.moveMade(board, 0);
+    return test1 && test2 && t.checkExpect(hints.bestColor(), -1)
+        && t.checkExpect(hints.gainOf(1), 0);
+  }
+
+  // tests hints in an animated world, told cell by cell, through undo and redo
+  boolean testWorld(Tester t) {
+    FloodItWorld world = new FloodItWorld(4, 15, 12, new Random(2), true);
+    world.onKeyEvent("h");
+    int[] moves = new int[12];
+    boolean result = true;
+    for (int m = 0; m < moves.length; m++) {
+      while (world.flooding) {
+        world.onTick();
+      }
+      result = result && Arrays.equals(hintGains(world.hints, 4),
+          trialGains(15, 12, 4, 2, moves, m));
+      moves[m] = (world.floodColor + 1 + m % 3) % 4;
+      world.flood(moves[m]);
+    }
+    while (world.flooding) {
+      world.onTick();
+    }
+    world.undo();
+    boolean test2 = t.checkExpect(hintGains(world.hints, 4),
+        trialGains(15, 12, 4, 2, moves, moves.length - 1));
+    world.redo();
+    boolean test3 = t.checkExpect(hintGains(world.hints, 4),
+        trialGains(15, 12, 4, 2, moves, moves.length));
+    world.onKeyEvent("h");
+    return t.checkExpect(result, true) && test2 && test3
+        && t.checkExpect(world.hints, null);
+  }
+
+  // tests that undoing moves one at a time gives back the hints of every earlier
+  // board, keeping the region graph, and that playing on from there still agrees
+  boolean testUndo(Tester t) {
+    FloodItWorld world = new FloodItWorld(4, 15, 12, new Random(5), true);
+    world.onKeyEvent("h");
+    RegionGraph graph = world.hints.graph;
+    int[] moves = new int[10];
+    for (int m = 0; m < moves.length; m++) {
+      while (world.flooding) {
+        world.onTick();
+      }
+      moves[m] = (world.floodColor + 1 + m % 3) % 4;
+      world.flood(moves[m]);
+    }
+    while (world.flooding) {
+      world.onTick();
+    }
+    boolean result = true;
+    for (int m = moves.length - 1; m >= 0; m--) {
+      world.undo();
+      result = result && Arrays.equals(hintGains(world.hints, 4),
+          trialGains(15, 12, 4, 5, moves, m));
+    }
+    moves[0] = (world.floodColor + 2) % 4;
+    world.flood(moves[0]);
+    while (world.flooding) {
+      world.onTick();
+    }
+    return t.checkExpect(result, true)
+        && t.checkExpect(world.hints.graph == graph, true)
+        && t.checkExpect(hintGains(world.hints, 4), trialGains(15, 12, 4, 5, moves, 1));
+  }
+
+  // tests hints in a world flooded by an engine, told move by move, and on a new board
+  boolean testEngineWorld(Tester t) {
+    FloodItWorld world = new FloodItWorld(5, 20, 20, new Random(4), new FloodFrontier());
+    world.onKeyEvent("h");
+    PackedBoard copy = PackedBoard.random(20, 20, 5, new Random(4));
+    RegionFloodEngine regions = new RegionFloodEngine();
+    regions.start(copy);
+    boolean result = true;
+    for (int m = 0; m < 15; m++) {
+      for (int color = 0; color < 5; color++) {
+        result = result && world.hints.gainOf(color) == regions.gainOf(color);
+      }
+      int color = world.hints.bestColor();
+      world.flood(color);
+      regions.flood(color);
+    }
+    world.onKeyEvent("r");
+    return t.checkExpect(result, true)
+        && t.checkExpect(world.hints.gainOf(world.hints.bestColor()) > 0, true);
+  }
+}
@@ -0,0 +1,426 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import tester.*;
+
+// The games a leaderboard ranks together: same board size, same number of colors
+class BoardClass {
+  int width;
+  int height;
+  int numColors;
+
+  BoardClass(int width, int height, int numColors) {
+    this.width = width;
+    this.height = height;
+    this.numColors = numColors;
+  }
+
+  public int hashCode() {
+    return (this.width * 31 + this.height) * 31 + this.numColors;
+  }
+
+  // instanceof is acceptable because equals is being overridden
+  public boolean equals(Object other) {
+    if (other instanceof BoardClass) {
+      BoardClass temp = (BoardClass) other;
+      return this.width == temp.width && this.height == temp.height
+          && this.numColors == temp.numColors;
+    }
+    return false;
+  }
+}
+
+// One won game on a leaderboard
+class ScoreEntry {
+  // width, height, colors, time and moves, as ints
+  static final int BYTES = 20;
+
+  BoardClass board;
+  int timeMillis;
+  int moves;
+
+  ScoreEntry(BoardClass board, int timeMillis, int moves) {
+    this.board = board;
+    this.timeMillis = timeMillis;
+    this.moves = moves;
+  }
+
+  // does this entry rank above the given one: faster, or as fast in fewer moves
+  boolean beats(ScoreEntry other) {
+    return this.timeMillis < other.timeMillis
+        || (this.timeMillis == other.timeMillis && this.moves < other.moves);
+  }
+}
+
+// The best entries of one board class, best first. Never changed once made, so
+// the game may read it while sessions submit new results
+class TopEntries {
+  ScoreEntry[] entries;
+
+  TopEntries(ScoreEntry[] entries) {
+    this.entries = entries;
+  }
+
+  // these entries with the given one in its place, keeping at most k; the same
+  // entries if it does not make the cut
+  TopEntries with(ScoreEntry entry, int k) {
+    int place = 0;
+    while (place < this.entries.length && !entry.beats(this.entries[place])) {
+      place++;
+    }
+    if (place >= k) {
+      return this;
+    }
+    ScoreEntry[] result = new ScoreEntry[Math.min(k, this.entries.length + 1)];
+    System.arraycopy(this.entries, 0, result, 0, place);
+    result[place] = entry;
+    System.arraycopy(this.entries, place, result, place + 1, result.length - place - 1);
+    return new TopEntries(result);
+  }
+}
+
+// Keeps every won game in an append-only file and the best k of each board class
+// in memory. A submission updates the in-memory ranking at once and queues the
+// entry for a writer thread, which writes whatever has queued up in one batch and
+// forces it to disk once per batch, so a burst of submissions from many sessions
+// costs one write and one force instead of one each, and never waits on the disk.
+// On startup the file is memory-mapped and read back to rebuild the rankings
+class Leaderboard implements Runnable {
+  // "FLBD" and a version, at the start of the file
+  static final int MAGIC = 0x464C4244;
+  static final int VERSION = 1;
+  static final int HEADER_BYTES = 8;
+  static final int DEFAULT_K = 10;
+  // the most entries written in one batch
+  static final int MAX_BATCH = 4096;
+
+  int k;
+  FileChannel channel;
+  ConcurrentHashMap<BoardClass, TopEntries> top =
+      new ConcurrentHashMap<BoardClass, TopEntries>();
+  LinkedBlockingQueue<ScoreEntry> pending = new LinkedBlockingQueue<ScoreEntry>();
+  ByteBuffer batch = ByteBuffer.allocateDirect(MAX_BATCH * ScoreEntry.BYTES);
+  AtomicLong submitted = new AtomicLong();
+  // the entries written and forced so far, guarded by this
+  long committed;
+  // the batches written so far
+  int batches;
+  volatile boolean running = true;
+  // the error that stopped the writer, or null while it writes
+  volatile IOException failure;
+  Thread writer;
+
+  // opens the leaderboard stored at the given path, keeping the best DEFAULT_K of
+  // each board class
+  Leaderboard(Path path) throws IOException {
+    this(path, DEFAULT_K);
+  }
+
+  // opens the leaderboard stored at the given path, starting the file if it is empty
+  Leaderboard(Path path, int k) throws IOException {
+    if (k < 1) {
+      throw new IllegalArgumentException("A leaderboard must keep at least one entry, given "
+          + k);
+    }
+    this.k = k;
+    this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+        StandardOpenOption.WRITE);
+    long size = this.channel.size();
+    if (size == 0) {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).putInt(MAGIC).putInt(VERSION);
+      header.flip();
+      this.channel.write(header, 0);
+      size = HEADER_BYTES;
+    }
+    this.rebuild(path, size);
+    this.writer = new Thread(this, "leaderboard-writer");
+    this.writer.setDaemon(true);
+    this.writer.start();
+  }
+
+  // EFFECT: reads every whole entry of the file into the rankings, leaving a
+  // torn entry at its end to be written over
+  void rebuild(Path path, long size) throws IOException {
+    MappedByteBuffer file = this.channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+    if (size < HEADER_BYTES || file.getInt() != MAGIC || file.getInt() != VERSION) {
+      this.channel.close();
+      throw new IllegalArgumentException("Not a leaderboard: " + path);
+    }
+    HashMap<BoardClass, TopEntries> rebuilt = new HashMap<BoardClass, TopEntries>();
+    long entries = (size - HEADER_BYTES) / ScoreEntry.BYTES;
+    for (long i = 0; i < entries; i++) {
+      BoardClass board = new BoardClass(file.getInt(), file.getInt(), file.getInt());
+      ScoreEntry entry = new ScoreEntry(board, file.getInt(), file.getInt());
+      TopEntries old = rebuilt.get(board);
+      rebuilt.put(board, (old == null ? new TopEntries(new ScoreEntry[0]) : old)
+          .with(entry, this.k));
+    }
+    this.top.putAll(rebuilt);
+    this.channel.position(HEADER_BYTES + entries * ScoreEntry.BYTES);
+    this.committed = entries;
+    this.submitted.set(entries);
+  }
+
+  // adds a won game; never waits on the disk and is safe from any thread
+  // EFFECT: ranks the entry at once and queues it to be written
+  void submit(int width, int height, int numColors, int timeMillis, int moves) {
+    ScoreEntry entry = new ScoreEntry(new BoardClass(width, height, numColors), timeMillis,
+        moves);
+    this.top.compute(entry.board, (board, old) ->
+        (old == null ? new TopEntries(new ScoreEntry[0]) : old).with(entry, this.k));
+    this.submitted.incrementAndGet();
+    // once the writer has stopped, nothing would take entries off the queue
+    if (this.failure == null) {
+      this.pending.offer(entry);
+    }
+  }
+
+  // the best entries for the given board class, best first
+  ScoreEntry[] best(int width, int height, int numColors) {
+    TopEntries entries = this.top.get(new BoardClass(width, height, numColors));
+    return entries == null ? new ScoreEntry[0] : entries.entries.clone();
+  }
+
+  // the best time for the given board class in milliseconds, or -1 if none was submitted
+  int bestMillis(int width, int height, int numColors) {
+    TopEntries entries = this.top.get(new BoardClass(width, height, numColors));
+    return entries == null ? -1 : entries.entries[0].timeMillis;
+  }
+
+  // writes batches until closed, then writes whatever is left. A failed write
+  // stops the writer, and sync and close report it
+  public void run() {
+    ArrayList<ScoreEntry> drained = new ArrayList<ScoreEntry>();
+    while (this.running || !this.pending.isEmpty()) {
+      try {
+        ScoreEntry first = this.pending.poll(50, TimeUnit.MILLISECONDS);
+        if (first == null) {
+          continue;
+        }
+        drained.add(first);
+        this.pending.drainTo(drained, MAX_BATCH - 1);
+        this.write(drained);
+        drained.clear();
+      }
+      catch (InterruptedException e) {
+        // nothing interrupts the writer; closing is noticed within one poll
+        Thread.currentThread().interrupt();
+        return;
+      }
+      catch (IOException e) {
+        synchronized (this) {
+          this.failure = e;
+          this.pending.clear();
+          this.notifyAll();
+        }
+        return;
+      }
+    }
+  }
+
+  // EFFECT: appends the given entries to the file in one write and forces them to disk
+  void write(ArrayList<ScoreEntry> entries) throws IOException {
+    this.batch.clear();
+    for (ScoreEntry entry : entries) {
+      this.batch.putInt(entry.board.width).putInt(entry.board.height)
+          .putInt(entry.board.numColors).putInt(entry.timeMillis).putInt(entry.moves);
+    }
+    this.batch.flip();
+    while (this.batch.hasRemaining()) {
+      this.channel.write(this.batch);
+    }
+    this.channel.force(false);
+    synchronized (this) {
+      this.committed += entries.size();
+      this.batches++;
+      this.notifyAll();
+    }
+  }
+
+  // EFFECT: waits until every entry submitted so far is on disk; throws the
+  // writer's error instead if it stopped
+  void sync() throws IOException, InterruptedException {
+    long target = this.submitted.get();
+    synchronized (this) {
+      while (this.committed < target) {
+        this.checkWriter();
+        this.wait();
+      }
+    }
+  }
+
+  // EFFECT: writes every pending entry, stops the writer and closes the file;
+  // throws the writer's error if it stopped before writing them all
+  void close() throws IOException, InterruptedException {
+    // not interrupted, as an interrupt during a write would close the channel
+    this.running = false;
+    this.writer.join();
+    this.channel.close();
+    this.checkWriter();
+  }
+
+  // EFFECT: throws the error that stopped the writer, if one did
+  void checkWriter() throws IOException {
+    if (this.failure != null) {
+      throw new IOException("Could not write the leaderboard", this.failure);
+    }
+  }
+}
+
+class ExamplesLeaderboard {
+  // a fresh, empty file
+  Path tempFile() {
+    try {
+      File file = File.createTempFile("leaderboard", ".bin");
+      file.deleteOnExit();
+      file.delete();
+      return file.toPath();
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  // the times of the given entries
+  ArrayList<Integer> times(ScoreEntry[] entries) {
+    ArrayList<Integer> result = new ArrayList<Integer>();
+    for (ScoreEntry entry : entries) {
+      result.add(entry.timeMillis);
+    }
+    return result;
+  }
+
+  // tests that each board class keeps its own k best, ties going to fewer moves
+  boolean testTopK(Tester t) throws IOException, InterruptedException {
+    Leaderboard board = new Leaderboard(tempFile(), 3);
+    int[] times = new int[] {9000, 4000, 7000, 4000, 12000, 3000};
+    int[] moves = new int[] {10, 12, 9, 11, 8, 20};
+    for (int i = 0; i < times.length; i++) {
+      board.submit(12, 12, 6, times[i], moves[i]);
+    }
+    board.submit(12, 12, 3, 500, 5);
+    ScoreEntry[] best = board.best(12, 12, 6);
+    boolean result = t.checkExpect(times(best),
+        new ArrayList<Integer>(Arrays.asList(3000, 4000, 4000)))
+        && t.checkExpect(best[1].moves, 11)
+        && t.checkExpect(board.bestMillis(12, 12, 3), 500)
+        && t.checkExpect(board.bestMillis(20, 20, 6), -1)
+        && t.checkExpect(board.best(20, 20, 6).length, 0);
+    board.close();
+    return result;
+  }
+
+  // tests that the rankings come back after a restart, and that a torn last entry is dropped
+  boolean testRestart(Tester t) throws IOException, InterruptedException {
+    Path path = tempFile();
+    Leaderboard first = new Leaderboard(path, 5);
+    Random rand = new Random(4);
+    for (int i = 0; i < 200; i++) {
+      first.submit(10 + i % 3, 10, 4, 1000 + rand.nextInt(100_000), 10 + rand.nextInt(20));
+    }
+    first.sync();
+    ScoreEntry[] before = first.best(11, 10, 4);
+    first.close();
+    FileChannel torn = FileChannel.open(path, StandardOpenOption.WRITE,
+        StandardOpenOption.APPEND);
+    torn.write(ByteBuffer.allocate(7));
+    torn.close();
+    Leaderboard second = new Leaderboard(path, 5);
+    boolean test1 = t.checkExpect(times(second.best(11, 10, 4)), times(before))
+        && t.checkExpect(second.committed, 200L);
+    second.submit(11, 10, 4, 1, 1);
+    second.sync();
+    second.close();
+    boolean test2 = t.checkExpect(path.toFile().length(),
+        (long) Leaderboard.HEADER_BYTES + 201 * ScoreEntry.BYTES);
+    Leaderboard third = new Leaderboard(path, 5);
+    boolean test3 = t.checkExpect(third.bestMillis(11, 10, 4), 1);
+    third.close();
+    return test1 && test2 && test3;
+  }
+
+  // tests that submissions from many threads are all kept, in fewer writes than entries
+  boolean testConcurrentBursts(Tester t) throws IOException, InterruptedException {
+    Path path = tempFile();
+    Leaderboard board = new Leaderboard(path, 10);
+    Thread[] sessions = new Thread[8];
+    for (int s = 0; s < sessions.length; s++) {
+      int session = s;
+      sessions[s] = new Thread(() -> {
+        for (int i = 0; i < 500; i++) {
+          board.submit(12, 12, 6, session * 1000 + i + 1, 10);
+        }
+      });
+      sessions[s].start();
+    }
+    for (Thread session : sessions) {
+      session.join();
+    }
+    board.sync();
+    boolean result = t.checkExpect(board.committed, 4000L)
+        && t.checkExpect(board.batches < 4000, true)
+        && t.checkExpect(board.bestMillis(12, 12, 6), 1)
+        && t.checkExpect(board.best(12, 12, 6).length, 10);
+    board.close();
+    return result && t.checkExpect(path.toFile().length(),
+        (long) Leaderboard.HEADER_BYTES + 4000 * ScoreEntry.BYTES);
+  }
+
+  // tests that a world shows and updates the best time of its board class
+  boolean testWorld(Tester t) throws IOException, InterruptedException {
+    Leaderboard board = new Leaderboard(tempFile(), 10);
+    board.submit(1, 1, 2, 42_000, 0);
+    FloodItWorld world = new FloodItWorld(2, 1, 1, new Random(1), true);
+    world.useLeaderboard(board);
+    boolean test1 = t.checkExpect(world.bestTime, 42);
+    while (!world.wonGame) {
+      world.onTick();
+    }
+    boolean test2 = t.checkExpect(world.wonGame, true)
+        && t.checkExpect(world.bestTime, 0)
+        && t.checkExpect(board.best(1, 1, 2).length, 2);
+    board.close();
+    return test1 && test2;
+  }
+
+  // tests that other files and a leaderboard keeping no entries are refused
+  boolean testNotALeaderboard(Tester t) throws IOException {
+    File other = File.createTempFile("other", ".bin");
+    other.deleteOnExit();
+    FileChannel out = FileChannel.open(other.toPath(), StandardOpenOption.WRITE);
+    out.write(ByteBuffer.allocate(12));
+    out.close();
+    return t.checkConstructorException(
+        new IllegalArgumentException("Not a leaderboard: " + other.toPath()),
+        "Leaderboard", other.toPath(), 5)
+        && t.checkConstructorException(
+        new IllegalArgumentException("A leaderboard must keep at least one entry, given 0"),
+        "Leaderboard", tempFile(), 0);
+  }
+
+  // tests that a failed write is reported by sync and close instead of hanging them
+  boolean testWriteFails(Tester t) throws IOException, InterruptedException {
+    Leaderboard board = new Leaderboard(tempFile(), 3);
+    board.channel.close();
+    board.submit(12, 12, 6, 4000, 10);
+    board.writer.join();
+    board.submit(12, 12, 6, 3000, 10);
+    return t.checkException(new IOException("Could not write the leaderboard"), board, "sync")
+        && t.checkException(new IOException("Could not write the leaderboard"), board, "close")
+        && t.checkExpect(board.pending.size(), 0)
+        && t.checkExpect(board.bestMillis(12, 12, 6), 3000);
+  }
+}
@@ -0,0 +1,376 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.IntConsumer;
+import tester.*;
+
+// What one move of a FloodItWorld changed. Every cell flooded before the move went
+// from previousColor to color, and the cells the move absorbed became flooded,
+// keeping their color. Only the absorbed cells are stored: sorted, as runs of
+// consecutive indices, each run a varint gap from the end of the last run and a
+// varint length. The flooded cells are found again by walking the flooded region
+class MoveDelta {
+  int color;
+  int previousColor;
+  // the cells absorbed, while the move is being played
+  int[] absorbed = new int[16];
+  int absorbedCount;
+  // the runs, once the move is over
+  byte[] runs;
+
+  MoveDelta(int color, int previousColor) {
+    this.color = color;
+    this.previousColor = previousColor;
+  }
+
+  // EFFECT: records that the move absorbed the cell at the given index
+  void absorb(int index) {
+    if (this.absorbedCount == this.absorbed.length) {
+      this.absorbed = Arrays.copyOf(this.absorbed, this.absorbedCount * 2);
+    }
+    this.absorbed[this.absorbedCount] = index;
+    this.absorbedCount++;
+  }
+
+  // EFFECT: encodes the absorbed cells as runs and drops the list; returns this delta
+  MoveDelta seal() {
+    Arrays.sort(this.absorbed, 0, this.absorbedCount);
+    byte[] out = new byte[16];
+    int length = 0;
+    int end = 0;
+    int i = 0;
+    while (i < this.absorbedCount) {
+      int start = this.absorbed[i];
+      int j = i + 1;
+      while (j < this.absorbedCount && this.absorbed[j] == this.absorbed[j - 1] + 1) {
+        j++;
+      }
+      if (length + 10 > out.length) {
+        out = Arrays.copyOf(out, out.length * 2);
+      }
+      length = putVarint(out, length, start - end);
+      length = putVarint(out, length, j - i);
+      end = start + j - i;
+      i = j;
+    }
+    this.runs = Arrays.copyOf(out, length);
+    this.absorbed = null;
+    return this;
+  }
+
+  // writes the given non-negative value at the given position, seven bits a byte;
+  // returns the position after it
+  static int putVarint(byte[] out, int position, int value) {
+    while (value >= 0x80) {
+      out[position] = (byte) (value | 0x80);
+      value >>>= 7;
+      position++;
+    }
+    out[position] = (byte) value;
+    return position + 1;
+  }
+
+  // EFFECT: floods or unfloods every absorbed cell of the given board
+  void setFlooded(IBoard board, boolean flooded) {
+    if (flooded) {
+      this.forEachAbsorbed(board::makeFlooded);
+    }
+    else {
+      this.forEachAbsorbed(board::makeUnflooded);
+    }
+  }
+
+  // EFFECT: gives the given action the index of every absorbed cell, in order,
+  // decoding the runs
+  void forEachAbsorbed(IntConsumer action) {
+    int position = 0;
+    int end = 0;
+    while (position < this.runs.length) {
+      int gap = 0;
+      int shift = 0;
+      byte b;
+      do {
+        b = this.runs[position];
+        gap |= (b & 0x7F) << shift;
+        shift += 7;
+        position++;
+      } while (b < 0);
+      int length = 0;
+      shift = 0;
+      do {
+        b = this.runs[position];
+        length |= (b & 0x7F) << shift;
+        shift += 7;
+        position++;
+      } while (b < 0);
+      int start = end + gap;
+      end = start + length;
+      for (int index = start; index < end; index++) {
+        action.accept(index);
+      }
+    }
+  }
+}
+
+// The moves of one game that can be undone and redone, in a ring of at most
+// capacity deltas; once it is full, each new move forgets the oldest one.
+// A new move forgets every move undone before it
+class MoveHistory {
+  static final int DEFAULT_CAPACITY = 1000;
+
+  MoveDelta[] ring;
+  // the oldest delta is ring[start]
+  int start;
+  // the moves kept, the first done of them still played
+  int count;
+  int done;
+
+  MoveHistory(int capacity) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("A history must keep at least one move, given "
+          + capacity);
+    }
+    this.ring = new MoveDelta[capacity];
+  }
+
+  // EFFECT: adds the given delta as the latest move, forgetting the undone moves
+  // and, when full, the oldest one
+  void push(MoveDelta delta) {
+    for (int i = this.done; i < this.count; i++) {
+      this.ring[(this.start + i) % this.ring.length] = null;
+    }
+    this.count = this.done;
+    if (this.count == this.ring.length) {
+      this.ring[this.start] = null;
+      this.start = (this.start + 1) % this.ring.length;
+      this.count--;
+    }
+    this.ring[(this.start + this.count) % this.ring.length] = delta;
+    this.count++;
+    this.done = this.count;
+  }
+
+  // the latest move still played, or null if there is none
+  // EFFECT: marks it undone
+  MoveDelta undo() {
+    if (this.done == 0) {
+      return null;
+    }
+    this.done--;
+    return this.ring[(this.start + this.done) % this.ring.length];
+  }
+
+  // the earliest move undone, or null if there is none
+  // EFFECT: marks it played again
+  MoveDelta redo() {
+    if (this.done == this.count) {
+      return null;
+    }
+    this.done++;
+    return this.ring[(this.start + this.done - 1) % this.ring.length];
+  }
+
+  // EFFECT: forgets every move
+  void clear() {
+    Arrays.fill(this.ring, null);
+    this.start = 0;
+    this.count = 0;
+    this.done = 0;
+  }
+
+  // the bytes of runs kept for every move
+  long runBytes() {
+    long total = 0;
+    for (int i = 0; i < this.count; i++) {
+      total += this.ring[(this.start + i) % this.ring.length].runs.length;
+    }
+    return total;
+  }
+}
+
+class ExamplesMoveHistory {
+  // EFFECT: animates the given world until its flood is done
+  void drain(FloodItWorld world) {
+    while (world.flooding) {
+      world.animateFlood();
+    }
+  }
+
+  // the colors and flooded cells of the given world's board
+  String state(FloodItWorld world) {
+    StringBuilder result = new StringBuilder();
+    for (int i = 0; i < world.grid.size(); i++) {
+      result.append(world.grid.colorAt(i)).append(world.grid.isFlooded(i) ? '*' : ' ');
+    }
+    return result.toString();
+  }
+
+  // tests that absorbed cells are stored as runs and restored from them
+  boolean testRuns(Tester t) {
+    MoveDelta delta = new MoveDelta(2, 1);
+    int[] cells = new int[] {300, 5, 6, 7, 301, 100_000, 8};
+    for (int cell : cells) {
+      delta.absorb(cell);
+    }
+    delta.seal();
+    PackedBoard board = new PackedBoard(1000, 101);
+    delta.setFlooded(board, true);
+    boolean flooded = true;
+    int count = 0;
+    for (int i = 0; i < board.size(); i++) {
+      if (board.isFlooded(i)) {
+        count++;
+      }
+    }
+    for (int cell : cells) {
+      flooded = flooded && board.isFlooded(cell);
+    }
+    boolean test1 = t.checkExpect(delta.runs.length, 9)
+        && t.checkExpect(delta.absorbed, null)
+        && t.checkExpect(flooded, true)
+        && t.checkExpect(count, 7);
+    delta.setFlooded(board, false);
+    return test1 && t.checkExpect(board.isFlooded(300), false)
+        && t.checkExpect(board.isFlooded(100_000), false);
+  }
+
+  // tests that undoing every move gets back every earlier board, and redoing them
+  // gets back the last one
+  boolean testUndoRedo(Tester t) {
+    FloodItWorld world = new FloodItWorld(4, 20, 15, new Random(6), true);
+    drain(world);
+    String[] states = new String[11];
+    int[] touched = new int[11];
+    states[0] = state(world);
+    touched[0] = world.tilesTouched;
+    Random moves = new Random(7);
+    for (int m = 1; m <= 10; m++) {
+      world.flood((world.floodColor + 1 + moves.nextInt(3)) % 4);
+      drain(world);
+      states[m] = state(world);
+      touched[m] = world.tilesTouched;
+    }
+    boolean result = t.checkExpect(world.undo(), true);
+    for (int m = 9; m >= 0; m--) {
+      result = result && t.checkExpect(state(world), states[m])
+          && t.checkExpect(world.tilesTouched, touched[m])
+          && t.checkExpect(world.movesMade, m);
+      if (m > 0) {
+        world.undo();
+      }
+    }
+    boolean test2 = t.checkExpect(world.undo(), false);
+    for (int m = 1; m <= 10; m++) {
+      world.redo();
+    }
+    boolean test3 = t.checkExpect(state(world), states[10])
+        && t.checkExpect(world.movesMade, 10)
+        && t.checkExpect(world.redo(), false);
+    return result && test2 && test3;
+  }
+
+  // tests that a new move forgets the undone ones, and that the keys undo and redo
+  boolean testBranch(Tester t) {
+    FloodItWorld world = new FloodItWorld(3, 10, 10, new Random(2), true);
+    drain(world);
+    world.flood((world.floodColor + 1) % 3);
+    drain(world);
+    String afterFirst = state(world);
+    world.flood((world.floodColor + 1) % 3);
+    drain(world);
+    world.onKeyEvent("z");
+    boolean test1 = t.checkExpect(state(world), afterFirst)
+        && t.checkExpect(world.history.done, 1);
+    world.flood((world.floodColor + 2) % 3);
+    boolean test2 = t.checkExpect(world.undo(), false);
+    drain(world);
+    boolean test3 = t.checkExpect(world.history.count, 2)
+        && t.checkExpect(world.redo(), false);
+    world.onKeyEvent("z");
+    world.onKeyEvent("y");
+    boolean test4 = t.checkExpect(world.movesMade, 2)
+        && t.checkExpect(world.history.done, 2);
+    world.onKeyEvent("r");
+    return test1 && test2 && test3 && test4
+        && t.checkExpect(world.history.count, 0);
+  }
+
+  // tests that a finished game can be neither undone nor redone, so a win is
+  // ranked once and a loss cannot be played on
+  boolean testGameOver(Tester t) throws IOException, InterruptedException {
+    File file = File.createTempFile("leaderboard", ".bin");
+    file.deleteOnExit();
+    file.delete();
+    Leaderboard leaderboard = new Leaderboard(file.toPath());
+    FloodItWorld world = new FloodItWorld(3, 3, 3, new Random(4), true);
+    world.useLeaderboard(leaderboard);
+    world.animation = new InstantAnimation();
+    world.moveLimit = 100;
+    world.onTick();
+    while (!world.wonGame) {
+      world.flood((world.floodColor + 1) % 3);
+      world.onTick();
+      world.onTick();
+    }
+    world.onTick();
+    boolean won = t.checkExpect(world.undo(), false)
+        && t.checkExpect(world.redo(), false);
+    world.onKeyEvent("z");
+    world.onKeyEvent("y");
+    world.onTick();
+    boolean test1 = t.checkExpect(leaderboard.best(3, 3, 3).length, 1)
+        && t.checkExpect(world.wonGame, true);
+    leaderboard.close();
+    FloodItWorld lost = new FloodItWorld(3, 6, 6, new Random(4), true);
+    lost.animation = new InstantAnimation();
+    lost.moveLimit = 1;
+    lost.onTick();
+    lost.flood((lost.floodColor + 1) % 3);
+    lost.onTick();
+    lost.onTick();
+    return won && test1 && t.checkExpect(lost.lostGame, true)
+        && t.checkExpect(lost.undo(), false)
+        && t.checkExpect(lost.lostGame, true)
+        && t.checkExpect(lost.movesMade, 1);
+  }
+
+  // tests that the ring keeps only the latest moves
+  boolean testRing(Tester t) {
+    MoveHistory history = new MoveHistory(3);
+    MoveDelta[] deltas = new MoveDelta[5];
+    for (int i = 0; i < 5; i++) {
+      deltas[i] = new MoveDelta(i, 0).seal();
+      history.push(deltas[i]);
+    }
+    boolean test1 = t.checkExpect(history.count, 3)
+        && t.checkExpect(history.undo() == deltas[4], true)
+        && t.checkExpect(history.undo() == deltas[3], true)
+        && t.checkExpect(history.undo() == deltas[2], true)
+        && t.checkExpect(history.undo(), null)
+        && t.checkExpect(history.redo() == deltas[2], true);
+    return test1 && t.checkConstructorException(
+        new IllegalArgumentException("A history must keep at least one move, given 0"),
+        "MoveHistory", 0);
+  }
+
+  // tests that a whole game on a large board keeps a history of a few bytes per cell
+  // absorbed, however many moves it took, and that undo and redo agree
+  boolean testLargeBoard(Tester t) {
+    FloodItWorld world = new FloodItWorld(6, 200, 200, new Random(3), true);
+    world.animation = new InstantAnimation();
+    world.onTick();
+    for (int m = 0; m < 1000 && world.tilesTouched < world.grid.size(); m++) {
+      world.flood(m % 6 == world.floodColor ? (m + 1) % 6 : m % 6);
+      world.onTick();
+    }
+    int before = world.tilesTouched;
+    world.undo();
+    int undone = world.tilesTouched;
+    world.redo();
+    return t.checkExpect(world.history.count > 100, true)
+        && t.checkExpect(world.history.runBytes() < 3 * 200 * 200, true)
+        && t.checkExpect(world.tilesTouched, before)
+        && t.checkExpect(undone <= before, true);
+  }
+}
@@ -0,0 +1,635 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import tester.*;
+
+// One game as it was played: how its board was made, the colors chosen and how it
+// ended. A board made from a seed and the colors played determine the whole game,
+// so a record is enough to play it again
+class GameRecord {
+  // boards drawn from new Random(seed), as calibrated worlds make them
+  static final byte RANDOM_BOARD = 0;
+  // boards hashed from the seed, as BoardGenerator and ChunkedBoard make them
+  static final byte HASHED_BOARD = 1;
+  // flags of a record's flags byte
+  static final int WON = 1;
+  static final int CALIBRATED = 2;
+  // kind, seed, width, height, colors, move limit, time, flags, slack and move count
+  static final int HEADER_BYTES = 1 + 8 + 4 + 4 + 1 + 4 + 4 + 1 + 1 + 4;
+
+  byte boardKind;
+  long seed;
+  int width;
+  int height;
+  int numColors;
+  int moveLimit;
+  // the playing time when the game ended, in milliseconds
+  int timeMillis;
+  boolean won;
+  // whether the move limit came from a DifficultyCalibrator's estimate instead of
+  // FloodItWorld.moveLimitFor, and the slack the calibrator added to it
+  boolean calibrated;
+  int slack;
+  // the colors played, in moves[0, moveCount)
+  byte[] moves = new byte[16];
+  int moveCount;
+
+  GameRecord(byte boardKind, long seed, int width, int height, int numColors, int moveLimit) {
+    this.boardKind = boardKind;
+    this.seed = seed;
+    this.width = width;
+    this.height = height;
+    this.numColors = numColors;
+    this.moveLimit = moveLimit;
+  }
+
+  // the bits each move takes for the given number of colors
+  static int bitsPerMove(int numColors) {
+    return Math.max(1, 32 - Integer.numberOfLeadingZeros(numColors - 1));
+  }
+
+  // EFFECT: adds the given color to the moves played
+  void add(int color) {
+    if (this.moveCount == this.moves.length) {
+      this.moves = Arrays.copyOf(this.moves, this.moveCount * 2);
+    }
+    this.moves[this.moveCount] = (byte) color;
+    this.moveCount++;
+  }
+
+  // the number of bytes this record takes in a log
+  int bytes() {
+    long bits = (long) this.moveCount * bitsPerMove(this.numColors);
+    return HEADER_BYTES + (int) ((bits + 7) >>> 3);
+  }
+
+  // EFFECT: writes this record at the buffer's position, the moves packed
+  // lowest bit first
+  void writeTo(ByteBuffer buffer) {
+    buffer.put(this.boardKind).putLong(this.seed).putInt(this.width).putInt(this.height)
+        .put((byte) this.numColors).putInt(this.moveLimit).putInt(this.timeMillis)
+        .put((byte) ((this.won ? WON : 0) | (this.calibrated ? CALIBRATED : 0)))
+        .put((byte) this.slack).putInt(this.moveCount);
+    int bits = bitsPerMove(this.numColors);
+    int pending = 0;
+    int pendingBits = 0;
+    for (int i = 0; i < this.moveCount; i++) {
+      pending |= this.moves[i] << pendingBits;
+      pendingBits += bits;
+      while (pendingBits >= 8) {
+        buffer.put((byte) pending);
+        pending >>>= 8;
+        pendingBits -= 8;
+      }
+    }
+    if (pendingBits > 0) {
+      buffer.put((byte) pending);
+    }
+  }
+
+  // the record at the buffer's position, or null when the rest of the buffer is
+  // not a whole record or its header is not one a game could have
+  // EFFECT: moves the buffer past the record, or part of the way when it is null
+  static GameRecord readFrom(ByteBuffer buffer) {
+    if (buffer.remaining() < HEADER_BYTES) {
+      return null;
+    }
+    GameRecord record = new GameRecord(buffer.get(), buffer.getLong(), buffer.getInt(),
+        buffer.getInt(), buffer.get(), buffer.getInt());
+    record.timeMillis = buffer.getInt();
+    int flags = buffer.get();
+    record.won = (flags & WON) != 0;
+    record.calibrated = (flags & CALIBRATED) != 0;
+    record.slack = buffer.get() & 0xFF;
+    int count = buffer.getInt();
+    if (!record.fits(count, buffer.remaining())) {
+      return null;
+    }
+    record.moves = new byte[Math.max(1, count)];
+    int bits = bitsPerMove(record.numColors);
+    int mask = (1 << bits) - 1;
+    int pending = 0;
+    int pendingBits = 0;
+    for (int i = 0; i < count; i++) {
+      if (pendingBits < bits) {
+        pending |= (buffer.get() & 0xFF) << pendingBits;
+        pendingBits += 8;
+      }
+      record.moves[i] = (byte) (pending & mask);
+      pending >>>= bits;
+      pendingBits -= bits;
+    }
+    record.moveCount = count;
+    return record;
+  }
+
+  // whether this record's header, with the given number of moves, is one a game
+  // could have, and its moves fit in the given number of bytes
+  boolean fits(int count, int bytes) {
+    return (this.boardKind == RANDOM_BOARD || this.boardKind == HASHED_BOARD)
+        && this.width > 0 && this.height > 0
+        && (long) this.width * this.height <= PackedBoard.MAX_CELLS
+        && this.numColors > 0 && this.numColors <= BoardFile.MAX_COLORS
+        && this.moveLimit >= 0 && this.timeMillis >= 0 && count >= 0
+        && ((long) count * bitsPerMove(this.numColors) + 7) / 8 <= bytes;
+  }
+
+  // the board this game started on
+  PackedBoard board(BoardGenerator generator) {
+    if (this.boardKind == HASHED_BOARD) {
+      return generator.generate(this.width, this.height, this.numColors, this.seed);
+    }
+    return PackedBoard.random(this.width, this.height, this.numColors, new Random(this.seed));
+  }
+}
+
+// Records the games of a FloodItWorld to the end of a log file. Finished records
+// are gathered in a buffer and written to the file's channel when it fills up,
+// on flush and on close. Only worlds whose boards come from a seed are recorded,
+// that is calibrated worlds and worlds with a BoardGenerator or chunked boards;
+// the boards of other worlds cannot be made again
+class MoveLog {
+  // the first bytes of every log file, "FLOG" and a version
+  static final int MAGIC = 0x464C4F47;
+  static final int VERSION = 3;
+  static final int BUFFER_BYTES = 1 << 16;
+
+  FileChannel channel;
+  ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+  // the game being played, or null when it is not recorded
+  GameRecord current;
+  // the games recorded so far
+  int games;
+
+  // opens the log at the given path, starting it if it is empty
+  MoveLog(Path path) throws IOException {
+    this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.APPEND);
+    if (this.channel.size() == 0) {
+      this.buffer.putInt(MAGIC).putInt(VERSION);
+    }
+  }
+
+  // EFFECT: starts recording the game the given world is about to play, dropping
+  // any unfinished game
+  void newGame(FloodItWorld world) {
+    this.current = null;
+    byte kind;
+    if (world.chunks != null || world.generator != null) {
+      kind = GameRecord.HASHED_BOARD;
+    }
+    else if (world.calibrator != null) {
+      kind = GameRecord.RANDOM_BOARD;
+    }
+    else {
+      return;
+    }
+    this.current = new GameRecord(kind, world.seed, world.width, world.height,
+        world.numberOfColors, world.moveLimit);
+    if (world.calibrator != null && world.calibrator.calibrates(world.grid)) {
+      this.current.calibrated = true;
+      this.current.slack = world.calibrator.slack;
+    }
+  }
+
+  // EFFECT: records a move of the given color in the current game
+  void moveMade(int color) {
+    if (this.current != null) {
+      this.current.add(color);
+    }
+  }
+
+  // EFFECT: forgets the last move recorded in the current game, when it is undone
+  void moveUndone() {
+    if (this.current != null && this.current.moveCount > 0) {
+      this.current.moveCount--;
+    }
+  }
+
+  // EFFECT: finishes the current game with the given world's result and time,
+  // and adds it to the log
+  void gameOver(FloodItWorld world) {
+    if (this.current != null) {
+      this.current.won = world.wonGame;
+      this.current.timeMillis = world.timer;
+      this.append(this.current);
+      this.current = null;
+    }
+  }
+
+  // EFFECT: adds the given record to the buffer, writing the buffer out first if
+  // the record does not fit
+  void append(GameRecord record) {
+    int bytes = record.bytes();
+    try {
+      if (bytes > this.buffer.remaining()) {
+        this.flush();
+      }
+      if (bytes > this.buffer.capacity()) {
+        ByteBuffer large = ByteBuffer.allocate(bytes);
+        record.writeTo(large);
+        large.flip();
+        this.writeFully(large);
+      }
+      else {
+        record.writeTo(this.buffer);
+      }
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException("Could not append to the move log", e);
+    }
+    this.games++;
+  }
+
+  // EFFECT: writes everything buffered to the file
+  void flush() throws IOException {
+    this.buffer.flip();
+    this.writeFully(this.buffer);
+    this.buffer.clear();
+  }
+
+  // EFFECT: writes the rest of the given buffer to the file
+  void writeFully(ByteBuffer bytes) throws IOException {
+    while (bytes.hasRemaining()) {
+      this.channel.write(bytes);
+    }
+  }
+
+  // EFFECT: writes everything buffered and closes the file; an unfinished game is dropped
+  void close() throws IOException {
+    this.flush();
+    this.channel.close();
+  }
+}
+
+// What replaying a log found
+class ReplayStats {
+  int games;
+  // games whose result matched the one recorded
+  int verified;
+  // games recorded with a move that could not have been played
+  int badMoves;
+  // games recorded with a result the moves do not lead to, or with a move limit
+  // their board could not have had
+  int wrongResults;
+  // games recorded as faster than the moves could have been played
+  int tooFast;
+  // records cut short or with a header no game could have; the log cannot be
+  // read past one, so there is at most one
+  int corrupt;
+
+  public String toString() {
+    return this.games + " games: " + this.verified + " verified, " + this.badMoves
+        + " with bad moves, " + this.wrongResults + " with wrong results, " + this.tooFast
+        + " too fast, " + this.corrupt + " corrupt";
+  }
+}
+
+// Plays the games of a log again, without drawing them, to check what was recorded.
+// The log is memory-mapped, so reading it costs no copies or system calls per game
+class MoveReplayer {
+  MappedByteBuffer log;
+  BoardGenerator generator;
+  // a move takes at least this long, so a time under this per move cannot be real
+  int minMillisPerMove;
+  // the most slack a calibrated record may claim; lower it to the slack of the
+  // calibrators actually run
+  int maxSlack = DifficultyCalibrator.MAX_SLACK;
+
+  // maps the log at the given path, which must be under 2 GB
+  MoveReplayer(Path path, BoardGenerator generator, int minMillisPerMove) throws IOException {
+    FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+    try {
+      this.log = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    finally {
+      channel.close();
+    }
+    if (this.log.remaining() < 8 || this.log.getInt() != MoveLog.MAGIC
+        || this.log.getInt() != MoveLog.VERSION) {
+      throw new IllegalArgumentException("Not a move log: " + path);
+    }
+    this.generator = generator;
+    this.minMillisPerMove = minMillisPerMove;
+  }
+
+  // plays every game of the log again, up to a corrupt record, such as one torn
+  // off by a crash while it was written
+  // EFFECT: reads the log to its end, or to the corrupt record
+  ReplayStats replayAll() {
+    ReplayStats stats = new ReplayStats();
+    while (this.log.hasRemaining()) {
+      GameRecord record = GameRecord.readFrom(this.log);
+      if (record == null) {
+        stats.corrupt++;
+        break;
+      }
+      this.check(record, stats);
+    }
+    return stats;
+  }
+
+  // EFFECT: plays the given record again and counts what it found in stats
+  void check(GameRecord record, ReplayStats stats) {
+    stats.games++;
+    FloodGame game = new FloodGame(record.board(this.generator), record.numColors);
+    if (!this.limitHolds(record, game)) {
+      stats.wrongResults++;
+      return;
+    }
+    game.moveLimit = record.moveLimit;
+    for (int i = 0; i < record.moveCount; i++) {
+      if (!game.play(record.moves[i])) {
+        stats.badMoves++;
+        return;
+      }
+    }
+    if (record.won != game.won() || (!record.won && !game.lost())) {
+      stats.wrongResults++;
+    }
+    else if ((long) record.timeMillis < (long) record.moveCount * this.minMillisPerMove) {
+      stats.tooFast++;
+    }
+    else {
+      stats.verified++;
+    }
+  }
+
+  // whether the given record's move limit is one its board could have had. The
+  // limit is re-derived, never trusted: a fixed limit must be the formula's, and
+  // a calibrated one, an estimate no longer than the greedy solution plus the
+  // recorded slack, must be at most the greedy solution plus that slack, which
+  // must be at most maxSlack
+  boolean limitHolds(GameRecord record, FloodGame game) {
+    if (!record.calibrated) {
+      return record.moveLimit == game.moveLimit;
+    }
+    if (record.slack > this.maxSlack) {
+      return false;
+    }
+    int greedy = new FloodSolver(game, ForkJoinPool.commonPool()).solveGreedy().moves.length;
+    return record.moveLimit <= greedy + record.slack;
+  }
+
+  // replays a log from the command line:
+  //   java MoveReplayer log [minMillisPerMove]
+  public static void main(String[] args) throws IOException {
+    int minMillis = args.length > 1 ? Integer.parseInt(args[1]) : 0;
+    MoveReplayer replayer = new MoveReplayer(new File(args[0]).toPath(),
+        new BoardGenerator(new ForkJoinPool(1)), minMillis);
+    long start = System.nanoTime();
+    ReplayStats stats = replayer.replayAll();
+    double seconds = (System.nanoTime() - start) / 1e9;
+    System.out.println(stats);
+    System.out.printf("%.0f games/s%n", stats.games / seconds);
+  }
+}
+
+class ExamplesMoveLog {
+  BoardGenerator generator = new BoardGenerator(new ForkJoinPool(1));
+
+  // a fresh, empty log file
+  Path tempLog() {
+    try {
+      File file = File.createTempFile("moves", ".log");
+      file.deleteOnExit();
+      return file.toPath();
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  // plays the given world greedily until the game is over
+  // EFFECT: changes the world
+  void playOut(FloodItWorld world) {
+    world.animation = new InstantAnimation();
+    world.onTick();
+    while (!world.wonGame && !world.lostGame) {
+      int best = (world.floodColor + 1) % world.numberOfColors;
+      world.flood(best);
+      world.onTick();
+      world.onTick();
+    }
+  }
+
+  // an honest record of a game on a hashed 10x10 board, played to its end
+  GameRecord honest() {
+    FloodGame game = new FloodGame(generator.generate(10, 10, 3, 9), 3);
+    GameRecord record = new GameRecord(GameRecord.HASHED_BOARD, 9, 10, 10, 3, game.moveLimit);
+    while (!game.flooded()) {
+      int color = (game.currentColor() + 1) % 3;
+      game.play(color);
+      record.add(color);
+    }
+    record.won = game.won();
+    record.timeMillis = 100_000;
+    return record;
+  }
+
+  // the bytes the given record takes in a log
+  byte[] bytesOf(GameRecord record) {
+    ByteBuffer buffer = ByteBuffer.allocate(record.bytes());
+    record.writeTo(buffer);
+    return buffer.array();
+  }
+
+  // what replaying a log of an honest game and then the given bytes finds
+  ReplayStats replayWith(byte[] tail) throws IOException {
+    Path path = tempLog();
+    MoveLog log = new MoveLog(path);
+    log.append(honest());
+    log.close();
+    Files.write(path, tail, StandardOpenOption.APPEND);
+    return new MoveReplayer(path, generator, 0).replayAll();
+  }
+
+  // tests that moves are packed into as few bits as the colors need and read back
+  boolean testPacking(Tester t) {
+    GameRecord record = new GameRecord(GameRecord.HASHED_BOARD, -5L, 30, 20, 6, 25);
+    Random colors = new Random(3);
+    for (int i = 0; i < 21; i++) {
+      record.add(colors.nextInt(6));
+    }
+    record.timeMillis = 4321;
+    record.won = true;
+    record.calibrated = true;
+    record.slack = 200;
+    ByteBuffer buffer = ByteBuffer.allocate(record.bytes());
+    record.writeTo(buffer);
+    boolean test1 = t.checkExpect(buffer.remaining(), 0)
+        && t.checkExpect(record.bytes(), GameRecord.HEADER_BYTES + 8);
+    buffer.flip();
+    GameRecord back = GameRecord.readFrom(buffer);
+    boolean same = back.moveCount == 21;
+    for (int i = 0; i < 21; i++) {
+      same = same && back.moves[i] == record.moves[i];
+    }
+    return test1
+        && t.checkExpect(same, true)
+        && t.checkExpect(back.seed, -5L)
+        && t.checkExpect(back.moveLimit, 25)
+        && t.checkExpect(back.timeMillis, 4321)
+        && t.checkExpect(back.won, true)
+        && t.checkExpect(back.calibrated, true)
+        && t.checkExpect(back.slack, 200)
+        && t.checkExpect(GameRecord.bitsPerMove(2), 1)
+        && t.checkExpect(GameRecord.bitsPerMove(4), 2)
+        && t.checkExpect(GameRecord.bitsPerMove(5), 3)
+        && t.checkExpect(GameRecord.bitsPerMove(1), 1);
+  }
+
+  // tests recording games of worlds and replaying them from the log
+  boolean testRecordAndReplay(Tester t) throws IOException {
+    Path path = tempLog();
+    MoveLog log = new MoveLog(path);
+    FloodItWorld hashed = new FloodItWorld(4, 14, 10, new Random(1), generator);
+    hashed.recordTo(log);
+    playOut(hashed);
+    hashed.onKeyEvent("r");
+    playOut(hashed);
+    FloodItWorld calibrated = new FloodItWorld(3, 6, 6, new Random(2), false,
+        new DifficultyCalibrator(1_000_000_000L, 1, 4, 64, new ForkJoinPool(1)));
+    calibrated.recordTo(log);
+    playOut(calibrated);
+    FloodItWorld plain = new FloodItWorld(3, new Random(3));
+    plain.recordTo(log);
+    playOut(plain);
+    log.close();
+    ReplayStats stats = new MoveReplayer(path, generator, 0).replayAll();
+    return t.checkExpect(log.games, 3)
+        && t.checkExpect(stats.games, 3)
+        && t.checkExpect(stats.verified, 3);
+  }
+
+  // tests that tampered records are caught
+  boolean testTampered(Tester t) throws IOException {
+    Path path = tempLog();
+    MoveLog log = new MoveLog(path);
+    GameRecord moves = honest();
+    log.append(moves);
+    int limit = moves.moveLimit;
+    GameRecord repeated = new GameRecord(GameRecord.HASHED_BOARD, 9, 10, 10, 3, limit);
+    repeated.add(moves.moves[0]);
+    repeated.add(moves.moves[0]);
+    log.append(repeated);
+    GameRecord claimed = new GameRecord(GameRecord.HASHED_BOARD, 9, 10, 10, 3, limit);
+    claimed.add(moves.moves[0]);
+    claimed.won = true;
+    log.append(claimed);
+    GameRecord quick = new GameRecord(GameRecord.HASHED_BOARD, 9, 10, 10, 3, limit);
+    quick.moves = moves.moves;
+    quick.moveCount = moves.moveCount;
+    quick.won = moves.won;
+    quick.timeMillis = 5;
+    log.append(quick);
+    // a lost game passed off as won by raising its limit, as fixed and as calibrated
+    FloodGame slow = new FloodGame(generator.generate(10, 10, 3, 9), 3);
+    GameRecord raised = new GameRecord(GameRecord.HASHED_BOARD, 9, 10, 10, 3, 1000);
+    while (!slow.flooded()) {
+      int color = slow.movesMade % 5 == 4 ? (slow.currentColor() + 1) % 3
+          : (slow.currentColor() + 2) % 3;
+      slow.play(color);
+      raised.add(color);
+    }
+    raised.won = true;
+    raised.timeMillis = 100_000;
+    log.append(raised);
+    GameRecord calibrated = new GameRecord(GameRecord.HASHED_BOARD, 9, 10, 10, 3, 1000);
+    calibrated.calibrated = true;
+    calibrated.moves = raised.moves;
+    calibrated.moveCount = raised.moveCount;
+    calibrated.won = true;
+    calibrated.timeMillis = 100_000;
+    log.append(calibrated);
+    log.close();
+    ReplayStats stats = new MoveReplayer(path, generator, 50).replayAll();
+    return t.checkExpect(slow.won(), false)
+        && t.checkExpect(stats.games, 6)
+        && t.checkExpect(stats.verified, 1)
+        && t.checkExpect(stats.badMoves, 1)
+        && t.checkExpect(stats.wrongResults, 3)
+        && t.checkExpect(stats.tooFast, 1);
+  }
+
+  // tests that limits are checked by the rule that set them: the fixed formula for
+  // boards too big to calibrate, even in calibrated worlds, and a calibrated limit
+  // with the slack its calibrator added, up to the slack the replayer accepts
+  boolean testCalibratedLimits(Tester t) throws IOException {
+    Path path = tempLog();
+    MoveLog log = new MoveLog(path);
+    FloodItWorld big = new FloodItWorld(3, 70, 70, new Random(4), false,
+        new DifficultyCalibrator());
+    big.recordTo(log);
+    boolean test1 = t.checkExpect(log.current.calibrated, false)
+        && t.checkExpect(log.current.moveLimit, FloodItWorld.moveLimitFor(70, 70, 3));
+    playOut(big);
+    FloodItWorld slack = new FloodItWorld(4, 8, 8, new Random(5), false,
+        new DifficultyCalibrator(1_000_000_000L, 10, 4, 4096, new ForkJoinPool(1)));
+    slack.recordTo(log);
+    boolean test2 = t.checkExpect(log.current.calibrated, true)
+        && t.checkExpect(log.current.slack, 10);
+    playOut(slack);
+    log.close();
+    MoveReplayer strict = new MoveReplayer(path, generator, 0);
+    strict.maxSlack = 9;
+    return test1 && test2
+        && t.checkExpect(new MoveReplayer(path, generator, 0).replayAll().verified, 2)
+        && t.checkExpect(strict.replayAll().wrongResults, 1);
+  }
+
+  // tests that a record torn off the end of a log, or one with a header no game
+  // could have, stops the replay and is counted instead of failing it
+  boolean testCorrupt(Tester t) throws IOException {
+    byte[] whole = bytesOf(honest());
+    byte[] huge = bytesOf(honest());
+    ByteBuffer.wrap(huge).putInt(GameRecord.HEADER_BYTES - 4, Integer.MAX_VALUE);
+    byte[][] tails = {
+        Arrays.copyOf(whole, whole.length - 3),
+        Arrays.copyOf(whole, 5),
+        huge,
+        bytesOf(new GameRecord(GameRecord.HASHED_BOARD, 9, 10, 10, 0, 20)),
+        bytesOf(new GameRecord(GameRecord.HASHED_BOARD, 9, 10, 10, 9, 20)),
+        bytesOf(new GameRecord(GameRecord.HASHED_BOARD, 9, -10, 10, 3, 20)),
+        bytesOf(new GameRecord((byte) 7, 9, 10, 10, 3, 20)),
+        bytesOf(new GameRecord(GameRecord.HASHED_BOARD, 9, 10, 10, 3, -1))};
+    boolean result = true;
+    for (byte[] tail : tails) {
+      ReplayStats stats = replayWith(tail);
+      result = result && stats.games == 1 && stats.verified == 1 && stats.corrupt == 1;
+    }
+    ReplayStats clean = replayWith(whole);
+    return t.checkExpect(result, true)
+        && t.checkExpect(clean.verified, 2)
+        && t.checkExpect(clean.corrupt, 0)
+        && t.checkExpect(clean.toString(), "2 games: 2 verified, 0 with bad moves,"
+            + " 0 with wrong results, 0 too fast, 0 corrupt");
+  }
+
+  // tests that a log is appended to when opened again, and that other files are refused
+  boolean testReopen(Tester t) throws IOException {
+    Path path = tempLog();
+    MoveLog first = new MoveLog(path);
+    first.append(new GameRecord(GameRecord.RANDOM_BOARD, 1, 3, 3, 2, 5));
+    first.close();
+    MoveLog second = new MoveLog(path);
+    second.append(new GameRecord(GameRecord.RANDOM_BOARD, 2, 3, 3, 2, 5));
+    second.close();
+    Path other = tempLog();
+    return t.checkExpect(new MoveReplayer(path, generator, 0).replayAll().games, 2)
+        && t.checkExpect(path.toFile().length(),
+            8L + 2 * GameRecord.HEADER_BYTES)
+        && t.checkConstructorException(
+            new IllegalArgumentException("Not a move log: " + other),
+            "MoveReplayer", other, generator, 0);
+  }
+}
@@ -0,0 +1,333 @@
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLongArray;
+import tester.*;
+
+// Floods like FloodFrontier, but expands a move one breadth-first level at a time
+// across a fork-join pool. Each level's cells are split into one slice per worker;
+// a worker claims the unflooded neighbors of the move's color through an atomic
+// bitset, so every cell is gained exactly once, and appends them to its own buffer.
+// The buffers are joined into the next level. Buffers and levels are kept between
+// moves, so a move allocates nothing per cell. Levels with fewer than PARALLEL_LEVEL
+// cells run on the calling thread, which is all of most moves on small boards.
+// Workers read the board's colors at once, so its colorAt must be safe to call from
+// many threads; a PackedBoard's is, a ChunkedBoard's is not
+class ParallelFloodEngine implements IFloodEngine {
+  static final int PARALLEL_LEVEL = 4096;
+
+  ForkJoinPool pool;
+  int workers;
+  IBoard board;
+  int width;
+  int size;
+  int currentColor;
+  int floodedCount;
+
+  // bit i is set when cell i is flooded; the board's own bits follow after each move
+  AtomicLongArray claimed;
+
+  // the flooded cells touching at least one unflooded cell, in boundary[0, boundarySize)
+  int[] boundary = new int[16];
+  int boundarySize;
+  // the cells of the level being expanded, in level[0, levelSize)
+  int[] level = new int[16];
+  int levelSize;
+  // the cells gained by the current move, in gained[0, gainedSize)
+  int[] gained = new int[16];
+  int gainedSize;
+  // the cells each worker found, in buffers[w][0, bufferSizes[w])
+  int[][] buffers;
+  int[] bufferSizes;
+
+  ParallelFloodEngine(ForkJoinPool pool) {
+    this.pool = pool;
+    this.workers = pool.getParallelism();
+    this.buffers = new int[this.workers][16];
+    this.bufferSizes = new int[this.workers];
+  }
+
+  public void start(IBoard board) {
+    this.board = board;
+    this.width = board.width();
+    this.size = board.size();
+    this.currentColor = board.colorAt(0);
+    this.claimed = new AtomicLongArray((int) (((long) this.size + 63) >>> 6));
+    this.claim(0);
+    this.level[0] = 0;
+    this.levelSize = 1;
+    this.gained[0] = 0;
+    this.gainedSize = 1;
+    this.expandLevels();
+    this.boundarySize = 0;
+    this.finishMove();
+    this.floodedCount = this.gainedSize;
+  }
+
+  public int flood(int color) {
+    if (color == this.currentColor) {
+      return 0;
+    }
+    this.currentColor = color;
+    this.ensureLevel(this.boundarySize);
+    System.arraycopy(this.boundary, 0, this.level, 0, this.boundarySize);
+    this.levelSize = this.boundarySize;
+    this.gainedSize = 0;
+    this.expandLevels();
+    this.finishMove();
+    this.floodedCount += this.gainedSize;
+    return this.gainedSize;
+  }
+
+  public int floodedCount() {
+    return this.floodedCount;
+  }
+
+  public int currentColor() {
+    return this.currentColor;
+  }
+
+  // claims the given cell if no one has yet; returns whether this call claimed it
+  // EFFECT: sets the cell's bit in claimed
+  boolean claim(int index) {
+    int word = index >>> 6;
+    long bit = 1L << index;
+    long seen = this.claimed.get(word);
+    while ((seen & bit) == 0) {
+      long was = this.claimed.compareAndExchange(word, seen, seen | bit);
+      if (was == seen) {
+        return true;
+      }
+      seen = was;
+    }
+    return false;
+  }
+
+  // is the given cell claimed
+  boolean isClaimed(int index) {
+    return (this.claimed.get(index >>> 6) & (1L << index)) != 0;
+  }
+
+  // EFFECT: expands level by level until no cell of the current color is left to
+  // gain, appending every level to gained
+  void expandLevels() {
+    while (this.levelSize > 0) {
+      this.runWorkers(false);
+      this.joinBuffers();
+      if (this.gainedSize + this.levelSize > this.gained.length) {
+        this.gained = Arrays.copyOf(this.gained,
+            Math.max(this.gained.length * 2, this.gainedSize + this.levelSize));
+      }
+      System.arraycopy(this.level, 0, this.gained, this.gainedSize, this.levelSize);
+      this.gainedSize += this.levelSize;
+    }
+  }
+
+  // EFFECT: rebuilds the boundary from its kept cells and the gained ones, and
+  // marks the gained cells flooded on the board
+  void finishMove() {
+    this.ensureLevel(this.boundarySize + this.gainedSize);
+    System.arraycopy(this.boundary, 0, this.level, 0, this.boundarySize);
+    System.arraycopy(this.gained, 0, this.level, this.boundarySize, this.gainedSize);
+    this.levelSize = this.boundarySize + this.gainedSize;
+    this.runWorkers(true);
+    int total = 0;
+    for (int w = 0; w < this.workers; w++) {
+      total += this.bufferSizes[w];
+    }
+    if (total > this.boundary.length) {
+      this.boundary = new int[Math.max(this.boundary.length * 2, total)];
+    }
+    this.boundarySize = 0;
+    for (int w = 0; w < this.workers; w++) {
+      System.arraycopy(this.buffers[w], 0, this.boundary, this.boundarySize,
+          this.bufferSizes[w]);
+      this.boundarySize += this.bufferSizes[w];
+    }
+    for (int i = 0; i < this.gainedSize; i++) {
+      this.board.makeFlooded(this.gained[i]);
+    }
+  }
+
+  // EFFECT: has every worker expand, or filter to the boundary, its slice of the
+  // level into its buffer; on the calling thread when the level is small
+  void runWorkers(boolean filter) {
+    Arrays.fill(this.bufferSizes, 0);
+    if (this.levelSize < PARALLEL_LEVEL || this.workers == 1) {
+      this.work(0, 0, this.levelSize, filter);
+    }
+    else {
+      this.pool.invoke(new LevelTask(this, 0, this.workers, filter));
+    }
+  }
+
+  // EFFECT: has the given worker expand, or filter, the cells level[from, to)
+  void work(int worker, int from, int to, boolean filter) {
+    int[] buffer = this.buffers[worker];
+    int count = 0;
+    int last = this.size - this.width;
+    for (int i = from; i < to; i++) {
+      int index = this.level[i];
+      // a cell adds at most four cells, or itself when filtering
+      if (count + 4 > buffer.length) {
+        buffer = Arrays.copyOf(buffer, buffer.length * 2);
+      }
+      if (filter) {
+        if (this.touchesUnclaimed(index)) {
+          buffer[count] = index;
+          count++;
+        }
+        continue;
+      }
+      int x = index % this.width;
+      if (x != 0 && this.gains(index - 1)) {
+        buffer[count] = index - 1;
+        count++;
+      }
+      if (x != this.width - 1 && this.gains(index + 1)) {
+        buffer[count] = index + 1;
+        count++;
+      }
+      if (index >= this.width && this.gains(index - this.width)) {
+        buffer[count] = index - this.width;
+        count++;
+      }
+      if (index < last && this.gains(index + this.width)) {
+        buffer[count] = index + this.width;
+        count++;
+      }
+    }
+    this.buffers[worker] = buffer;
+    this.bufferSizes[worker] = count;
+  }
+
+  // does the given cell have the current color and was it claimed by this call
+  // EFFECT: may claim the cell
+  boolean gains(int index) {
+    return this.board.colorAt(index) == this.currentColor && this.claim(index);
+  }
+
+  // does the given cell have an unclaimed neighbor
+  boolean touchesUnclaimed(int index) {
+    int x = index % this.width;
+    return (x != 0 && !this.isClaimed(index - 1))
+        || (x != this.width - 1 && !this.isClaimed(index + 1))
+        || (index >= this.width && !this.isClaimed(index - this.width))
+        || (index < this.size - this.width && !this.isClaimed(index + this.width));
+  }
+
+  // EFFECT: makes the workers' buffers the next level
+  void joinBuffers() {
+    int total = 0;
+    for (int w = 0; w < this.workers; w++) {
+      total += this.bufferSizes[w];
+    }
+    this.ensureLevel(total);
+    this.levelSize = 0;
+    for (int w = 0; w < this.workers; w++) {
+      System.arraycopy(this.buffers[w], 0, this.level, this.levelSize, this.bufferSizes[w]);
+      this.levelSize += this.bufferSizes[w];
+    }
+  }
+
+  // EFFECT: makes level hold at least the given number of cells, dropping its contents
+  void ensureLevel(int cells) {
+    if (cells > this.level.length) {
+      this.level = new int[Math.max(this.level.length * 2, cells)];
+    }
+  }
+}
+
+// The workers [from, to) of a ParallelFloodEngine, split in halves until one is left,
+// which works on its slice of the level
+@SuppressWarnings("serial")
+class LevelTask extends RecursiveAction {
+  ParallelFloodEngine engine;
+  int from;
+  int to;
+  boolean filter;
+
+  LevelTask(ParallelFloodEngine engine, int from, int to, boolean filter) {
+    this.engine = engine;
+    this.from = from;
+    this.to = to;
+    this.filter = filter;
+  }
+
+  protected void compute() {
+    if (this.to - this.from == 1) {
+      long cells = this.engine.levelSize;
+      int workers = this.engine.workers;
+      this.engine.work(this.from, (int) (cells * this.from / workers),
+          (int) (cells * this.to / workers), this.filter);
+    }
+    else {
+      int middle = (this.from + this.to) >>> 1;
+      invokeAll(new LevelTask(this.engine, this.from, middle, this.filter),
+          new LevelTask(this.engine, middle, this.to, this.filter));
+    }
+  }
+}
+
+class ExamplesParallelFloodEngine {
+  // a width x height board of two colors, mostly the first, so that one move
+  // floods most of it over a wide frontier; the top-left cell has a third color
+  PackedBoard sponge(int width, int height, long seed) {
+    PackedBoard board = new PackedBoard(width, height);
+    Random rand = new Random(seed);
+    for (int i = 1; i < board.size(); i++) {
+      board.setColor(i, rand.nextInt(10) < 7 ? 0 : 1);
+    }
+    board.setColor(0, 2);
+    board.makeFlooded(0);
+    return board;
+  }
+
+  // tests that the engine agrees with FloodFrontier cell for cell on random games,
+  // on one worker and on several, with levels small enough to run in parallel
+  boolean testMatchesFrontier(Tester t) {
+    ExamplesFloodEngine examples = new ExamplesFloodEngine();
+    boolean result = true;
+    for (int seed = 0; seed < 6; seed++) {
+      ForkJoinPool pool = new ForkJoinPool(1 + seed % 4);
+      result = result && examples.agreesWithFrontier(new ParallelFloodEngine(pool),
+          PackedBoard.random(60, 45, 4, new Random(seed)), 4, seed + 100, 40);
+      pool.shutdown();
+    }
+    return t.checkExpect(result, true);
+  }
+
+  // tests a move big enough to expand in parallel
+  boolean testLargeMove(Tester t) {
+    PackedBoard expected = sponge(700, 500, 3);
+    PackedBoard actual = sponge(700, 500, 3);
+    FloodFrontier frontier = new FloodFrontier();
+    ForkJoinPool pool = new ForkJoinPool(4);
+    ParallelFloodEngine engine = new ParallelFloodEngine(pool);
+    frontier.start(expected);
+    engine.start(actual);
+    int gained = engine.flood(0);
+    boolean test1 = t.checkExpect(gained, frontier.flood(0))
+        && t.checkExpect(gained > 200_000, true)
+        && t.checkExpect(Arrays.equals(actual.flooded, expected.flooded), true)
+        && t.checkExpect(engine.boundarySize, frontier.boundarySize);
+    boolean same = true;
+    for (int m = 1; m < 20 && engine.floodedCount() < 700 * 500; m++) {
+      same = same && engine.flood(m % 2) == frontier.flood(m % 2);
+    }
+    pool.shutdown();
+    return test1 && t.checkExpect(same, true)
+        && t.checkExpect(engine.floodedCount(), 700 * 500)
+        && t.checkExpect(engine.boundarySize, 0);
+  }
+
+  // tests a world flooded by the engine and one animated cell by cell
+  boolean testWorld(Tester t) {
+    ForkJoinPool pool = new ForkJoinPool(2);
+    boolean result = new ExamplesFloodEngine()
+        .agreesWithAnimation(new ParallelFloodEngine(pool));
+    pool.shutdown();
+    return t.checkExpect(result, true);
+  }
+}
@@ -0,0 +1,479 @@
+import java.awt.Color;
+import java.util.Arrays;
+import java.util.Random;
+import tester.*;
+import javalib.worldimages.*;
+
+// Draws the cells in view of a board of any size into an offscreen raster holding
+// the palette color of each pixel, at any zoom: whole pixels per cell zoomed in, or
+// many cells per pixel zoomed out, each such pixel showing the color most of its
+// cells have. Only pixels are visited, never cells out of view, and a zoomed out
+// pixel reads at most SAMPLES x SAMPLES of its cells, so a frame costs in proportion
+// to the pixels shown however large the board is. Between full redraws only the
+// pixels of the cells that changed are written, and only the rectangle written since
+// the last frame is copied into the image javalib draws, each pixel's color looked
+// up by its palette index
+class RasterRenderer {
+  // the most pixels a cell is drawn across
+  static final int MAX_CELL_PIXELS = 32;
+  // the most cells read across and down a pixel to find its majority color
+  static final int SAMPLES = 4;
+
+  int pixelWidth;
+  int pixelHeight;
+  // one of these is 1: the pixels across a cell when zoomed in, and the cells
+  // across a pixel when zoomed out
+  int cellPixels;
+  int pixelCells = 1;
+  // the cells in view, kept on the board
+  Viewport view = new Viewport(0, 0, 0, 0);
+  // the dimensions of the board last drawn
+  int boardWidth;
+  int boardHeight;
+  // the raster, one shade per pixel, row by row: 0 for white, or one more than the
+  // index of the palette color the pixel shows
+  byte[] shades;
+  // the image javalib draws, kept in step with the raster
+  ComputedPixelImage shown;
+  // the palette last drawn with, and the color of each shade: white, then the palette
+  Color[] colors;
+  Color[] shadeColors;
+  // how many sampled cells of a pixel have each color, while finding its majority
+  int[] counts;
+  // the cells recolored since the last frame, in dirty[0, dirtyCount)
+  int[] dirty = new int[64];
+  int dirtyCount;
+  // whether the next frame redraws every pixel
+  boolean redrawAll = true;
+  // the pixels written since they were last copied to the shown image:
+  // [minX, maxX) x [minY, maxY)
+  int minX;
+  int minY;
+  int maxX;
+  int maxY;
+
+  // a raster of the given size in pixels, drawing each cell the given number of
+  // pixels across
+  RasterRenderer(int pixelWidth, int pixelHeight, int cellPixels) {
+    if (pixelWidth < 1 || pixelHeight < 1) {
+      throw new IllegalArgumentException("A raster needs at least one pixel");
+    }
+    this.pixelWidth = pixelWidth;
+    this.pixelHeight = pixelHeight;
+    this.cellPixels = Math.max(1, Math.min(cellPixels, MAX_CELL_PIXELS));
+    this.shades = new byte[pixelWidth * pixelHeight];
+    this.shown = new ComputedPixelImage(pixelWidth, pixelHeight);
+    this.clearWritten();
+  }
+
+  // records that the cell at the given index changed color
+  // EFFECT: adds it to the cells to redraw, or redraws everything next frame once
+  // redrawing the changes would write as many pixels as redrawing everything
+  void cellChanged(int index) {
+    if (this.redrawAll
+        || !this.view.contains(index % this.boardWidth, index / this.boardWidth)) {
+      return;
+    }
+    if (this.dirtyCount >= this.shades.length / (this.cellPixels * this.cellPixels)) {
+      this.invalidate();
+      return;
+    }
+    if (this.dirtyCount == this.dirty.length) {
+      this.dirty = Arrays.copyOf(this.dirty, this.dirtyCount * 2);
+    }
+    this.dirty[this.dirtyCount] = index;
+    this.dirtyCount++;
+  }
+
+  // EFFECT: makes the next frame redraw every pixel
+  void invalidate() {
+    this.redrawAll = true;
+    this.dirtyCount = 0;
+  }
+
+  // the image of the cells in view of the given world
+  // EFFECT: writes the pixels that changed since the last frame, and copies them to
+  // the shown image
+  ComputedPixelImage render(FloodItWorld world) {
+    int width = world.grid.width();
+    int height = world.grid.size() / width;
+    if (width != this.boardWidth || height != this.boardHeight) {
+      this.boardWidth = width;
+      this.boardHeight = height;
+      this.fit(0, 0);
+      this.invalidate();
+    }
+    if (this.redrawAll) {
+      this.drawAll(world);
+    }
+    else {
+      for (int i = 0; i < this.dirtyCount; i++) {
+        this.drawCell(world, this.dirty[i]);
+      }
+    }
+    this.dirtyCount = 0;
+    this.copyWritten();
+    return this.shown;
+  }
+
+  // zooms, on + or - (or =, + without shift), or pans, on an arrow key; true if the
+  // view changed
+  // EFFECT: may change the zoom and view, and redraws everything next frame if so
+  boolean onKey(String key) {
+    boolean changed;
+    if (key.equals("+") || key.equals("=")) {
+      changed = this.zoom(true);
+    }
+    else if (key.equals("-")) {
+      changed = this.zoom(false);
+    }
+    else {
+      changed = this.view.pan(key, this.boardWidth, this.boardHeight);
+    }
+    if (changed) {
+      this.invalidate();
+    }
+    return changed;
+  }
+
+  // doubles the zoom in or halves it out, keeping the same cell in the middle of
+  // the view; true if it changed. Zooming out stops once the whole board is in view
+  // EFFECT: may change the zoom and view
+  boolean zoom(boolean in) {
+    int middleX = this.view.x + this.view.columns / 2;
+    int middleY = this.view.y + this.view.rows / 2;
+    if (in && this.pixelCells > 1) {
+      this.pixelCells /= 2;
+    }
+    else if (in && this.cellPixels < MAX_CELL_PIXELS) {
+      this.cellPixels *= 2;
+    }
+    else if (!in && this.cellPixels > 1) {
+      this.cellPixels /= 2;
+    }
+    else if (!in && (this.view.columns < this.boardWidth
+        || this.view.rows < this.boardHeight)) {
+      this.pixelCells *= 2;
+    }
+    else {
+      return false;
+    }
+    this.fit(middleX, middleY);
+    return true;
+  }
+
+  // EFFECT: sizes the view to the whole cells the raster holds at the current zoom, as
+  // near to centered on the given cell as the board allows
+  void fit(int middleX, int middleY) {
+    Viewport v = this.view;
+    v.columns = (int) Math.min(this.boardWidth,
+        (long) this.pixelWidth * this.pixelCells / this.cellPixels);
+    v.rows = (int) Math.min(this.boardHeight,
+        (long) this.pixelHeight * this.pixelCells / this.cellPixels);
+    v.x = Math.max(0, Math.min(middleX - v.columns / 2, this.boardWidth - v.columns));
+    v.y = Math.max(0, Math.min(middleY - v.rows / 2, this.boardHeight - v.rows));
+  }
+
+  // EFFECT: writes every pixel, the ones past the board's edge in white
+  void drawAll(FloodItWorld world) {
+    this.usePalette(world);
+    Arrays.fill(this.shades, (byte) 0);
+    Viewport v = this.view;
+    if (this.pixelCells == 1) {
+      int span = v.columns * this.cellPixels;
+      for (int row = 0; row < v.rows; row++) {
+        int start = row * this.cellPixels * this.pixelWidth;
+        int first = (v.y + row) * this.boardWidth + v.x;
+        for (int column = 0; column < v.columns; column++) {
+          int left = start + column * this.cellPixels;
+          Arrays.fill(this.shades, left, left + this.cellPixels,
+              this.shadeOf(world.displayColor(first + column)));
+        }
+        // the other pixel rows of these cells are the same
+        for (int line = 1; line < this.cellPixels; line++) {
+          System.arraycopy(this.shades, start, this.shades, start + line * this.pixelWidth,
+              span);
+        }
+      }
+    }
+    else {
+      int across = (v.columns + this.pixelCells - 1) / this.pixelCells;
+      int down = (v.rows + this.pixelCells - 1) / this.pixelCells;
+      for (int py = 0; py < down; py++) {
+        for (int px = 0; px < across; px++) {
+          this.shades[py * this.pixelWidth + px] = this.shadeOf(this.majority(world,
+              v.x + px * this.pixelCells, v.y + py * this.pixelCells));
+        }
+      }
+    }
+    this.redrawAll = false;
+    this.written(0, 0, this.pixelWidth, this.pixelHeight);
+  }
+
+  // EFFECT: writes the pixels showing the cell at the given index, which is in view
+  void drawCell(FloodItWorld world, int index) {
+    int x = index % this.boardWidth - this.view.x;
+    int y = index / this.boardWidth - this.view.y;
+    if (this.pixelCells == 1) {
+      int size = this.cellPixels;
+      byte shade = this.shadeOf(world.displayColor(index));
+      for (int line = 0; line < size; line++) {
+        int left = (y * size + line) * this.pixelWidth + x * size;
+        Arrays.fill(this.shades, left, left + size, shade);
+      }
+      this.written(x * size, y * size, x * size + size, y * size + size);
+    }
+    else {
+      int px = x / this.pixelCells;
+      int py = y / this.pixelCells;
+      this.shades[py * this.pixelWidth + px] = this.shadeOf(this.majority(world,
+          this.view.x + px * this.pixelCells, this.view.y + py * this.pixelCells));
+      this.written(px, py, px + 1, py + 1);
+    }
+  }
+
+  // the color most of the sampled cells of the pixel whose top-left cell is at the
+  // given column and row have, the first to reach that count on ties. At most
+  // SAMPLES x SAMPLES cells, evenly spread, are read
+  int majority(FloodItWorld world, int column, int row) {
+    int right = Math.min(column + this.pixelCells, this.view.x + this.view.columns);
+    int bottom = Math.min(row + this.pixelCells, this.view.y + this.view.rows);
+    int step = Math.max(1, this.pixelCells / SAMPLES);
+    int best = -1;
+    for (int y = row; y < bottom; y += step) {
+      for (int x = column; x < right; x += step) {
+        int color = world.displayColor(y * this.boardWidth + x);
+        this.counts[color]++;
+        if (best == -1 || this.counts[color] > this.counts[best]) {
+          best = color;
+        }
+      }
+    }
+    Arrays.fill(this.counts, 0);
+    return best;
+  }
+
+  // the index of the top-left cell of the given pixel, or -1 when the pixel shows
+  // no cell
+  int cellAt(int px, int py) {
+    if (px < 0 || py < 0 || px >= this.pixelWidth || py >= this.pixelHeight) {
+      return -1;
+    }
+    int x = this.view.x + px * this.pixelCells / this.cellPixels;
+    int y = this.view.y + py * this.pixelCells / this.cellPixels;
+    if (x >= this.view.x + this.view.columns || y >= this.view.y + this.view.rows) {
+      return -1;
+    }
+    return y * this.boardWidth + x;
+  }
+
+  // the palette color the given pixel shows in the given world, or -1 when it shows
+  // no cell
+  int colorAt(FloodItWorld world, int px, int py) {
+    int index = this.cellAt(px, py);
+    if (index == -1 || this.pixelCells == 1) {
+      return index == -1 ? -1 : world.displayColor(index);
+    }
+    this.usePalette(world);
+    return this.majority(world, index % this.boardWidth, index / this.boardWidth);
+  }
+
+  // EFFECT: takes the given world's palette, if it is not the one already taken
+  void usePalette(FloodItWorld world) {
+    int size = world.colors.size();
+    if (this.colors != null && this.colors.length == size
+        && Arrays.asList(this.colors).equals(world.colors)) {
+      return;
+    }
+    this.colors = world.colors.toArray(new Color[size]);
+    this.shadeColors = new Color[size + 1];
+    this.shadeColors[0] = Color.white;
+    System.arraycopy(this.colors, 0, this.shadeColors, 1, size);
+    this.counts = new int[size];
+  }
+
+  // the shade of the given palette color
+  byte shadeOf(int color) {
+    return (byte) (color + 1);
+  }
+
+  // EFFECT: widens the rectangle of pixels written since the last frame to include
+  // [left, right) x [top, bottom)
+  void written(int left, int top, int right, int bottom) {
+    this.minX = Math.min(this.minX, left);
+    this.minY = Math.min(this.minY, top);
+    this.maxX = Math.max(this.maxX, right);
+    this.maxY = Math.max(this.maxY, bottom);
+  }
+
+  // EFFECT: empties the rectangle of pixels written
+  void clearWritten() {
+    this.minX = this.pixelWidth;
+    this.minY = this.pixelHeight;
+    this.maxX = 0;
+    this.maxY = 0;
+  }
+
+  // EFFECT: copies the pixels written since the last frame to the shown image,
+  // reusing the palette's colors
+  void copyWritten() {
+    for (int y = this.minY; y < this.maxY; y++) {
+      int row = y * this.pixelWidth;
+      for (int x = this.minX; x < this.maxX; x++) {
+        this.shown.setPixel(x, y, this.shadeColors[this.shades[row + x]]);
+      }
+    }
+    this.clearWritten();
+  }
+
+  // the RGB value of the given pixel in the raster
+  int rgbAt(int px, int py) {
+    return this.shadeColors[this.shades[py * this.pixelWidth + px]].getRGB();
+  }
+}
+
+class ExamplesRasterRenderer {
+  // a drained world whose board is the given size
+  FloodItWorld world(int width, int height) {
+    FloodItWorld world = new FloodItWorld(3, width, height, new Random(7), true);
+    while (world.flooding) {
+      world.onTick();
+    }
+    return world;
+  }
+
+  // the RGB value the given world shows the cell at the given column and row in
+  int rgbOf(FloodItWorld world, int x, int y) {
+    return world.colors.get(world.displayColor(y * world.width + x)).getRGB();
+  }
+
+  // tests that zoomed in, each cell fills a square of pixels, and the pixels past
+  // the board or the last whole cell are white
+  boolean testZoomedIn(Tester t) {
+    FloodItWorld world = world(5, 4);
+    RasterRenderer raster = new RasterRenderer(30, 10, 4);
+    raster.render(world);
+    boolean cells = true;
+    for (int py = 0; py < 8; py++) {
+      for (int px = 0; px < 20; px++) {
+        cells = cells && raster.rgbAt(px, py) == rgbOf(world, px / 4, py / 4);
+      }
+    }
+    return t.checkExpect(cells, true)
+        && t.checkExpect(raster.view.columns, 5)
+        && t.checkExpect(raster.view.rows, 2)
+        && t.checkExpect(raster.rgbAt(25, 0), Color.white.getRGB())
+        && t.checkExpect(raster.rgbAt(3, 9), Color.white.getRGB())
+        && t.checkExpect(raster.shown.getPixel(6, 7).getRGB(), rgbOf(world, 1, 1));
+  }
+
+  // tests that zoomed out, each pixel shows the color most of its cells have
+  boolean testZoomedOut(Tester t) {
+    FloodItWorld world = world(8, 8);
+    RasterRenderer raster = new RasterRenderer(2, 2, 1);
+    raster.render(world);
+    raster.onKey("-");
+    raster.onKey("-");
+    raster.render(world);
+    boolean result = true;
+    for (int py = 0; py < 2; py++) {
+      for (int px = 0; px < 2; px++) {
+        int[] counts = new int[3];
+        for (int y = py * 4; y < py * 4 + 4; y++) {
+          for (int x = px * 4; x < px * 4 + 4; x++) {
+            counts[world.displayColor(y * 8 + x)]++;
+          }
+        }
+        int shown = raster.colorAt(world, px, py);
+        result = result && raster.rgbAt(px, py) == world.colors.get(shown).getRGB();
+        for (int c = 0; c < 3; c++) {
+          result = result && counts[c] <= counts[shown];
+        }
+      }
+    }
+    return t.checkExpect(raster.pixelCells, 4)
+        && t.checkExpect(result, true)
+        && t.checkExpect(raster.onKey("-"), false);
+  }
+
+  // tests that a frame only writes the pixels of the cells that changed, and only
+  // cells in view
+  boolean testCulled(Tester t) {
+    FloodItWorld world = world(40, 40);
+    RasterRenderer raster = new RasterRenderer(20, 20, 2);
+    raster.render(world);
+    raster.cellChanged(39 * 40 + 39);
+    boolean outside = raster.dirtyCount == 0;
+    world.grid.setColor(41, (world.grid.colorAt(41) + 1) % 3);
+    raster.cellChanged(41);
+    Arrays.fill(raster.shades, (byte) -1);
+    raster.render(world);
+    int touched = 0;
+    for (int i = 0; i < raster.shades.length; i++) {
+      if (raster.shades[i] != -1) {
+        touched++;
+      }
+    }
+    return t.checkExpect(outside, true)
+        && t.checkExpect(touched, 4)
+        && t.checkExpect(raster.rgbAt(2, 2), rgbOf(world, 1, 1))
+        && t.checkExpect(raster.shown.getPixel(2, 2).getRGB(), rgbOf(world, 1, 1));
+  }
+
+  // tests that clicks and pans go through the zoom and the view
+  boolean testCellAt(Tester t) {
+    FloodItWorld world = world(40, 30);
+    RasterRenderer raster = new RasterRenderer(100, 50, 10);
+    raster.render(world);
+    boolean test1 = t.checkExpect(raster.cellAt(25, 14), 1 * 40 + 2)
+        && t.checkExpect(raster.cellAt(100, 0), -1);
+    raster.onKey("right");
+    raster.onKey("down");
+    boolean test2 = t.checkExpect(raster.view.x, 5)
+        && t.checkExpect(raster.view.y, 2)
+        && t.checkExpect(raster.cellAt(0, 0), 2 * 40 + 5);
+    raster.onKey("+");
+    boolean test3 = t.checkExpect(raster.cellPixels, 20)
+        && t.checkExpect(raster.view.columns, 5)
+        && t.checkExpect(raster.view.x, 8)
+        && t.checkExpect(raster.cellAt(45, 0), 3 * 40 + 10);
+    for (int i = 0; i < 20; i++) {
+      raster.onKey("right");
+    }
+    return test1 && test2 && test3 && t.checkExpect(raster.view.x, 35)
+        && t.checkExpect(raster.onKey("right"), false);
+  }
+
+  // tests a world drawn through a raster: moves redraw it and clicks flood the
+  // color of the pixel clicked
+  boolean testWorld(Tester t) {
+    FloodItWorld world = world(60, 60);
+    world.drawRaster(120, 120, 2);
+    world.makeScene();
+    // the first pixel, along the diagonal, not showing the flooded color
+    int at = 0;
+    while (world.renderer.raster.colorAt(world, at, at) == world.floodColor) {
+      at++;
+    }
+    int color = world.renderer.raster.colorAt(world, at, at);
+    world.onMouseClicked(new Posn(35 + at, 35 + at));
+    while (world.flooding) {
+      world.onTick();
+    }
+    world.makeScene();
+    boolean drawn = true;
+    for (int y = 0; y < 60; y++) {
+      for (int x = 0; x < 60; x++) {
+        drawn = drawn
+            && world.renderer.raster.rgbAt(x * 2, y * 2) == rgbOf(world, x, y)
+            && world.renderer.raster.shown.getPixel(x * 2 + 1, y * 2 + 1).getRGB()
+                == rgbOf(world, x, y);
+      }
+    }
+    world.onKeyEvent("-");
+    return t.checkExpect(world.floodColor, color)
+        && t.checkExpect(world.movesMade, 1)
+        && t.checkExpect(drawn, true)
+        && t.checkExpect(world.renderer.raster.cellPixels, 1);
+  }
+}
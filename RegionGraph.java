@@ -0,0 +1,419 @@
+import java.util.Arrays;
+import java.util.Random;
+import tester.*;
+
+// The board collapsed into its regions: the largest connected areas of a single color.
+// Regions are numbered in row-major order of their first cell, so the region of the
+// top-left cell is 0. Two regions are neighbors when any of their cells touch.
+// With few colors a board has many times fewer regions than cells
+class RegionGraph {
+  int width;
+  int height;
+  int regionCount;
+  // the number of palette colors used on the board (one more than the largest)
+  int colorCount;
+
+  // the region of every cell, by board index
+  int[] regionOf;
+  // the palette color and number of cells of every region
+  int[] regionColor;
+  int[] regionSize;
+
+  // the cells of region r are members[memberStart[r], memberStart[r + 1])
+  int[] memberStart;
+  int[] members;
+
+  // the neighbors of region r are neighbors[neighborStart[r], neighborStart[r + 1])
+  int[] neighborStart;
+  int[] neighbors;
+
+  // labels the regions of the given board and links neighboring regions
+  RegionGraph(IBoard board) {
+    this.width = board.width();
+    this.height = board.height();
+    this.label(board);
+    this.collectMembers();
+    this.link();
+  }
+
+  // EFFECT: fills regionOf, regionColor, regionSize and colorCount, using a
+  // union-find over the board in one scanline pass
+  void label(IBoard board) {
+    int size = board.size();
+    int[] parent = new int[size];
+    int maxColor = 0;
+    for (int i = 0; i < size; i++) {
+      int c = board.colorAt(i);
+      maxColor = Math.max(maxColor, c);
+      parent[i] = i;
+      if (i % this.width != 0 && board.colorAt(i - 1) == c) {
+        union(parent, i, i - 1);
+      }
+      if (i >= this.width && board.colorAt(i - this.width) == c) {
+        union(parent, i, i - this.width);
+      }
+    }
+    this.colorCount = maxColor + 1;
+
+    // every parent is at or before its child, so one forward pass points each cell
+    // straight at its root, and a second replaces roots by region numbers in place
+    for (int i = 0; i < size; i++) {
+      parent[i] = parent[parent[i]];
+    }
+    int count = 0;
+    for (int i = 0; i < size; i++) {
+      int root = parent[i];
+      if (root == i) {
+        parent[i] = count;
+        count++;
+      }
+      else {
+        parent[i] = parent[root];
+      }
+    }
+    this.regionOf = parent;
+    this.regionCount = count;
+    this.regionColor = new int[count];
+    this.regionSize = new int[count];
+    for (int i = 0; i < size; i++) {
+      this.regionColor[parent[i]] = board.colorAt(i);
+      this.regionSize[parent[i]]++;
+    }
+  }
+
+  // the root of the given cell's set, halving the path on the way
+  // EFFECT: may shorten the paths of the cells visited
+  static int find(int[] parent, int i) {
+    while (parent[i] != i) {
+      parent[i] = parent[parent[i]];
+      i = parent[i];
+    }
+    return i;
+  }
+
+  // EFFECT: merges the sets of the two given cells, keeping the smaller root,
+  // so that no cell's parent ever comes after it
+  static void union(int[] parent, int a, int b) {
+    int rootA = find(parent, a);
+    int rootB = find(parent, b);
+    if (rootA < rootB) {
+      parent[rootB] = rootA;
+    }
+    else if (rootB < rootA) {
+      parent[rootA] = rootB;
+    }
+  }
+
+  // EFFECT: fills memberStart and members with the cells of every region
+  void collectMembers() {
+    this.memberStart = new int[this.regionCount + 1];
+    for (int r = 0; r < this.regionCount; r++) {
+      this.memberStart[r + 1] = this.memberStart[r] + this.regionSize[r];
+    }
+    this.members = new int[this.regionOf.length];
+    int[] next = Arrays.copyOf(this.memberStart, this.regionCount);
+    for (int i = 0; i < this.regionOf.length; i++) {
+      int r = this.regionOf[i];
+      this.members[next[r]] = i;
+      next[r]++;
+    }
+  }
+
+  // EFFECT: fills neighborStart and neighbors with every pair of touching regions.
+  // Pairs are deduplicated in a hash set, which stays small because a planar
+  // graph has fewer than three edges per region
+  void link() {
+    LongSet pairs = new LongSet(this.regionCount * 4);
+    for (int i = 0; i < this.regionOf.length; i++) {
+      int r = this.regionOf[i];
+      if (i % this.width != this.width - 1 && this.regionOf[i + 1] != r) {
+        pairs.add(pairKey(r, this.regionOf[i + 1]));
+      }
+      if (i < this.regionOf.length - this.width && this.regionOf[i + this.width] != r) {
+        pairs.add(pairKey(r, this.regionOf[i + this.width]));
+      }
+    }
+    this.neighborStart = new int[this.regionCount + 1];
+    for (long key : pairs.keys) {
+      if (key != 0) {
+        this.neighborStart[(int) (key >>> 32) + 1]++;
+        this.neighborStart[(int) key + 1]++;
+      }
+    }
+    for (int r = 0; r < this.regionCount; r++) {
+      this.neighborStart[r + 1] += this.neighborStart[r];
+    }
+    this.neighbors = new int[this.neighborStart[this.regionCount]];
+    int[] next = Arrays.copyOf(this.neighborStart, this.regionCount);
+    for (long key : pairs.keys) {
+      if (key != 0) {
+        int a = (int) (key >>> 32);
+        int b = (int) key;
+        this.neighbors[next[a]] = b;
+        next[a]++;
+        this.neighbors[next[b]] = a;
+        next[b]++;
+      }
+    }
+  }
+
+  // a key for the unordered pair of two different regions, never 0
+  static long pairKey(int a, int b) {
+    return a < b ? ((long) a << 32) | b : ((long) b << 32) | a;
+  }
+}
+
+// An open-addressing set of non-zero longs, which only grows
+class LongSet {
+  long[] keys;
+  int count;
+
+  LongSet(int expected) {
+    this.keys = new long[Integer.highestOneBit(Math.max(8, expected) * 2 - 1) * 2];
+  }
+
+  // EFFECT: adds the given non-zero key if it is not already in the set
+  void add(long key) {
+    if (this.count * 2 >= this.keys.length) {
+      long[] old = this.keys;
+      this.keys = new long[old.length * 2];
+      this.count = 0;
+      for (long k : old) {
+        if (k != 0) {
+          this.add(k);
+        }
+      }
+    }
+    int mask = this.keys.length - 1;
+    int slot = (int) (key * 0x9E3779B97F4A7C15L >>> 32) & mask;
+    while (this.keys[slot] != 0) {
+      if (this.keys[slot] == key) {
+        return;
+      }
+      slot = (slot + 1) & mask;
+    }
+    this.keys[slot] = key;
+    this.count++;
+  }
+}
+
+// Floods whole regions at once on a RegionGraph built when the board starts.
+// The unflooded regions touching the flooded area are kept in one list per color,
+// so a move absorbs exactly the list of its color, and the flooded cell count is
+// a running sum of region sizes, as is the number of cells in each list
+class RegionFloodEngine implements IFloodEngine {
+  IBoard board;
+  RegionGraph graph;
+  int currentColor;
+  int floodedCount;
+
+  boolean[] regionFlooded;
+  // whether a region is in one of the frontier lists
+  boolean[] inFrontier;
+  // the unflooded regions of each color touching the flooded area
+  int[][] frontier;
+  int[] frontierSize;
+  // the number of cells in the regions of each frontier list
+  int[] frontierCells;
+
+  public void start(IBoard board) {
+    this.board = board;
+    this.graph = new RegionGraph(board);
+    this.currentColor = board.colorAt(0);
+    this.floodedCount = 0;
+    this.regionFlooded = new boolean[this.graph.regionCount];
+    this.inFrontier = new boolean[this.graph.regionCount];
+    this.frontier = new int[this.graph.colorCount][8];
+    this.frontierSize = new int[this.graph.colorCount];
+    this.frontierCells = new int[this.graph.colorCount];
+    this.absorb(0);
+  }
+
+  public int flood(int color) {
+    if (color == this.currentColor) {
+      return 0;
+    }
+    this.currentColor = color;
+    if (color >= this.frontier.length) {
+      return 0;
+    }
+    int before = this.floodedCount;
+    // regions of one color never touch each other, so absorbing this list
+    // cannot add any region of the same color to it
+    int[] regions = this.frontier[color];
+    int count = this.frontierSize[color];
+    this.frontierSize[color] = 0;
+    this.frontierCells[color] = 0;
+    for (int i = 0; i < count; i++) {
+      this.absorb(regions[i]);
+    }
+    return this.floodedCount - before;
+  }
+
+  public int floodedCount() {
+    return this.floodedCount;
+  }
+
+  public int currentColor() {
+    return this.currentColor;
+  }
+
+  // the number of cells choosing the given color would flood right now
+  int gainOf(int color) {
+    if (color == this.currentColor || color < 0 || color >= this.frontierCells.length) {
+      return 0;
+    }
+    return this.frontierCells[color];
+  }
+
+  // EFFECT: floods the given region and its cells, and adds its unflooded
+  // neighbors to the frontier
+  void absorb(int region) {
+    RegionGraph g = this.graph;
+    this.regionFlooded[region] = true;
+    this.inFrontier[region] = false;
+    this.floodedCount += g.regionSize[region];
+    for (int m = g.memberStart[region]; m < g.memberStart[region + 1]; m++) {
+      this.board.makeFlooded(g.members[m]);
+    }
+    for (int n = g.neighborStart[region]; n < g.neighborStart[region + 1]; n++) {
+      int next = g.neighbors[n];
+      if (!this.regionFlooded[next] && !this.inFrontier[next]) {
+        this.inFrontier[next] = true;
+        int c = g.regionColor[next];
+        if (this.frontierSize[c] == this.frontier[c].length) {
+          this.frontier[c] = Arrays.copyOf(this.frontier[c], this.frontierSize[c] * 2);
+        }
+        this.frontier[c][this.frontierSize[c]] = next;
+        this.frontierSize[c]++;
+        this.frontierCells[c] += g.regionSize[next];
+      }
+    }
+  }
+}
+
+class ExamplesRegionGraph {
+  // a 4x3 board laid out as
+  //   0 0 1 2
+  //   1 0 1 2
+  //   1 1 2 0
+  PackedBoard board;
+  RegionGraph graph;
+
+  // resets the board and graph for testing purposes
+  void reset() {
+    int[] layout = new int[] {0, 0, 1, 2, 1, 0, 1, 2, 1, 1, 2, 0};
+    board = new PackedBoard(4, 3);
+    for (int i = 0; i < layout.length; i++) {
+      board.setColor(i, layout[i]);
+    }
+    graph = new RegionGraph(board);
+  }
+
+  // the neighbors of the given region, sorted
+  int[] neighborsOf(int region) {
+    int[] result = Arrays.copyOfRange(graph.neighbors, graph.neighborStart[region],
+        graph.neighborStart[region + 1]);
+    Arrays.sort(result);
+    return result;
+  }
+
+  // tests labeling the regions of the board
+  boolean testLabel(Tester t) {
+    reset();
+    return t.checkExpect(graph.regionCount, 6)
+        && t.checkExpect(graph.colorCount, 3)
+        && t.checkExpect(graph.regionOf,
+            new int[] {0, 0, 1, 2, 3, 0, 1, 2, 3, 3, 4, 5})
+        && t.checkExpect(graph.regionColor, new int[] {0, 1, 2, 1, 2, 0})
+        && t.checkExpect(graph.regionSize, new int[] {3, 2, 2, 3, 1, 1});
+  }
+
+  // tests that a region's members are exactly its cells
+  boolean testMembers(Tester t) {
+    reset();
+    return t.checkExpect(Arrays.copyOfRange(graph.members, graph.memberStart[3],
+        graph.memberStart[4]), new int[] {4, 8, 9})
+        && t.checkExpect(graph.memberStart[6], 12);
+  }
+
+  // tests linking touching regions
+  boolean testNeighbors(Tester t) {
+    reset();
+    return t.checkExpect(neighborsOf(0), new int[] {1, 3})
+        && t.checkExpect(neighborsOf(1), new int[] {0, 2, 4})
+        && t.checkExpect(neighborsOf(2), new int[] {1, 5})
+        && t.checkExpect(neighborsOf(3), new int[] {0, 4})
+        && t.checkExpect(neighborsOf(4), new int[] {1, 3, 5})
+        && t.checkExpect(neighborsOf(5), new int[] {2, 4});
+  }
+
+  // tests that a U-shaped region is labeled as one region
+  boolean testLabelMergesLateJoins(Tester t) {
+    PackedBoard u = new PackedBoard(3, 2);
+    int[] layout = new int[] {0, 1, 0, 0, 0, 0};
+    for (int i = 0; i < layout.length; i++) {
+      u.setColor(i, layout[i]);
+    }
+    RegionGraph g = new RegionGraph(u);
+    return t.checkExpect(g.regionCount, 2)
+        && t.checkExpect(g.regionOf, new int[] {0, 1, 0, 0, 0, 0})
+        && t.checkExpect(g.regionSize, new int[] {5, 1});
+  }
+
+  // tests flooding whole regions with the region engine
+  boolean testRegionFlood(Tester t) {
+    reset();
+    RegionFloodEngine engine = new RegionFloodEngine();
+    engine.start(board);
+    boolean test1 = t.checkExpect(engine.floodedCount(), 3)
+        && t.checkExpect(engine.gainOf(1), 5)
+        && t.checkExpect(engine.gainOf(2), 0)
+        && t.checkExpect(engine.gainOf(0), 0);
+    boolean test2 = t.checkExpect(engine.flood(1), 5)
+        && t.checkExpect(engine.floodedCount(), 8)
+        && t.checkExpect(board.isFlooded(9), true)
+        && t.checkExpect(engine.gainOf(2), 3);
+    boolean test3 = t.checkExpect(engine.flood(2), 3)
+        && t.checkExpect(engine.flood(0), 1)
+        && t.checkExpect(engine.floodedCount(), 12)
+        && t.checkExpect(engine.flood(5), 0);
+    return test1 && test2 && test3;
+  }
+
+  // tests that the region engine floods exactly like the cell frontier
+  boolean testMatchesFrontier(Tester t) {
+    boolean result = true;
+    for (int seed = 0; seed < 5; seed++) {
+      PackedBoard byRegion = PackedBoard.random(30, 20, 3, new Random(seed));
+      PackedBoard byCell = PackedBoard.random(30, 20, 3, new Random(seed));
+      RegionFloodEngine regions = new RegionFloodEngine();
+      FloodFrontier cells = new FloodFrontier();
+      regions.start(byRegion);
+      cells.start(byCell);
+      Random moves = new Random(seed);
+      for (int m = 0; m < 40; m++) {
+        int color = moves.nextInt(3);
+        result = result && regions.flood(color) == cells.flood(color)
+            && regions.floodedCount() == cells.floodedCount();
+      }
+      for (int i = 0; i < byCell.size(); i++) {
+        result = result && byRegion.isFlooded(i) == byCell.isFlooded(i);
+      }
+    }
+    return t.checkExpect(result, true);
+  }
+
+  // tests a game played on whole regions
+  boolean testRegionWorld(Tester t) {
+    FloodItWorld byRegion = new FloodItWorld(3, 16, 16, new Random(5), new RegionFloodEngine());
+    FloodItWorld byCell = new FloodItWorld(3, 16, 16, new Random(5), new FloodFrontier());
+    boolean result = t.checkExpect(byRegion.tilesTouched, byCell.tilesTouched);
+    for (int m = 0; m < 10; m++) {
+      byRegion.flood(m % 3);
+      byCell.flood(m % 3);
+      result = result && t.checkExpect(byRegion.tilesTouched, byCell.tilesTouched);
+    }
+    return result;
+  }
+}
@@ -0,0 +1,447 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Random;
+import tester.*;
+
+// Floods a PackedBoard a row span at a time. A move fills maximal horizontal runs of
+// unflooded cells of its color, marking each run flooded with whole-word bit masks,
+// and only the runs themselves go on its stack: the rows above and below a run are
+// scanned for more runs over the same columns. Runs of a color are found eight cells
+// at a time, reading the colors as little-endian longs and comparing them against
+// the color repeated in every byte (SWAR), so long runs cost a few loads per row.
+// Between moves the engine keeps the runs of flooded cells that may still touch an
+// unflooded cell, as FloodFrontier keeps single cells
+class ScanlineFloodEngine implements IFloodEngine {
+  static final VarHandle LONGS =
+      MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+  static final long ONES = 0x0101010101010101L;
+  static final long HIGHS = 0x8080808080808080L;
+
+  PackedBoard board;
+  byte[] colors;
+  long[] flooded;
+  int width;
+  int currentColor;
+  int floodedCount;
+  // currentColor in every byte
+  long pattern;
+
+  // the runs of flooded cells that may touch an unflooded cell: run k is the cells
+  // boundary[2k] up to but excluding boundary[2k + 1], all in one row
+  int[] boundary = new int[16];
+  int boundarySize;
+  // the runs gained by the current move, laid out the same way
+  int[] gained = new int[16];
+  int gainedSize;
+  // the indices in gained of the runs whose neighbor rows are not yet scanned
+  int[] stack = new int[16];
+  int stackSize;
+
+  public void start(IBoard board) {
+    // instanceof is acceptable because the engine scans a PackedBoard's arrays directly
+    if (!(board instanceof PackedBoard)) {
+      throw new IllegalArgumentException("A scanline engine floods only packed boards");
+    }
+    this.board = (PackedBoard) board;
+    this.colors = this.board.colors;
+    this.flooded = this.board.flooded;
+    this.width = this.board.width;
+    this.boundarySize = 0;
+    this.gainedSize = 0;
+    this.setColor(this.colors[0]);
+    this.board.makeUnflooded(0);
+    this.fill(0);
+    this.drain();
+    this.floodedCount = this.finishMove();
+  }
+
+  public int flood(int color) {
+    if (color == this.currentColor) {
+      return 0;
+    }
+    this.setColor(color);
+    this.gainedSize = 0;
+    for (int k = 0; k < this.boundarySize; k += 2) {
+      int from = this.boundary[k];
+      int to = this.boundary[k + 1];
+      if (from % this.width != 0) {
+        this.fillIfOpen(from - 1);
+      }
+      if (to % this.width != 0) {
+        this.fillIfOpen(to);
+      }
+      this.scanNeighbors(from, to);
+      this.drain();
+    }
+    int gain = this.finishMove();
+    this.floodedCount += gain;
+    return gain;
+  }
+
+  public int floodedCount() {
+    return this.floodedCount;
+  }
+
+  public int currentColor() {
+    return this.currentColor;
+  }
+
+  // EFFECT: makes the given color the one runs are filled with
+  void setColor(int color) {
+    this.currentColor = color;
+    this.pattern = (color & 0xFFL) * ONES;
+  }
+
+  // EFFECT: fills the run through the given cell if it is unflooded and has the
+  // current color
+  void fillIfOpen(int index) {
+    if (this.colors[index] == this.currentColor && !this.board.isFlooded(index)) {
+      this.fill(index);
+    }
+  }
+
+  // EFFECT: floods the maximal run of unflooded cells of the current color through
+  // the given cell, which is one, and pushes it to be scanned
+  void fill(int index) {
+    int rowStart = index - index % this.width;
+    int rowEnd = rowStart + this.width;
+    int from = Math.max(this.sameColorStart(index, rowStart),
+        this.floodedBefore(index, rowStart));
+    int to = Math.min(this.sameColorEnd(index, rowEnd), this.nextFlooded(index, rowEnd));
+    this.setFlooded(from, to);
+    if (this.gainedSize + 2 > this.gained.length) {
+      this.gained = Arrays.copyOf(this.gained, this.gained.length * 2);
+    }
+    this.gained[this.gainedSize] = from;
+    this.gained[this.gainedSize + 1] = to;
+    if (this.stackSize == this.stack.length) {
+      this.stack = Arrays.copyOf(this.stack, this.stackSize * 2);
+    }
+    this.stack[this.stackSize] = this.gainedSize;
+    this.stackSize++;
+    this.gainedSize += 2;
+  }
+
+  // EFFECT: fills from the rows next to every run on the stack until it is empty
+  void drain() {
+    while (this.stackSize > 0) {
+      this.stackSize--;
+      int k = this.stack[this.stackSize];
+      this.scanNeighbors(this.gained[k], this.gained[k + 1]);
+    }
+  }
+
+  // EFFECT: fills every run of unflooded cells of the current color that touches
+  // the cells from up to to from the row above or below
+  void scanNeighbors(int from, int to) {
+    if (from >= this.width) {
+      this.scanRow(from - this.width, to - this.width);
+    }
+    if (to + this.width <= this.colors.length) {
+      this.scanRow(from + this.width, to + this.width);
+    }
+  }
+
+  // EFFECT: fills every run of unflooded cells of the current color that starts
+  // in or passes through the cells from up to to of one row
+  void scanRow(int from, int to) {
+    int index = from;
+    while (index < to) {
+      index = this.nextOfColor(index, to);
+      if (index == to) {
+        return;
+      }
+      if (this.board.isFlooded(index)) {
+        index = this.nextUnflooded(index, to);
+      }
+      else {
+        this.fill(index);
+        index = this.gained[this.gainedSize - 1];
+      }
+    }
+  }
+
+  // the eight colors starting at the given cell, in one long
+  long colorsAt(int index) {
+    return (long) LONGS.get(this.colors, index);
+  }
+
+  // the first cell from the given one, before limit, that has the current color;
+  // limit if there is none
+  int nextOfColor(int index, int limit) {
+    while (index + 8 <= limit) {
+      long x = this.colorsAt(index) ^ this.pattern;
+      // the high bit of each byte of x that is zero, and maybe of later bytes
+      long zeros = (x - ONES) & ~x & HIGHS;
+      if (zeros != 0) {
+        return index + (Long.numberOfTrailingZeros(zeros) >>> 3);
+      }
+      index += 8;
+    }
+    while (index < limit && this.colors[index] != this.currentColor) {
+      index++;
+    }
+    return index;
+  }
+
+  // the end of the run of the current color starting at the given cell, at most limit
+  int sameColorEnd(int index, int limit) {
+    while (index + 8 <= limit) {
+      long x = this.colorsAt(index) ^ this.pattern;
+      if (x != 0) {
+        return index + (Long.numberOfTrailingZeros(x) >>> 3);
+      }
+      index += 8;
+    }
+    while (index < limit && this.colors[index] == this.currentColor) {
+      index++;
+    }
+    return index;
+  }
+
+  // the start of the run of the current color ending at the given cell, at least limit
+  int sameColorStart(int index, int limit) {
+    index++;
+    while (index - 8 >= limit) {
+      long x = this.colorsAt(index - 8) ^ this.pattern;
+      if (x != 0) {
+        return index - (Long.numberOfLeadingZeros(x) >>> 3);
+      }
+      index -= 8;
+    }
+    while (index > limit && this.colors[index - 1] == this.currentColor) {
+      index--;
+    }
+    return index;
+  }
+
+  // the first flooded cell from the given one, before limit; limit if there is none
+  int nextFlooded(int index, int limit) {
+    int word = index >>> 6;
+    long bits = this.flooded[word] & (-1L << index);
+    while (bits == 0) {
+      word++;
+      if ((long) word << 6 >= limit) {
+        return limit;
+      }
+      bits = this.flooded[word];
+    }
+    return Math.min(limit, (word << 6) + Long.numberOfTrailingZeros(bits));
+  }
+
+  // the first unflooded cell from the given one, before limit; limit if there is none
+  int nextUnflooded(int index, int limit) {
+    int word = index >>> 6;
+    long bits = ~this.flooded[word] & (-1L << index);
+    while (bits == 0) {
+      word++;
+      if ((long) word << 6 >= limit) {
+        return limit;
+      }
+      bits = ~this.flooded[word];
+    }
+    return Math.min(limit, (word << 6) + Long.numberOfTrailingZeros(bits));
+  }
+
+  // one past the last flooded cell before the given one, at least limit
+  int floodedBefore(int index, int limit) {
+    if (index == limit) {
+      return limit;
+    }
+    int word = (index - 1) >>> 6;
+    long bits = this.flooded[word] & (-1L >>> (63 - ((index - 1) & 63)));
+    while (bits == 0) {
+      if ((long) word << 6 <= limit) {
+        return limit;
+      }
+      word--;
+      bits = this.flooded[word];
+    }
+    return Math.max(limit, (word << 6) + 64 - Long.numberOfLeadingZeros(bits));
+  }
+
+  // EFFECT: floods the cells from up to to
+  void setFlooded(int from, int to) {
+    int first = from >>> 6;
+    int last = (to - 1) >>> 6;
+    long firstMask = -1L << from;
+    long lastMask = -1L >>> (63 - ((to - 1) & 63));
+    if (first == last) {
+      this.flooded[first] |= firstMask & lastMask;
+      return;
+    }
+    this.flooded[first] |= firstMask;
+    for (int word = first + 1; word < last; word++) {
+      this.flooded[word] = -1L;
+    }
+    this.flooded[last] |= lastMask;
+  }
+
+  // is any of the cells from up to to unflooded
+  boolean anyUnflooded(int from, int to) {
+    return this.nextUnflooded(from, to) < to;
+  }
+
+  // does the run of flooded cells from up to to touch an unflooded cell
+  boolean touchesUnflooded(int from, int to) {
+    return (from % this.width != 0 && !this.board.isFlooded(from - 1))
+        || (to % this.width != 0 && !this.board.isFlooded(to))
+        || (from >= this.width && this.anyUnflooded(from - this.width, to - this.width))
+        || (to + this.width <= this.colors.length
+            && this.anyUnflooded(from + this.width, to + this.width));
+  }
+
+  // keeps the boundary and gained runs that touch an unflooded cell as the boundary;
+  // returns the number of cells gained
+  // EFFECT: rebuilds the boundary
+  int finishMove() {
+    int gain = 0;
+    int kept = 0;
+    for (int k = 0; k < this.boundarySize; k += 2) {
+      if (this.touchesUnflooded(this.boundary[k], this.boundary[k + 1])) {
+        this.boundary[kept] = this.boundary[k];
+        this.boundary[kept + 1] = this.boundary[k + 1];
+        kept += 2;
+      }
+    }
+    if (kept + this.gainedSize > this.boundary.length) {
+      this.boundary = Arrays.copyOf(this.boundary,
+          Math.max(this.boundary.length * 2, kept + this.gainedSize));
+    }
+    for (int k = 0; k < this.gainedSize; k += 2) {
+      gain += this.gained[k + 1] - this.gained[k];
+      if (this.touchesUnflooded(this.gained[k], this.gained[k + 1])) {
+        this.boundary[kept] = this.gained[k];
+        this.boundary[kept + 1] = this.gained[k + 1];
+        kept += 2;
+      }
+    }
+    this.boundarySize = kept;
+    return gain;
+  }
+}
+
+class ExamplesScanlineFloodEngine {
+  // tests the bulk searches for colors and flooded cells
+  boolean testSearches(Tester t) {
+    PackedBoard board = new PackedBoard(200, 1);
+    for (int i = 0; i < 200; i++) {
+      board.setColor(i, i >= 37 && i < 150 ? 3 : 1);
+    }
+    board.makeFlooded(70);
+    board.makeFlooded(130);
+    ScanlineFloodEngine engine = new ScanlineFloodEngine();
+    engine.board = board;
+    engine.colors = board.colors;
+    engine.flooded = board.flooded;
+    engine.width = 200;
+    engine.setColor(3);
+    return t.checkExpect(engine.nextOfColor(0, 200), 37)
+        && t.checkExpect(engine.nextOfColor(0, 30), 30)
+        && t.checkExpect(engine.sameColorEnd(40, 200), 150)
+        && t.checkExpect(engine.sameColorEnd(40, 100), 100)
+        && t.checkExpect(engine.sameColorStart(140, 0), 37)
+        && t.checkExpect(engine.sameColorStart(140, 120), 120)
+        && t.checkExpect(engine.nextFlooded(0, 200), 70)
+        && t.checkExpect(engine.nextFlooded(71, 200), 130)
+        && t.checkExpect(engine.nextFlooded(131, 200), 200)
+        && t.checkExpect(engine.floodedBefore(129, 0), 71)
+        && t.checkExpect(engine.floodedBefore(70, 0), 0)
+        && t.checkExpect(engine.nextUnflooded(70, 200), 71);
+  }
+
+  // tests that runs are marked flooded across word boundaries
+  boolean testSetFlooded(Tester t) {
+    PackedBoard board = new PackedBoard(300, 1);
+    ScanlineFloodEngine engine = new ScanlineFloodEngine();
+    engine.board = board;
+    engine.flooded = board.flooded;
+    engine.setFlooded(60, 200);
+    engine.setFlooded(5, 6);
+    int count = 0;
+    for (int i = 0; i < 300; i++) {
+      if (board.isFlooded(i)) {
+        count++;
+      }
+    }
+    return t.checkExpect(count, 141)
+        && t.checkExpect(board.isFlooded(5), true)
+        && t.checkExpect(board.isFlooded(59), false)
+        && t.checkExpect(board.isFlooded(199), true)
+        && t.checkExpect(board.isFlooded(200), false)
+        && t.checkExpect(engine.anyUnflooded(60, 200), false)
+        && t.checkExpect(engine.anyUnflooded(60, 201), true);
+  }
+
+  // tests that the engine agrees with FloodFrontier cell for cell on random games
+  // of boards whose widths do and do not fill whole words
+  boolean testMatchesFrontier(Tester t) {
+    ExamplesFloodEngine examples = new ExamplesFloodEngine();
+    boolean result = true;
+    int[] widths = new int[] {1, 7, 64, 61, 130};
+    for (int seed = 0; seed < widths.length; seed++) {
+      PackedBoard board = PackedBoard.random(widths[seed], 33, 3 + seed % 3,
+          new Random(seed));
+      result = result && examples.agreesWithFrontier(new ScanlineFloodEngine(), board,
+          3 + seed % 3, seed + 100, 60);
+    }
+    return t.checkExpect(result, true);
+  }
+
+  // tests that a large uniform board floods as one run per row
+  boolean testUniform(Tester t) {
+    PackedBoard board = new PackedBoard(1000, 1000);
+    board.setColor(0, 1);
+    board.makeFlooded(0);
+    ScanlineFloodEngine engine = new ScanlineFloodEngine();
+    engine.start(board);
+    int gained = engine.flood(0);
+    return t.checkExpect(gained, 1000 * 1000 - 1)
+        && t.checkExpect(engine.gainedSize, 2 * 1000)
+        && t.checkExpect(engine.boundarySize, 0);
+  }
+
+  // tests runs that start and end partway through a word and run across word
+  // boundaries: rows of 100 cells each start at a different bit of a word, and each
+  // color comes in runs of 61 cells that straddle the rows and words they cross
+  boolean testRunsAcrossWords(Tester t) {
+    PackedBoard board = new PackedBoard(100, 40);
+    for (int i = 0; i < board.size(); i++) {
+      board.setColor(i, i / 61 % 3);
+    }
+    board.makeFlooded(0);
+    ScanlineFloodEngine engine = new ScanlineFloodEngine();
+    engine.start(board.copy());
+    // the cells 61 to 99 of the first row, across the first word boundary
+    boolean test1 = t.checkExpect(engine.flood(1), 39 + 22)
+        && t.checkExpect(crossesWord(engine.gained, engine.gainedSize), true);
+    // some later boundary holds runs across words too
+    boolean test2 = false;
+    for (int m = 0; m < 30; m++) {
+      engine.flood(m % 3);
+      test2 = test2 || crossesWord(engine.boundary, engine.boundarySize);
+    }
+    return test1 && t.checkExpect(test2, true)
+        && t.checkExpect(new ExamplesFloodEngine()
+            .agreesWithFrontier(new ScanlineFloodEngine(), board, 3, 7, 40), true);
+  }
+
+  // does any of the first size / 2 runs laid out in the given array start and end
+  // partway through different words?
+  boolean crossesWord(int[] runs, int size) {
+    boolean result = false;
+    for (int k = 0; k < size; k += 2) {
+      result = result || runs[k] % 64 != 0 && runs[k + 1] % 64 != 0
+          && runs[k] / 64 != (runs[k + 1] - 1) / 64;
+    }
+    return result;
+  }
+
+  // tests a world flooded by the engine and one animated cell by cell
+  boolean testWorld(Tester t) {
+    return t.checkExpect(new ExamplesFloodEngine()
+        .agreesWithAnimation(new ScanlineFloodEngine()), true);
+  }
+}
@@ -0,0 +1,575 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import tester.*;
+import javalib.impworld.*;
+import java.awt.Color;
+import javalib.worldimages.*;
+
+// Draws a FloodItWorld without rebuilding the whole scene every frame.
+// A javalib scene can only be added to, so the renderer keeps the last frame's
+// scene and places images over the parts that changed since: the cells recolored
+// and any HUD line whose text changed. There is one tile image per color and one
+// text image per HUD value shown. Once the overlays add up to as many images as
+// the board has cells, the scene is rebuilt so drawing it stays bounded.
+// A frame where nothing changed returns the same scene and allocates nothing
+class SceneRenderer {
+  static final int CELL_SIZE = 30;
+
+  WorldScene scene;
+  // the part of the board drawn, or null to draw all of it. Snapshots are always
+  // drawn whole
+  Viewport view;
+  // the raster the board is drawn into instead of tiles, or null to draw tiles
+  RasterRenderer raster;
+  // the width of the board the scene was last rebuilt for
+  int boardWidth;
+  // one tile per palette color
+  RectangleImage[] tiles;
+  // the snapshot drawn last, when drawing snapshots
+  BoardSnapshot drawn;
+  // the number of cells drawn when the scene was last rebuilt
+  int cells;
+  // the cells recolored since the last frame, in dirty[0, dirtyCount)
+  int[] dirty = new int[64];
+  int dirtyCount;
+  // whether the next frame is rebuilt from scratch
+  boolean redrawAll = true;
+  // images placed over the scene since it was last rebuilt
+  int overlays;
+
+  // the HUD values last drawn, and their images
+  int shownMoves = -1;
+  int shownLimit = -1;
+  int shownSeconds = -1;
+  int shownBest = -1;
+  // 0 while playing, 1 once won and 2 once lost
+  int shownResult;
+  // the hinted color and its gain last drawn; -1 when no hint is drawn
+  int shownHint = -1;
+  int shownGain;
+  TextImage hintText;
+  TextImage movesText;
+  TextImage timeText;
+  TextImage resultText;
+  TextImage bestText;
+  // blank patches laid over a HUD line before its new text, each kept clear
+  // of the board
+  RectangleImage linePatch;
+  RectangleImage resultPatch;
+  RectangleImage bestPatch;
+
+  // records that the cell at the given index changed color
+  // EFFECT: adds it to the cells to redraw, or redraws everything next frame
+  // once there are as many changes as cells
+  void cellChanged(int index) {
+    if (this.raster != null) {
+      this.raster.cellChanged(index);
+      return;
+    }
+    if (this.redrawAll) {
+      return;
+    }
+    if (this.view != null
+        && !this.view.contains(index % this.boardWidth, index / this.boardWidth)) {
+      return;
+    }
+    if (this.overlays + this.dirtyCount >= this.cells) {
+      this.redrawAll = true;
+      return;
+    }
+    if (this.dirtyCount == this.dirty.length) {
+      this.dirty = Arrays.copyOf(this.dirty, this.dirtyCount * 2);
+    }
+    this.dirty[this.dirtyCount] = index;
+    this.dirtyCount++;
+  }
+
+  // EFFECT: makes the next frame redraw everything
+  void invalidate() {
+    this.redrawAll = true;
+    this.dirtyCount = 0;
+    if (this.raster != null) {
+      this.raster.invalidate();
+    }
+  }
+
+  // the scene for the given world
+  // EFFECT: updates the kept scene with whatever changed since the last frame
+  WorldScene render(FloodItWorld world) {
+    boolean rebuilt = this.redrawAll;
+    if (rebuilt) {
+      this.rebuild(world);
+    }
+    else if (this.raster != null) {
+      // the raster's image is on the scene already, and is redrawn in place
+      this.raster.render(world);
+    }
+    else {
+      int width = world.grid.width();
+      for (int i = 0; i < this.dirtyCount; i++) {
+        this.placeTile(world, this.dirty[i], width);
+      }
+      this.overlays += this.dirtyCount;
+    }
+    this.dirtyCount = 0;
+    if (this.view == null && this.raster == null) {
+      this.drawHud(world, rebuilt);
+    }
+    else {
+      this.drawHud(this.shownColumns(world), this.shownRows(world), world.movesMade,
+          world.moveLimit, world.timer, world.wonGame, world.lostGame, world.bestTime,
+          rebuilt);
+    }
+    this.drawHint(world, rebuilt);
+    return this.scene;
+  }
+
+  // EFFECT: draws the hint line of the given world when its best color or that
+  // color's gain changed, or on a fresh scene; the hint is read in O(1) between moves
+  void drawHint(FloodItWorld world, boolean all) {
+    int color = world.hints == null || world.flooding ? -1 : world.hints.bestColor();
+    int gain = color == -1 ? 0 : world.hints.gainOf(color);
+    boolean changed = color != this.shownHint || gain != this.shownGain;
+    if (!changed && !all) {
+      return;
+    }
+    if (changed) {
+      this.shownHint = color;
+      this.shownGain = gain;
+      this.hintText = color == -1 ? null
+          : new TextImage("Hint: +" + gain + " cells", 20, Color.black);
+    }
+    int centerX = (this.shownColumns(world) * CELL_SIZE + 100) / 2;
+    int y = this.shownRows(world) * CELL_SIZE + 160;
+    this.placeLine(this.hintText, this.linePatch, centerX + CELL_SIZE, y, all);
+    if (color != -1) {
+      this.scene.placeImageXY(this.tiles[color], centerX - 90, y);
+      if (!all) {
+        this.overlays++;
+      }
+    }
+  }
+
+  // the number of tiles across the board drawn for the given world takes; a raster
+  // takes as many as fit across its pixels
+  int shownColumns(FloodItWorld world) {
+    if (this.raster != null) {
+      return this.raster.pixelWidth / CELL_SIZE;
+    }
+    return this.view == null ? world.width : this.view.columns;
+  }
+
+  // the number of tiles down the board drawn for the given world takes
+  int shownRows(FloodItWorld world) {
+    if (this.raster != null) {
+      return this.raster.pixelHeight / CELL_SIZE;
+    }
+    return this.view == null ? world.height : this.view.rows;
+  }
+
+  // the scene for the given snapshot. Snapshots share the blocks that did not
+  // change, so only the cells of blocks that are not the ones last drawn are
+  // drawn again
+  // EFFECT: updates the kept scene with whatever changed since the last frame
+  WorldScene render(BoardSnapshot snapshot) {
+    boolean rebuilt = this.redrawAll || this.drawn == null
+        || this.drawn.blocks.length != snapshot.blocks.length
+        || this.drawn.width != snapshot.width;
+    if (!rebuilt && this.drawn != snapshot) {
+      int changed = 0;
+      for (int b = 0; b < snapshot.blocks.length; b++) {
+        if (snapshot.blocks[b] != this.drawn.blocks[b]) {
+          changed += snapshot.blocks[b].length;
+        }
+      }
+      rebuilt = this.overlays + changed >= this.cells;
+      if (!rebuilt) {
+        for (int b = 0; b < snapshot.blocks.length; b++) {
+          if (snapshot.blocks[b] != this.drawn.blocks[b]) {
+            this.placeBlock(snapshot, b);
+          }
+        }
+        this.overlays += changed;
+      }
+    }
+    if (rebuilt) {
+      this.startScene(snapshot.palette, snapshot.size());
+      for (int b = 0; b < snapshot.blocks.length; b++) {
+        this.placeBlock(snapshot, b);
+      }
+    }
+    this.drawn = snapshot;
+    this.drawHud(snapshot.width, snapshot.height, snapshot.movesMade, snapshot.moveLimit,
+        snapshot.timer, snapshot.wonGame, snapshot.lostGame, snapshot.bestTime, rebuilt);
+    return this.scene;
+  }
+
+  // EFFECT: places the tiles of every cell of the given block of the snapshot
+  void placeBlock(BoardSnapshot snapshot, int block) {
+    byte[] colors = snapshot.blocks[block];
+    int first = block << BoardSnapshot.BLOCK_BITS;
+    for (int i = 0; i < colors.length; i++) {
+      int index = first + i;
+      this.scene.placeImageXY(this.tiles[colors[i]],
+          index % snapshot.width * CELL_SIZE + 50, index / snapshot.width * CELL_SIZE + 50);
+    }
+  }
+
+  // EFFECT: starts a new scene with every cell in view drawn on it
+  void rebuild(FloodItWorld world) {
+    int width = world.grid.width();
+    this.boardWidth = width;
+    if (this.raster != null) {
+      // a raster's pixels stand in for tiles when bounding the overlays
+      this.startScene(world.colors, this.shownColumns(world) * this.shownRows(world));
+      this.scene.placeImageXY(this.raster.render(world),
+          CELL_SIZE + 5 + this.raster.pixelWidth / 2,
+          CELL_SIZE + 5 + this.raster.pixelHeight / 2);
+    }
+    else if (this.view == null) {
+      this.startScene(world.colors, world.grid.size());
+      for (int i = 0; i < this.cells; i++) {
+        this.placeTile(world, i, width);
+      }
+    }
+    else {
+      this.startScene(world.colors, this.view.columns * this.view.rows);
+      for (int y = this.view.y; y < this.view.y + this.view.rows; y++) {
+        for (int x = this.view.x; x < this.view.x + this.view.columns; x++) {
+          this.placeTile(world, y * width + x, width);
+        }
+      }
+    }
+  }
+
+  // EFFECT: starts an empty scene for a board of the given number of cells,
+  // making the tiles of the given palette if they are not made yet
+  void startScene(ArrayList<Color> palette, int cells) {
+    if (this.tiles == null || this.tiles.length != palette.size()) {
+      this.tiles = new RectangleImage[palette.size()];
+      for (int c = 0; c < this.tiles.length; c++) {
+        this.tiles[c] = new RectangleImage(CELL_SIZE, CELL_SIZE, OutlineMode.SOLID,
+            palette.get(c));
+      }
+    }
+    this.scene = new WorldScene(2000, 2000);
+    this.cells = cells;
+    this.overlays = 0;
+    this.redrawAll = false;
+  }
+
+  // EFFECT: places the tile of the cell at the given index on the scene
+  void placeTile(FloodItWorld world, int index, int width) {
+    int x = index % width;
+    int y = index / width;
+    if (this.view != null) {
+      x -= this.view.x;
+      y -= this.view.y;
+    }
+    this.scene.placeImageXY(this.tiles[world.displayColor(index)],
+        x * CELL_SIZE + 50, y * CELL_SIZE + 50);
+  }
+
+  // EFFECT: draws the HUD lines of the given world that changed, or all of them
+  // on a fresh scene
+  void drawHud(FloodItWorld world, boolean all) {
+    this.drawHud(world.width, world.height, world.movesMade, world.moveLimit, world.timer,
+        world.wonGame, world.lostGame, world.bestTime, all);
+  }
+
+  // EFFECT: draws the HUD lines that changed, or all of them on a fresh scene,
+  // making new text images only for values not drawn before
+  void drawHud(int width, int height, int movesMade, int moveLimit, int timer, boolean won,
+      boolean lost, int bestTime, boolean all) {
+    int centerX = (width * CELL_SIZE + 100) / 2;
+    if (this.linePatch == null) {
+      this.linePatch = new RectangleImage(width * CELL_SIZE + 100, 34, OutlineMode.SOLID,
+          Color.white);
+      this.resultPatch = new RectangleImage(width * CELL_SIZE + 100, 30,
+          OutlineMode.SOLID, Color.white);
+      this.bestPatch = new RectangleImage(160, 30, OutlineMode.SOLID, Color.white);
+    }
+    boolean changed = movesMade != this.shownMoves || moveLimit != this.shownLimit;
+    if (changed) {
+      this.shownMoves = movesMade;
+      this.shownLimit = moveLimit;
+      this.movesText = new TextImage("Moves made: " + movesMade + "/" + moveLimit,
+          22, Color.black);
+    }
+    if (changed || all) {
+      this.placeLine(this.movesText, this.linePatch, centerX, height * CELL_SIZE + 80,
+          all);
+    }
+    changed = timer / 1000 != this.shownSeconds;
+    if (changed) {
+      this.shownSeconds = timer / 1000;
+      this.timeText = new TextImage(this.shownSeconds + "  Seconds Passed", 22, Color.black);
+    }
+    if (changed || all) {
+      this.placeLine(this.timeText, this.linePatch, centerX, height * CELL_SIZE + 120,
+          all);
+    }
+    int result = won ? 1 : lost ? 2 : 0;
+    changed = result != this.shownResult;
+    if (changed) {
+      this.shownResult = result;
+      this.resultText = result == 1 ? new TextImage("You win :)", 20, Color.green)
+          : result == 2 ? new TextImage("You lose :(", 20, Color.red) : null;
+    }
+    if (changed || all) {
+      this.placeLine(this.resultText, this.resultPatch, centerX, 20, all);
+    }
+    changed = bestTime != this.shownBest;
+    if (changed) {
+      this.shownBest = bestTime;
+      this.bestText = bestTime > -1
+          ? new TextImage("Best Time(sec): " + bestTime, 19, Color.black) : null;
+    }
+    if (changed || all) {
+      this.placeLine(this.bestText, this.bestPatch, width * CELL_SIZE + 115,
+          (height * CELL_SIZE + 100) / 2, all);
+    }
+  }
+
+  // places a HUD line, first covering the old one with the given patch unless the
+  // scene is fresh
+  // EFFECT: adds the patch and text, when there are any, to the scene
+  void placeLine(TextImage text, RectangleImage patch, int x, int y, boolean fresh) {
+    if (!fresh && patch != null) {
+      this.scene.placeImageXY(patch, x, y);
+      this.overlays++;
+    }
+    if (text != null) {
+      this.scene.placeImageXY(text, x, y);
+      if (!fresh) {
+        this.overlays++;
+      }
+    }
+  }
+}
+
+// The window of cells of a board that is drawn: columns x rows cells whose
+// top-left cell is at (x, y)
+class Viewport {
+  // the most cells drawn across or down by default, which fills the scene
+  static final int DEFAULT_CELLS = 40;
+
+  int x;
+  int y;
+  int columns;
+  int rows;
+
+  Viewport(int x, int y, int columns, int rows) {
+    this.x = x;
+    this.y = y;
+    this.columns = columns;
+    this.rows = rows;
+  }
+
+  // is the cell at the given column and row in view
+  boolean contains(int column, int row) {
+    return column >= this.x && column < this.x + this.columns
+        && row >= this.y && row < this.y + this.rows;
+  }
+
+  // moves this view half its size in the direction of the given arrow key,
+  // keeping it on a board of the given dimensions; true if it moved
+  // EFFECT: may change x and y
+  boolean pan(String key, int width, int height) {
+    int oldX = this.x;
+    int oldY = this.y;
+    if (key.equals("left")) {
+      this.x -= Math.max(1, this.columns / 2);
+    }
+    else if (key.equals("right")) {
+      this.x += Math.max(1, this.columns / 2);
+    }
+    else if (key.equals("up")) {
+      this.y -= Math.max(1, this.rows / 2);
+    }
+    else if (key.equals("down")) {
+      this.y += Math.max(1, this.rows / 2);
+    }
+    this.x = Math.max(0, Math.min(this.x, width - this.columns));
+    this.y = Math.max(0, Math.min(this.y, height - this.rows));
+    return this.x != oldX || this.y != oldY;
+  }
+}
+
+class ExamplesSceneRenderer {
+  FloodItWorld world;
+
+  // resets the world for testing purposes, with its first flood drained
+  void reset() {
+    world = new FloodItWorld(3, 20, 15, new Random(42), true);
+    drain();
+  }
+
+  // EFFECT: animates the world until its flood is done
+  void drain() {
+    while (world.flooding) {
+      world.animateFlood();
+    }
+  }
+
+  // the scene of the given world drawn from scratch, the way every frame used to be
+  WorldScene fullScene(FloodItWorld w) {
+    WorldScene scene = new WorldScene(2000, 2000);
+    int width = w.grid.width();
+    for (int i = 0; i < w.grid.size(); i++) {
+      scene.placeImageXY(
+          new RectangleImage(30, 30, OutlineMode.SOLID, w.colors.get(w.displayColor(i))),
+          i % width * 30 + 50, i / width * 30 + 50);
+    }
+    scene.placeImageXY(new TextImage("Moves made: " + w.movesMade + "/" + w.moveLimit,
+        22, Color.black), (w.width * 30 + 100) / 2, w.height * 30 + 80);
+    scene.placeImageXY(new TextImage(w.timer / 1000 + "  Seconds Passed", 22, Color.black),
+        (w.width * 30 + 100) / 2, w.height * 30 + 120);
+    if (w.wonGame) {
+      scene.placeImageXY(new TextImage("You win :)", 20, Color.green),
+          (w.width * 30 + 100) / 2, 20);
+    }
+    else if (w.lostGame) {
+      scene.placeImageXY(new TextImage("You lose :(", 20, Color.red),
+          (w.width * 30 + 100) / 2, 20);
+    }
+    if (w.bestTime > -1) {
+      scene.placeImageXY(new TextImage("Best Time(sec): " + w.bestTime, 19, Color.black),
+          (w.width * 30) + 115, (w.height * 30 + 100) / 2);
+    }
+    return scene;
+  }
+
+  // tests that the first frame is the full scene
+  boolean testFirstFrame(Tester t) {
+    reset();
+    world.bestTime = 12;
+    world.lostGame = true;
+    return t.checkExpect(world.makeScene(), fullScene(world))
+        && t.checkExpect(world.renderer.overlays, 0);
+  }
+
+  // tests that a frame where nothing changed reuses the scene and every image
+  boolean testSteadyFrame(Tester t) {
+    reset();
+    WorldScene first = world.makeScene();
+    TextImage moves = world.renderer.movesText;
+    TextImage time = world.renderer.timeText;
+    world.onTick();
+    world.timer = 999;
+    WorldScene second = world.makeScene();
+    return t.checkExpect(second == first, true)
+        && t.checkExpect(world.renderer.movesText == moves, true)
+        && t.checkExpect(world.renderer.timeText == time, true)
+        && t.checkExpect(world.renderer.overlays, 0);
+  }
+
+  // tests that only recolored cells and changed HUD lines are drawn over the scene
+  boolean testDirtyCells(Tester t) {
+    reset();
+    WorldScene first = world.makeScene();
+    TextImage time = world.renderer.timeText;
+    world.flood((world.floodColor + 1) % 3);
+    drain();
+    int recolored = world.renderer.dirtyCount;
+    WorldScene second = world.makeScene();
+    boolean test1 = t.checkExpect(second == first, true)
+        && t.checkExpect(recolored, world.tilesTouched + 1)
+        && t.checkExpect(world.renderer.overlays, recolored + 2)
+        && t.checkExpect(world.renderer.dirtyCount, 0)
+        && t.checkExpect(world.renderer.timeText == time, true)
+        && t.checkExpect(world.renderer.movesText,
+            new TextImage("Moves made: 1/" + world.moveLimit, 22, Color.black));
+    world.timer = 1000;
+    world.makeScene();
+    boolean test2 = t.checkExpect(world.renderer.overlays, recolored + 4)
+        && t.checkExpect(world.renderer.timeText,
+            new TextImage("1  Seconds Passed", 22, Color.black));
+    return test1 && test2;
+  }
+
+  // tests that the scene is rebuilt once the overlays reach the number of cells,
+  // on a reset, and after an engine move
+  boolean testRebuild(Tester t) {
+    reset();
+    WorldScene first = world.makeScene();
+    for (int m = 0; m < 40 && !world.renderer.redrawAll; m++) {
+      world.makeScene();
+      world.flood((world.floodColor + 1) % 3);
+      drain();
+    }
+    boolean test1 = t.checkExpect(world.renderer.redrawAll, true);
+    WorldScene rebuilt = world.makeScene();
+    boolean test2 = t.checkExpect(rebuilt == first, false)
+        && t.checkExpect(rebuilt, fullScene(world))
+        && t.checkExpect(world.renderer.overlays, 0);
+    world.onKeyEvent("r");
+    drain();
+    boolean test3 = t.checkExpect(world.makeScene(), fullScene(world));
+    FloodItWorld instant = new FloodItWorld(3, 20, 15, new Random(42), new FloodFrontier());
+    instant.makeScene();
+    instant.flood((instant.floodColor + 1) % 3);
+    boolean test4 = t.checkExpect(instant.renderer.redrawAll, true)
+        && t.checkExpect(instant.makeScene(), fullScene(instant));
+    return test1 && test2 && test3 && test4;
+  }
+
+  // tests that the hint line is drawn only when the hinted color or gain changes
+  boolean testHint(Tester t) {
+    reset();
+    world.makeScene();
+    world.onKeyEvent("h");
+    int best = world.hints.bestColor();
+    world.makeScene();
+    TextImage hint = world.renderer.hintText;
+    boolean test1 = t.checkExpect(world.renderer.overlays, 3)
+        && t.checkExpect(world.renderer.shownHint, best)
+        && t.checkExpect(hint, new TextImage("Hint: +" + world.hints.gainOf(best) + " cells",
+            20, Color.black));
+    world.makeScene();
+    boolean test2 = t.checkExpect(world.renderer.overlays, 3)
+        && t.checkExpect(world.renderer.hintText == hint, true);
+    world.onKeyEvent("h");
+    world.makeScene();
+    return test1 && test2 && t.checkExpect(world.renderer.shownHint, -1)
+        && t.checkExpect(world.renderer.hintText, null)
+        && t.checkExpect(world.renderer.overlays, 4);
+  }
+
+  // tests that only the cells in view are drawn, and that panning and clicks follow the view
+  boolean testViewport(Tester t) {
+    reset();
+    world.renderer.view = new Viewport(8, 5, 6, 4);
+    world.renderer.invalidate();
+    WorldScene expected = new WorldScene(2000, 2000);
+    for (int y = 0; y < 4; y++) {
+      for (int x = 0; x < 6; x++) {
+        expected.placeImageXY(new RectangleImage(30, 30, OutlineMode.SOLID,
+            world.colors.get(world.displayColor((y + 5) * 20 + x + 8))),
+            x * 30 + 50, y * 30 + 50);
+      }
+    }
+    expected.placeImageXY(new TextImage("Moves made: 0/" + world.moveLimit, 22, Color.black),
+        (6 * 30 + 100) / 2, 4 * 30 + 80);
+    expected.placeImageXY(new TextImage("0  Seconds Passed", 22, Color.black),
+        (6 * 30 + 100) / 2, 4 * 30 + 120);
+    boolean test1 = t.checkExpect(world.makeScene(), expected);
+    world.renderer.cellChanged(0);
+    world.renderer.cellChanged(6 * 20 + 9);
+    boolean test2 = t.checkExpect(world.renderer.dirtyCount, 1);
+    world.onKeyEvent("right");
+    boolean test3 = t.checkExpect(world.renderer.view.x, 11)
+        && t.checkExpect(world.renderer.redrawAll, true);
+    world.onKeyEvent("right");
+    world.onKeyEvent("up");
+    world.onKeyEvent("up");
+    world.onKeyEvent("up");
+    boolean test4 = t.checkExpect(world.renderer.view.x, 14)
+        && t.checkExpect(world.renderer.view.y, 0);
+    int color = world.displayColor(1 * 20 + 16);
+    world.onMouseClicked(new Posn(35 + 2 * 30 + 15, 35 + 30 + 15));
+    boolean test5 = t.checkExpect(world.floodColor, color);
+    return test1 && test2 && test3 && test4 && test5;
+  }
+}